@@ -2,19 +2,33 @@ package de.traber_info.home.ldap2azure;
 
 import de.traber_info.home.ldap2azure.h2.H2Helper;
 import de.traber_info.home.ldap2azure.model.config.GraphClientConfig;
+import de.traber_info.home.ldap2azure.model.object.Sync;
+import de.traber_info.home.ldap2azure.model.object.SyncPlan;
+import de.traber_info.home.ldap2azure.model.type.SyncRunState;
 import de.traber_info.home.ldap2azure.msgraph.GraphClientUtil;
+import de.traber_info.home.ldap2azure.msgraph.LicenseManager;
 import de.traber_info.home.ldap2azure.quartz.CleanupJob;
+import de.traber_info.home.ldap2azure.quartz.PurgeJob;
+import de.traber_info.home.ldap2azure.quartz.RetryJob;
 import de.traber_info.home.ldap2azure.quartz.SyncJob;
 import de.traber_info.home.ldap2azure.rest.server.HttpServer;
+import de.traber_info.home.ldap2azure.service.AzureReconcileService;
 import de.traber_info.home.ldap2azure.service.AzureSyncService;
 import de.traber_info.home.ldap2azure.service.LdapImportService;
+import de.traber_info.home.ldap2azure.service.PipelinedSyncService;
+import de.traber_info.home.ldap2azure.service.SyncPlanService;
 import de.traber_info.home.ldap2azure.util.ConfigUtil;
 import org.quartz.*;
 import org.quartz.impl.StdSchedulerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.naming.NamingException;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Main class for ldap2azure. Performs the first initialisation of all components.
@@ -37,6 +51,7 @@ public class Ldap2Azure {
         // Add shutdown hook to cleanly shutdown the program
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             LOG.info("Performing clean shutdown");
+            LdapImportService.close();
             H2Helper.close();
             HttpServer.stop();
             if (quartzScheduler != null) {
@@ -51,6 +66,9 @@ public class Ldap2Azure {
         // Initialize H2 database
         H2Helper.init(ConfigUtil.getConfig().getGeneralConfig().isDebuggingEnabled());
 
+        // Only plan the next sync if requested, without contacting Azure AD
+        if (Arrays.asList(args).contains("--plan")) System.exit(printSyncPlan());
+
         // Initialize GraphClientUtil
         GraphClientConfig graphClientConfig = ConfigUtil.getConfig().getGraphClientConfig();
         GraphClientUtil.init(
@@ -59,19 +77,47 @@ public class Ldap2Azure {
                 graphClientConfig.getClientSecret()
         );
 
+        // Validate the configured licenses against the subscribed licenses of the tenant
+        LicenseManager.init(GraphClientUtil.getGraphServiceClient(), ConfigUtil.getConfig().getAutoLicencingConfig());
+
         // Initialize the http management server when enabled in the config file
         if (ConfigUtil.getConfig().getWebConfig().isEnabled()) HttpServer.start();
 
-        LOG.info("Running initial sync...");
+        // Syncs still marked as running were interrupted by a crash or a forced shutdown
+        List<Sync> interruptedSyncs = H2Helper.getSyncDao().getInterrupted();
+        if (!interruptedSyncs.isEmpty()) {
+            // Only the newest sync is resumed, since its phases cover all users pending from older ones
+            for (Sync olderSync : interruptedSyncs.subList(1, interruptedSyncs.size())) {
+                olderSync.end(SyncRunState.FAILED, LocalDateTime.now());
+                H2Helper.getSyncDao().update(olderSync);
+            }
+
+            LOG.info("Resuming interrupted sync instead of running the initial sync...");
+            try {
+                new AzureSyncService().resume(interruptedSyncs.get(0));
+            } catch (SQLException ex) {
+                LOG.error("An unexpected error occurred", ex);
+            }
+        } else {
+            LOG.info("Running initial sync...");
 
-        // Import from source ldap
-        LdapImportService.run();
+            // Detect changes made in Azure AD outside of ldap2azure
+            if (graphClientConfig.isReconcileEnabled()) AzureReconcileService.run();
 
-        // Run sync with Azure AD
-        try {
-            new AzureSyncService().run();
-        } catch (SQLException ex) {
-            LOG.error("An unexpected error occurred", ex);
+            if (ConfigUtil.getConfig().getGeneralConfig().isPipelinedSync()) {
+                // Import from source ldap and sync with Azure AD at the same time
+                PipelinedSyncService.run();
+            } else {
+                // Import from source ldap
+                LdapImportService.run();
+
+                // Run sync with Azure AD
+                try {
+                    new AzureSyncService().run();
+                } catch (SQLException ex) {
+                    LOG.error("An unexpected error occurred", ex);
+                }
+            }
         }
 
         LOG.info("Initial sync done.");
@@ -106,9 +152,35 @@ public class Ldap2Azure {
                     .withSchedule(SimpleScheduleBuilder.repeatMinutelyForever(10))
                     .build();
 
+            // Prepare retry job
+            JobDetail retryJob = JobBuilder.newJob(RetryJob.class)
+                    .withIdentity("retryJob")
+                    .build();
+
+            // Prepare trigger that triggers every minute forever
+            Trigger retryTrigger = TriggerBuilder.newTrigger()
+                    .withIdentity("retryTrigger")
+                    .startNow()
+                    .withSchedule(SimpleScheduleBuilder.repeatMinutelyForever(1))
+                    .build();
+
+            // Prepare purge job
+            JobDetail purgeJob = JobBuilder.newJob(PurgeJob.class)
+                    .withIdentity("purgeJob")
+                    .build();
+
+            // Prepare trigger that triggers every minute forever
+            Trigger purgeTrigger = TriggerBuilder.newTrigger()
+                    .withIdentity("purgeTrigger")
+                    .startNow()
+                    .withSchedule(SimpleScheduleBuilder.repeatMinutelyForever(1))
+                    .build();
+
             // Schedule jobs and start scheduler
             quartzScheduler.scheduleJob(syncJob, syncTrigger);
             quartzScheduler.scheduleJob(cleanupJob, cleanupTrigger);
+            quartzScheduler.scheduleJob(retryJob, retryTrigger);
+            quartzScheduler.scheduleJob(purgeJob, purgeTrigger);
             quartzScheduler.start();
             LOG.info("Scheduled sync interval with cron expression {}",
                     ConfigUtil.getConfig().getGeneralConfig().getCronExpression());
@@ -118,4 +190,34 @@ public class Ldap2Azure {
 
     }
 
+    /**
+     * Plan the next sync and print the plan to the console.
+     * @return Exit code of the program. 0 if the plan was printed, otherwise 1.
+     */
+    private static int printSyncPlan() {
+        SyncPlan plan;
+        try {
+            plan = SyncPlanService.run();
+        } catch (NamingException | SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+            return 1;
+        }
+        System.out.println("Plan of the next sync created at " + plan.getPlannedAt());
+        System.out.println("  Users to create:    " + plan.getUsersToCreate());
+        System.out.println("  Users to update:    " + plan.getUsersToUpdate());
+        System.out.println("  Users to delete:    " + plan.getUsersToDelete());
+        System.out.println("  License requests:   " + plan.getLicenseRequests());
+        System.out.println("  Purge requests:     " + plan.getPurgeRequests());
+        System.out.println("  Graph requests:     " + plan.getGraphRequests());
+        System.out.println("  HTTP calls:         " + plan.getHttpCalls());
+        if (plan.getEstimatedDuration() != null) {
+            System.out.printf("  Estimated duration: %s (%.1f users per second in the last %d syncs)%n",
+                    Duration.ofSeconds(plan.getEstimatedDuration()), plan.getUsersPerSecond(),
+                    plan.getReferenceSyncs());
+        } else {
+            System.out.println("  Estimated duration: unknown, since no completed syncs are recorded");
+        }
+        return 0;
+    }
+
 }
@@ -1,13 +1,17 @@
 package de.traber_info.home.ldap2azure.h2;
 
+import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
 import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 import de.traber_info.home.ldap2azure.h2.dao.*;
+import de.traber_info.home.ldap2azure.model.object.PurgeEntry;
+import de.traber_info.home.ldap2azure.model.object.RetryEntry;
 import de.traber_info.home.ldap2azure.model.object.Sync;
 import de.traber_info.home.ldap2azure.model.object.User;
+import de.traber_info.home.ldap2azure.model.object.Watermark;
 import de.traber_info.home.ldap2azure.rest.model.object.ApiKey;
 import de.traber_info.home.ldap2azure.rest.model.object.ApiSession;
 import de.traber_info.home.ldap2azure.rest.model.object.ApiUser;
@@ -41,6 +45,12 @@ public class H2Helper {
     /** {@link SyncDAOImpl} used to persist {@link Sync} objects to the database */
     private static SyncDAOImpl syncDao;
 
+    /** {@link RetryEntryDAOImpl} used to persist {@link RetryEntry} objects to the database */
+    private static RetryEntryDAOImpl retryEntryDao;
+
+    /** {@link PurgeEntryDAOImpl} used to persist {@link PurgeEntry} objects to the database */
+    private static PurgeEntryDAOImpl purgeEntryDao;
+
     /** {@link ApiSessionDAOImpl} used to persist {@link ApiSession} objects to the database */
     private static ApiSessionDAOImpl apiSessionDao;
 
@@ -50,6 +60,9 @@ public class H2Helper {
     /** {@link ApiUserDAOImpl} used to persist {@link ApiUser} objects to the database */
     private static ApiUserDAOImpl apiUserDao;
 
+    /** {@link WatermarkDAOImpl} used to persist {@link Watermark} objects to the database */
+    private static WatermarkDAOImpl watermarkDao;
+
     /**
      * Initialize the H2 database connections, tables and DAOs and start the debugging console if needed
      * @param enableDebuggingConsole Set true to enable H2's web based console on TCP port 8082
@@ -63,11 +76,43 @@ public class H2Helper {
 
             inMemoryConnectionSource = new JdbcConnectionSource("jdbc:h2:mem:cache");
 
-            userDao = new UserDAOImpl(DaoManager.createDao(persistentConnectionSource, User.class));
-            TableUtils.createTableIfNotExists(persistentConnectionSource, User.class);
+            Dao<User, String> userTable = DaoManager.createDao(persistentConnectionSource, User.class);
+            userDao = new UserDAOImpl(userTable);
+            // The indexes of existing tables are created by the schema migration,
+            // since not all databases support CREATE INDEX IF NOT EXISTS
+            if (!SchemaMigration.tableExists(persistentConnectionSource, "users")) {
+                TableUtils.createTable(persistentConnectionSource, User.class);
+            }
+            SchemaMigration.addColumnIfNotExists(persistentConnectionSource,
+                    "users", "changedAttributes", "VARCHAR(255)");
+            if (SchemaMigration.addColumnIfNotExists(persistentConnectionSource,
+                    "users", "attributeHashes", "VARCHAR(255)")) {
+                userDao.updateHashes();
+            }
+            SchemaMigration.addColumnIfNotExists(persistentConnectionSource,
+                    "users", "deletedChangeState", "VARCHAR(255)");
+            SchemaMigration.createMissingIndexes(persistentConnectionSource, userTable);
 
             syncDao = new SyncDAOImpl(DaoManager.createDao(persistentConnectionSource, Sync.class));
             TableUtils.createTableIfNotExists(persistentConnectionSource, Sync.class);
+            SchemaMigration.addColumnIfNotExists(persistentConnectionSource, "syncs", "state", "VARCHAR(255)");
+            SchemaMigration.addColumnIfNotExists(persistentConnectionSource, "syncs", "phase", "VARCHAR(255)");
+            SchemaMigration.addColumnIfNotExists(persistentConnectionSource,
+                    "syncs", "lastCheckpoint", "VARCHAR(255)");
+
+            Dao<RetryEntry, String> retryTable = DaoManager.createDao(persistentConnectionSource, RetryEntry.class);
+            retryEntryDao = new RetryEntryDAOImpl(retryTable);
+            if (!SchemaMigration.tableExists(persistentConnectionSource, "retries")) {
+                TableUtils.createTable(persistentConnectionSource, RetryEntry.class);
+            }
+            SchemaMigration.createMissingIndexes(persistentConnectionSource, retryTable);
+
+            Dao<PurgeEntry, String> purgeTable = DaoManager.createDao(persistentConnectionSource, PurgeEntry.class);
+            purgeEntryDao = new PurgeEntryDAOImpl(purgeTable);
+            if (!SchemaMigration.tableExists(persistentConnectionSource, "purges")) {
+                TableUtils.createTable(persistentConnectionSource, PurgeEntry.class);
+            }
+            SchemaMigration.createMissingIndexes(persistentConnectionSource, purgeTable);
 
             apiSessionDao = new ApiSessionDAOImpl(DaoManager.createDao(inMemoryConnectionSource, ApiSession.class));
             TableUtils.createTableIfNotExists(inMemoryConnectionSource, ApiSession.class);
@@ -78,6 +123,11 @@ public class H2Helper {
             apiUserDao = new ApiUserDAOImpl(DaoManager.createDao(persistentConnectionSource, ApiUser.class));
             TableUtils.createTableIfNotExists(persistentConnectionSource, ApiUser.class);
 
+            watermarkDao = new WatermarkDAOImpl(DaoManager.createDao(persistentConnectionSource, Watermark.class));
+            TableUtils.createTableIfNotExists(persistentConnectionSource, Watermark.class);
+            SchemaMigration.widenColumnIfShorter(persistentConnectionSource,
+                    "watermarks", "value", Watermark.MAX_VALUE_LENGTH);
+
             if (enableDebuggingConsole) {
                 LOG.warn("Debugging mode is active. This will open an unsecured H2 Console on port 8082 of your host machine and is not recommended in an production environment.");
                 LOG.info("DEBUG - PersistentDB - {}", persistenceJDBCUrl);
@@ -119,6 +169,22 @@ public class H2Helper {
         return syncDao;
     }
 
+    /**
+     * Get the {@link RetryEntryDAOImpl} used to persist {@link RetryEntry} objects to the database.
+     * @return {@link RetryEntryDAOImpl} used to persist {@link RetryEntry} objects to the database.
+     */
+    public static RetryEntryDAOImpl getRetryEntryDao() {
+        return retryEntryDao;
+    }
+
+    /**
+     * Get the {@link PurgeEntryDAOImpl} used to persist {@link PurgeEntry} objects to the database.
+     * @return {@link PurgeEntryDAOImpl} used to persist {@link PurgeEntry} objects to the database.
+     */
+    public static PurgeEntryDAOImpl getPurgeEntryDao() {
+        return purgeEntryDao;
+    }
+
     /**
      * Get the {@link ApiSessionDAOImpl} used to persist {@link ApiSession} objects to the database.
      * @return {@link ApiSessionDAOImpl} used to persist {@link ApiSession} objects to the database.
@@ -143,4 +209,12 @@ public class H2Helper {
         return apiUserDao;
     }
 
+    /**
+     * Get the {@link WatermarkDAOImpl} used to persist {@link Watermark} objects to the database.
+     * @return {@link WatermarkDAOImpl} used to persist {@link Watermark} objects to the database.
+     */
+    public static WatermarkDAOImpl getWatermarkDao() {
+        return watermarkDao;
+    }
+
 }
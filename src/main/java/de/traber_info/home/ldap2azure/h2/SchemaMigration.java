@@ -0,0 +1,224 @@
+package de.traber_info.home.ldap2azure.h2;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Helper used to migrate tables created by older versions of ldap2azure to the current schema.
+ * {@link com.j256.ormlite.table.TableUtils#createTableIfNotExists} only creates missing tables,
+ * so columns and indexes added to an existing entity have to be added to existing databases here.
+ *
+ * @author Oliver Traber
+ */
+public class SchemaMigration {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaMigration.class.getName());
+
+    /**
+     * Check if a table exists. The table is queried directly, since the table metadata of H2 2.x also contains
+     * the tables of its information schema, like USERS, which would match tables of ldap2azure with the same name.
+     * @param connectionSource {@link ConnectionSource} of the database containing the table.
+     * @param tableName Name of the table.
+     * @return true if the table exists, otherwise false.
+     * @throws SQLException Thrown if no connection to the database could be opened.
+     */
+    public static boolean tableExists(ConnectionSource connectionSource, String tableName) throws SQLException {
+        DatabaseConnection databaseConnection = connectionSource.getReadOnlyConnection(tableName);
+        try (Statement statement = databaseConnection.getUnderlyingConnection().createStatement()) {
+            statement.executeQuery("SELECT * FROM " + escape(connectionSource, tableName) + " WHERE 1 = 0").close();
+            return true;
+        } catch (SQLException ex) {
+            return false;
+        } finally {
+            connectionSource.releaseConnection(databaseConnection);
+        }
+    }
+
+    /**
+     * Add a column to an existing table if it does not exist yet.
+     * @param connectionSource {@link ConnectionSource} of the database containing the table.
+     * @param tableName Name of the table.
+     * @param columnName Name of the column that should be added.
+     * @param columnDefinition SQL type and constraints of the new column, like VARCHAR(255).
+     * @return true if the column was added, or false if it already existed.
+     * @throws SQLException Thrown if the table could not be read or altered.
+     */
+    public static boolean addColumnIfNotExists(ConnectionSource connectionSource, String tableName,
+                                               String columnName, String columnDefinition) throws SQLException {
+        DatabaseConnection databaseConnection = connectionSource.getReadWriteConnection(tableName);
+        try (Statement statement = databaseConnection.getUnderlyingConnection().createStatement()) {
+            if (hasColumn(statement, escape(connectionSource, tableName), columnName)) return false;
+            statement.executeUpdate("ALTER TABLE " + escape(connectionSource, tableName) + " ADD COLUMN "
+                    + escape(connectionSource, columnName) + " " + columnDefinition);
+            return true;
+        } finally {
+            connectionSource.releaseConnection(databaseConnection);
+        }
+    }
+
+    /**
+     * Widen a VARCHAR column of an existing table if it is shorter than the given length.
+     * @param connectionSource {@link ConnectionSource} of the database containing the table.
+     * @param tableName Name of the table.
+     * @param columnName Name of the column that should be widened.
+     * @param length Minimum length of the column.
+     * @return true if the column was widened, or false if it was already long enough.
+     * @throws SQLException Thrown if the table could not be read or altered.
+     */
+    public static boolean widenColumnIfShorter(ConnectionSource connectionSource, String tableName,
+                                               String columnName, int length) throws SQLException {
+        DatabaseConnection databaseConnection = connectionSource.getReadWriteConnection(tableName);
+        try (Statement statement = databaseConnection.getUnderlyingConnection().createStatement()) {
+            String escapedTableName = escape(connectionSource, tableName);
+            int currentLength = getColumnLength(statement, escapedTableName, columnName);
+            if (currentLength < 0 || currentLength >= length) return false;
+            // MySQL does not support the standard ALTER COLUMN syntax for changing the type of a column
+            boolean mysql = "MySQL".equalsIgnoreCase(connectionSource.getDatabaseType().getDatabaseName());
+            LOG.info("Widening column {} of table {} to {} characters", columnName, tableName, length);
+            statement.executeUpdate("ALTER TABLE " + escapedTableName + (mysql ? " MODIFY COLUMN " : " ALTER COLUMN ")
+                    + escape(connectionSource, columnName) + " VARCHAR(" + length + ")");
+            return true;
+        } finally {
+            connectionSource.releaseConnection(databaseConnection);
+        }
+    }
+
+    /**
+     * Create all indexes declared on the entity of the given DAO that do not exist in the database yet.
+     * Fields sharing the same index name are combined into a composite index in their declaration order.
+     * @param connectionSource {@link ConnectionSource} of the database containing the table.
+     * @param dao {@link Dao} of the entity whose indexes should be created.
+     * @throws SQLException Thrown if the existing indexes could not be read or an index could not be created.
+     */
+    public static void createMissingIndexes(ConnectionSource connectionSource, Dao<?, ?> dao) throws SQLException {
+        String tableName = dao.getTableName();
+        Map<String, List<String>> declaredIndexes = new LinkedHashMap<>();
+        for (FieldType fieldType : dao.getTableInfo().getFieldTypes()) {
+            if (fieldType.getIndexName() == null) continue;
+            declaredIndexes.computeIfAbsent(fieldType.getIndexName(), name -> new ArrayList<>())
+                    .add(fieldType.getColumnName());
+        }
+        if (declaredIndexes.isEmpty()) return;
+
+        DatabaseConnection databaseConnection = connectionSource.getReadWriteConnection(tableName);
+        try {
+            Connection connection = databaseConnection.getUnderlyingConnection();
+            Set<String> existingIndexes = getIndexNames(connection, tableName);
+            try (Statement statement = connection.createStatement()) {
+                for (Map.Entry<String, List<String>> index : declaredIndexes.entrySet()) {
+                    if (existingIndexes.contains(index.getKey().toLowerCase())) continue;
+                    StringBuilder builder = new StringBuilder("CREATE INDEX ");
+                    connectionSource.getDatabaseType().appendEscapedEntityName(builder, index.getKey());
+                    builder.append(" ON ").append(escape(connectionSource, tableName)).append(" (");
+                    for (int i = 0; i < index.getValue().size(); i++) {
+                        if (i > 0) builder.append(", ");
+                        connectionSource.getDatabaseType().appendEscapedEntityName(builder, index.getValue().get(i));
+                    }
+                    builder.append(")");
+                    LOG.info("Creating missing index {} on table {}", index.getKey(), tableName);
+                    statement.executeUpdate(builder.toString());
+                }
+            }
+        } finally {
+            connectionSource.releaseConnection(databaseConnection);
+        }
+    }
+
+    /**
+     * Get the lower case names of all indexes of the given table. The table name is matched ignoring its case,
+     * since H2 and MySQL handle the case of identifiers differently.
+     * @param connection {@link Connection} to the database.
+     * @param tableName Name of the table.
+     * @return Set containing the lower case names of all indexes of the table.
+     * @throws SQLException Thrown if the database metadata could not be read.
+     */
+    private static Set<String> getIndexNames(Connection connection, String tableName) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String catalog = connection.getCatalog();
+        String schema = connection.getSchema();
+        Set<String> indexNames = new HashSet<>();
+        try (ResultSet tables = metaData.getTables(catalog, schema, null, new String[] { "TABLE" })) {
+            while (tables.next()) {
+                String actualTableName = tables.getString("TABLE_NAME");
+                if (!actualTableName.equalsIgnoreCase(tableName)) continue;
+                try (ResultSet indexes = metaData.getIndexInfo(catalog, schema, actualTableName, false, true)) {
+                    while (indexes.next()) {
+                        String indexName = indexes.getString("INDEX_NAME");
+                        if (indexName != null) indexNames.add(indexName.toLowerCase());
+                    }
+                }
+            }
+        }
+        return indexNames;
+    }
+
+    /**
+     * Check if the given table contains a column. The check ignores the case of the column name,
+     * since H2 and MySQL handle the case of identifiers differently.
+     * @param statement {@link Statement} used to read the table.
+     * @param escapedTableName Escaped name of the table.
+     * @param columnName Name of the column.
+     * @return true if the column exists, otherwise false.
+     * @throws SQLException Thrown if the table could not be read.
+     */
+    private static boolean hasColumn(Statement statement, String escapedTableName, String columnName)
+            throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT * FROM " + escapedTableName + " WHERE 1 = 0")) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if (metaData.getColumnName(i).equalsIgnoreCase(columnName)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the maximum length of the given column. The column name is matched ignoring its case.
+     * @param statement {@link Statement} used to read the table.
+     * @param escapedTableName Escaped name of the table.
+     * @param columnName Name of the column.
+     * @return Maximum length of the column, or -1 if the column does not exist.
+     * @throws SQLException Thrown if the table could not be read.
+     */
+    private static int getColumnLength(Statement statement, String escapedTableName, String columnName)
+            throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT * FROM " + escapedTableName + " WHERE 1 = 0")) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if (metaData.getColumnName(i).equalsIgnoreCase(columnName)) return metaData.getPrecision(i);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Escape the given table or column name the same way ORMLite does when creating tables.
+     * @param connectionSource {@link ConnectionSource} of the database.
+     * @param name Name of the table or column.
+     * @return Escaped name.
+     */
+    private static String escape(ConnectionSource connectionSource, String name) {
+        StringBuilder builder = new StringBuilder();
+        connectionSource.getDatabaseType().appendEscapedEntityName(builder, name);
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,210 @@
+package de.traber_info.home.ldap2azure.h2;
+
+import de.traber_info.home.ldap2azure.model.object.User;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache of {@link User} objects, used by the
+ * {@link de.traber_info.home.ldap2azure.h2.dao.UserDAOImpl} to answer lookups without querying the database.
+ * Users are cached by their id and indexed by their onPremisesImmutableId and azureImmutableId.
+ * If the cache is full, the least recently used user is evicted.
+ * The cache only holds copies, so changes made to returned users don't affect the cached state until they are
+ * written to the database.
+ *
+ * @author Oliver Traber
+ */
+public class UserCache {
+
+    /** Maximum amount of cached users, or 0 if the cache is disabled */
+    private final int maxSize;
+
+    /** Cached users by their id, in the order they were last accessed */
+    private final LinkedHashMap<String, User> users;
+
+    /** Ids of the cached users by their onPremisesImmutableId */
+    private final Map<String, String> onPremisesImmutableIds = new HashMap<>();
+
+    /** Ids of the cached users by their azureImmutableId */
+    private final Map<String, String> azureImmutableIds = new HashMap<>();
+
+    /** Counter incremented on every change, used to discard users loaded before a concurrent write */
+    private long generation = 0;
+
+    /** Amount of lookups answered from the cache */
+    private long hits = 0;
+
+    /** Amount of lookups that had to query the database */
+    private long misses = 0;
+
+    /** Amount of users evicted because the cache was full */
+    private long evictions = 0;
+
+    /**
+     * Create a new cache.
+     * @param maxSize Maximum amount of cached users. 0 disables the cache.
+     */
+    public UserCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.users = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+                if (size() <= UserCache.this.maxSize) return false;
+                removeIndexes(eldest.getValue());
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Get a cached user by its id.
+     * @param id Internal id of the user.
+     * @return Copy of the cached user, or null if the user is not cached.
+     */
+    public synchronized User get(String id) {
+        if (maxSize == 0) return null;
+        User user = users.get(id);
+        if (user == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return user.copy();
+    }
+
+    /**
+     * Get a cached user by its onPremisesImmutableId.
+     * @param onPremisesImmutableId Immutable id of the user in the source ldap.
+     * @return Copy of the cached user, or null if the user is not cached.
+     */
+    public synchronized User getByOnPremisesImmutableId(String onPremisesImmutableId) {
+        if (maxSize == 0) return null;
+        return get(onPremisesImmutableIds.get(onPremisesImmutableId));
+    }
+
+    /**
+     * Get a cached user by its azureImmutableId.
+     * @param azureImmutableId Immutable id of the user in Azure AD.
+     * @return Copy of the cached user, or null if the user is not cached.
+     */
+    public synchronized User getByAzureImmutableId(String azureImmutableId) {
+        if (maxSize == 0) return null;
+        return get(azureImmutableIds.get(azureImmutableId));
+    }
+
+    /**
+     * Get the current generation of the cache. The generation has to be read before a user is loaded from
+     * the database and passed to {@link #putLoaded(User, long)} afterwards.
+     * @return Current generation of the cache.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache a user loaded from the database. The user is discarded if the cache changed since the given generation,
+     * since the loaded state might already be outdated by a concurrent write.
+     * @param user User loaded from the database.
+     * @param loadedGeneration Generation of the cache before the user was loaded.
+     */
+    public synchronized void putLoaded(User user, long loadedGeneration) {
+        if (maxSize == 0 || generation != loadedGeneration) return;
+        store(user);
+    }
+
+    /**
+     * Cache a user that was written to the database.
+     * @param user User that was written to the database.
+     */
+    public synchronized void put(User user) {
+        if (maxSize == 0) return;
+        generation++;
+        store(user);
+    }
+
+    /**
+     * Update the cached users with the given users that were written to the database.
+     * Users that are not cached yet are not added, so bulk writes don't evict the users that are actually looked up.
+     * @param writtenUsers Users that were written to the database.
+     */
+    public synchronized void refresh(Collection<User> writtenUsers) {
+        if (maxSize == 0) return;
+        generation++;
+        for (User user : writtenUsers) {
+            if (users.containsKey(user.getId())) store(user);
+        }
+    }
+
+    /**
+     * Remove a user from the cache.
+     * @param id Internal id of the user.
+     */
+    public synchronized void invalidate(String id) {
+        if (maxSize == 0) return;
+        generation++;
+        removeIndexes(users.remove(id));
+    }
+
+    /**
+     * Remove multiple users from the cache.
+     * @param ids Internal ids of the users.
+     */
+    public synchronized void invalidateAll(Collection<String> ids) {
+        if (maxSize == 0) return;
+        generation++;
+        for (String id : ids) removeIndexes(users.remove(id));
+    }
+
+    /**
+     * Remove all users from the cache. Used after writes that don't know the ids of the changed users.
+     */
+    public synchronized void clear() {
+        if (maxSize == 0) return;
+        generation++;
+        users.clear();
+        onPremisesImmutableIds.clear();
+        azureImmutableIds.clear();
+    }
+
+    /**
+     * Get a snapshot of the state of the cache.
+     * @return {@link UserCacheMetrics} containing the current state of the cache.
+     */
+    public synchronized UserCacheMetrics getMetrics() {
+        return new UserCacheMetrics(maxSize, users.size(), hits, misses, evictions);
+    }
+
+    /**
+     * Store a copy of the given user and update the indexes.
+     * @param user User that should be stored.
+     */
+    private void store(User user) {
+        User copy = user.copy();
+        removeIndexes(users.put(copy.getId(), copy));
+        if (copy.getOnPremisesImmutableId() != null) {
+            onPremisesImmutableIds.put(copy.getOnPremisesImmutableId(), copy.getId());
+        }
+        if (copy.getAzureImmutableId() != null) {
+            azureImmutableIds.put(copy.getAzureImmutableId(), copy.getId());
+        }
+    }
+
+    /**
+     * Remove the index entries of the given user, if they still point to it.
+     * @param user User whose index entries should be removed, or null.
+     */
+    private void removeIndexes(User user) {
+        if (user == null) return;
+        if (user.getOnPremisesImmutableId() != null) {
+            onPremisesImmutableIds.remove(user.getOnPremisesImmutableId(), user.getId());
+        }
+        if (user.getAzureImmutableId() != null) {
+            azureImmutableIds.remove(user.getAzureImmutableId(), user.getId());
+        }
+    }
+
+}
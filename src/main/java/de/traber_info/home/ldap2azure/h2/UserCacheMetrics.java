@@ -0,0 +1,90 @@
+package de.traber_info.home.ldap2azure.h2;
+
+/**
+ * Snapshot of the state of the in-memory {@link UserCache}.
+ *
+ * @author Oliver Traber
+ */
+public class UserCacheMetrics {
+
+    /** Maximum amount of cached users, or 0 if the cache is disabled */
+    private final int maxSize;
+
+    /** Amount of users currently cached */
+    private final int size;
+
+    /** Total amount of lookups answered from the cache */
+    private final long hits;
+
+    /** Total amount of lookups that had to query the database */
+    private final long misses;
+
+    /** Total amount of users evicted because the cache was full */
+    private final long evictions;
+
+    /**
+     * Create a new snapshot.
+     * @param maxSize Maximum amount of cached users, or 0 if the cache is disabled.
+     * @param size Amount of users currently cached.
+     * @param hits Total amount of lookups answered from the cache.
+     * @param misses Total amount of lookups that had to query the database.
+     * @param evictions Total amount of users evicted because the cache was full.
+     */
+    public UserCacheMetrics(int maxSize, int size, long hits, long misses, long evictions) {
+        this.maxSize = maxSize;
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * Get the maximum amount of cached users.
+     * @return Maximum amount of cached users, or 0 if the cache is disabled.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the amount of users currently cached.
+     * @return Amount of users currently cached.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get the total amount of lookups answered from the cache.
+     * @return Total amount of cache hits.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the total amount of lookups that had to query the database.
+     * @return Total amount of cache misses.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the total amount of users evicted because the cache was full.
+     * @return Total amount of evicted users.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the share of lookups answered from the cache.
+     * @return Share of cache hits between 0 and 1, or 0 if no lookups were made yet.
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+}
@@ -2,11 +2,13 @@ package de.traber_info.home.ldap2azure.h2.dao;
 
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.stmt.QueryBuilder;
+import de.traber_info.home.ldap2azure.util.ConfigUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -66,6 +68,66 @@ public class GenericDAOImpl<T> {
         }
     }
 
+    /**
+     * Save multiple objects to the database. The objects are written in chunks of the configured database batch size,
+     * each chunk using a single transaction.
+     * @param objects Objects that should be saved to the database.
+     * @return true if all objects were saved, or false if an error occurred.
+     */
+    public boolean persistAll(Collection<T> objects) {
+        return callInBatches(objects, chunk -> {
+            for (T object : chunk) dao.create(object);
+        });
+    }
+
+    /**
+     * Update multiple objects in the database. The objects are written in chunks of the configured database
+     * batch size, each chunk using a single transaction.
+     * @param objects Objects that should be updated.
+     * @return true if all objects were updated, or false if an error occurred.
+     */
+    public boolean updateAll(Collection<T> objects) {
+        return callInBatches(objects, chunk -> {
+            for (T object : chunk) dao.update(object);
+        });
+    }
+
+    /**
+     * Delete multiple objects from the database. Each chunk of the configured database batch size is deleted
+     * using a single statement.
+     * @param objects Objects that should be deleted from the database.
+     * @return true if all objects were deleted, or false if an error occurred.
+     */
+    public boolean deleteAll(Collection<T> objects) {
+        return callInBatches(objects, chunk -> dao.delete(chunk));
+    }
+
+    /**
+     * Split the given objects into chunks of the configured database batch size
+     * and run the given operation for every chunk in a separate transaction.
+     * @param objects Objects the operation should be run for.
+     * @param operation Operation that should be run for every chunk.
+     * @return true if the operation succeeded for all chunks, or false if an error occurred.
+     */
+    protected boolean callInBatches(Collection<T> objects, BatchOperation<T> operation) {
+        if (objects.isEmpty()) return true;
+        List<T> list = new ArrayList<>(objects);
+        int batchSize = ConfigUtil.getConfig().getGeneralConfig().getDatabaseBatchSize();
+        try {
+            for (int i = 0; i < list.size(); i += batchSize) {
+                List<T> chunk = list.subList(i, Math.min(i + batchSize, list.size()));
+                dao.callBatchTasks(() -> {
+                    operation.run(chunk);
+                    return null;
+                });
+            }
+            return true;
+        } catch (Exception ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+        return false;
+    }
+
     /**
      * Retrieve all objects that are contained in the database.
      * @return List of objects that are currently stored in the database.
@@ -155,4 +217,20 @@ public class GenericDAOImpl<T> {
         return 0;
     }
 
+    /**
+     * Operation run by {@link #callInBatches(Collection, BatchOperation)} for every chunk of objects.
+     * @param <T> Type of the objects.
+     */
+    @FunctionalInterface
+    protected interface BatchOperation<T> {
+
+        /**
+         * Run the operation for a single chunk of objects.
+         * @param chunk Objects of the current chunk.
+         * @throws SQLException Thrown if an error occurs while writing to the database.
+         */
+        void run(List<T> chunk) throws SQLException;
+
+    }
+
 }
@@ -0,0 +1,62 @@
+package de.traber_info.home.ldap2azure.h2.dao;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.QueryBuilder;
+import de.traber_info.home.ldap2azure.model.object.PurgeEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Class used to retrieve, create and update {@link PurgeEntry} objects in the database.
+ *
+ * @author Oliver Traber
+ */
+public class PurgeEntryDAOImpl extends GenericDAOImpl<PurgeEntry> {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(PurgeEntryDAOImpl.class.getName());
+
+    /**
+     * Default constructor to instantiate this class.
+     *
+     * @param dao {@link Dao} that should be used for database operations.
+     */
+    public PurgeEntryDAOImpl(Dao<PurgeEntry, String> dao) {
+        super(dao);
+    }
+
+    /**
+     * Get the entries that are due to be purged, oldest first.
+     * @param now Current time.
+     * @param amount Maximal amount of {@link PurgeEntry} objects to return.
+     * @return {@link List} containing the due {@link PurgeEntry} objects.
+     */
+    public List<PurgeEntry> getDue(LocalDateTime now, long amount) {
+        QueryBuilder<PurgeEntry, String> queryBuilder = dao.queryBuilder();
+        try {
+            queryBuilder.orderBy("purgeAfter", true).limit(amount).where().le("purgeAfter", now);
+            return dao.query(queryBuilder.prepare());
+        } catch (SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Queue multiple users for being purged. Users that are already queued are replaced.
+     * @param entries {@link PurgeEntry} objects that should be queued.
+     * @return true if all entries were queued, or false if an error occurred.
+     */
+    public boolean enqueueAll(Collection<PurgeEntry> entries) {
+        return callInBatches(entries, chunk -> {
+            for (PurgeEntry entry : chunk) dao.createOrUpdate(entry);
+        });
+    }
+
+}
@@ -0,0 +1,112 @@
+package de.traber_info.home.ldap2azure.h2.dao;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.QueryBuilder;
+import de.traber_info.home.ldap2azure.model.config.GeneralConfig;
+import de.traber_info.home.ldap2azure.model.object.RetryEntry;
+import de.traber_info.home.ldap2azure.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class used to retrieve, create and update {@link RetryEntry} objects in the database.
+ *
+ * @author Oliver Traber
+ */
+public class RetryEntryDAOImpl extends GenericDAOImpl<RetryEntry> {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(RetryEntryDAOImpl.class.getName());
+
+    /** Maximum amount of ids used in a single IN clause */
+    private static final int MAX_IN_CLAUSE_SIZE = 500;
+
+    /**
+     * Default constructor to instantiate this class.
+     *
+     * @param dao {@link Dao} that should be used for database operations.
+     */
+    public RetryEntryDAOImpl(Dao<RetryEntry, String> dao) {
+        super(dao);
+    }
+
+    /**
+     * Get the entries whose next attempt is due, oldest first.
+     * @param now Current time.
+     * @param amount Maximal amount of {@link RetryEntry} objects to return.
+     * @return {@link List} containing the due {@link RetryEntry} objects.
+     */
+    public List<RetryEntry> getDue(LocalDateTime now, long amount) {
+        QueryBuilder<RetryEntry, String> queryBuilder = dao.queryBuilder();
+        try {
+            queryBuilder.orderBy("nextAttempt", true).limit(amount).where().le("nextAttempt", now);
+            return dao.query(queryBuilder.prepare());
+        } catch (SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Get the ids of all users that have a failed operation.
+     * @return {@link Set} containing the internal ids of the users.
+     */
+    public Set<String> getAllIds() {
+        Set<String> ids = new HashSet<>();
+        QueryBuilder<RetryEntry, String> queryBuilder = dao.queryBuilder();
+        try {
+            queryBuilder.selectColumns("id");
+            for (RetryEntry entry : dao.query(queryBuilder.prepare())) ids.add(entry.getId());
+        } catch (SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+        return ids;
+    }
+
+    /**
+     * Record failed operations. Existing entries of the same users are updated, so the attempts are counted
+     * and the next attempt is scheduled using the configured exponential backoff.
+     * @param failures New {@link RetryEntry} objects, each containing the failed operation and its error message.
+     * @return true if all failures were recorded, or false if an error occurred.
+     */
+    public boolean recordFailures(Collection<RetryEntry> failures) {
+        GeneralConfig generalConfig = ConfigUtil.getConfig().getGeneralConfig();
+        return callInBatches(failures, chunk -> {
+            for (RetryEntry failure : chunk) {
+                RetryEntry existing = dao.queryForId(failure.getId());
+                RetryEntry entry = existing != null ? existing : failure;
+                entry.recordFailure(failure.getOperation(), failure.getLastError(), generalConfig.getRetryBaseDelay(),
+                        generalConfig.getRetryMaxDelay(), generalConfig.getRetryMaxAttempts());
+                dao.createOrUpdate(entry);
+            }
+        });
+    }
+
+    /**
+     * Delete the entries of the given users. The ids are deleted in chunks using a single statement per chunk.
+     * @param ids Internal ids of the users whose entries should be deleted.
+     */
+    public void deleteIds(Collection<String> ids) {
+        List<String> idList = new ArrayList<>(ids);
+        try {
+            for (int i = 0; i < idList.size(); i += MAX_IN_CLAUSE_SIZE) {
+                List<String> chunk = idList.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, idList.size()));
+                DeleteBuilder<RetryEntry, String> deleteBuilder = dao.deleteBuilder();
+                deleteBuilder.where().in("id", chunk.toArray());
+                deleteBuilder.delete();
+            }
+        } catch (SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+    }
+
+}
@@ -3,7 +3,9 @@ package de.traber_info.home.ldap2azure.h2.dao;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.Where;
 import de.traber_info.home.ldap2azure.model.object.Sync;
+import de.traber_info.home.ldap2azure.model.type.SyncRunState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +49,42 @@ public class SyncDAOImpl extends GenericDAOImpl<Sync> {
         return new ArrayList<>();
     }
 
+    /**
+     * Get the newest syncs that finished successfully. Syncs journaled before the run state was recorded
+     * have no state and are treated as completed.
+     * @param amount Maximal amount of {@link Sync} objects to return.
+     * @return {@link List} containing the newest completed {@link Sync} objects, newest first.
+     */
+    public List<Sync> getRecentCompleted(long amount) {
+        QueryBuilder<Sync, String> queryBuilder = dao.queryBuilder();
+        try {
+            queryBuilder.orderBy("syncBegin", false).limit(amount);
+            Where<Sync, String> where = queryBuilder.where();
+            where.and(where.isNotNull("syncEnd"),
+                    where.or(where.isNull("state"), where.eq("state", SyncRunState.COMPLETED.toValue())));
+            return dao.query(queryBuilder.prepare());
+        } catch (SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Get the syncs that are still marked as running. Called on startup, when no sync is running,
+     * so these syncs were interrupted by a crash or a forced shutdown.
+     * @return {@link List} containing the interrupted {@link Sync} objects, newest first.
+     */
+    public List<Sync> getInterrupted() {
+        QueryBuilder<Sync, String> queryBuilder = dao.queryBuilder();
+        try {
+            queryBuilder.orderBy("syncBegin", false).where().eq("state", SyncRunState.RUNNING.toValue());
+            return dao.query(queryBuilder.prepare());
+        } catch (SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+        return new ArrayList<>();
+    }
+
     /**
      * Cleanup {@link Sync} objects from the database if they are older than 7 days.
      * @throws SQLException Exception if an error occurred.
@@ -1,16 +1,33 @@
 package de.traber_info.home.ldap2azure.h2.dao;
 
+import com.j256.ormlite.dao.CloseableIterator;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.UpdateBuilder;
+import de.traber_info.home.ldap2azure.h2.UserCache;
+import de.traber_info.home.ldap2azure.h2.UserCacheMetrics;
 import de.traber_info.home.ldap2azure.model.object.User;
+import de.traber_info.home.ldap2azure.model.object.UserIndexEntry;
+import de.traber_info.home.ldap2azure.model.type.ChangeState;
 import de.traber_info.home.ldap2azure.model.type.SyncState;
+import de.traber_info.home.ldap2azure.util.ConfigUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Class used to retrieve, create and update {@link User} objects in the database.
+ * Lookups by id, onPremisesImmutableId and azureImmutableId are answered from a {@link UserCache} if possible.
+ * All writes go through this class and update or invalidate the cached users.
  *
  * @author Oliver Traber
  */
@@ -19,6 +36,16 @@ public class UserDAOImpl extends GenericDAOImpl<User> {
     /** SLF4J logger for usage in this class */
     private static final Logger LOG = LoggerFactory.getLogger(UserDAOImpl.class.getName());
 
+    /** Maximum amount of ids used in a single IN clause */
+    private static final int MAX_IN_CLAUSE_SIZE = 500;
+
+    /** Columns loaded into the {@link UserIndexEntry} */
+    private static final String[] INDEX_COLUMNS = { "id", "onPremisesImmutableId", "azureImmutableId", "lastSyncId",
+            "attributeHashes", "syncState", "changeState", "changedAttributes", "deletedChangeState" };
+
+    /** {@link UserCache} used to answer lookups without querying the database */
+    private final UserCache cache;
+
     /**
      * Default constructor to instantiate this class.
      *
@@ -26,6 +53,115 @@ public class UserDAOImpl extends GenericDAOImpl<User> {
      */
     public UserDAOImpl(Dao<User, String> dao) {
         super(dao);
+        this.cache = new UserCache(ConfigUtil.getConfig().getGeneralConfig().getUserCacheSize());
+    }
+
+    /**
+     * Save a user to the database and cache it.
+     * @param user User that should be saved to the database.
+     */
+    @Override
+    public void persist(User user) {
+        try {
+            dao.create(user);
+            cache.put(user);
+        } catch (SQLException ex) {
+            cache.invalidate(user.getId());
+            LOG.error("An unexpected error occurred", ex);
+        }
+    }
+
+    /**
+     * Update a user in the database and cache it.
+     * @param user User that should be updated.
+     */
+    @Override
+    public void update(User user) {
+        try {
+            dao.update(user);
+            cache.put(user);
+        } catch (SQLException ex) {
+            cache.invalidate(user.getId());
+            LOG.error("An unexpected error occurred", ex);
+        }
+    }
+
+    /**
+     * Delete a user from the database and remove it from the cache.
+     * @param user User that should be deleted from the database.
+     */
+    @Override
+    public void delete(User user) {
+        super.delete(user);
+        cache.invalidate(user.getId());
+    }
+
+    /**
+     * Save multiple users to the database. Users that are already cached are updated in the cache.
+     * @param users Users that should be saved to the database.
+     * @return true if all users were saved, or false if an error occurred.
+     */
+    @Override
+    public boolean persistAll(Collection<User> users) {
+        return writeThrough(users, super.persistAll(users));
+    }
+
+    /**
+     * Update multiple users in the database. Users that are already cached are updated in the cache.
+     * @param users Users that should be updated.
+     * @return true if all users were updated, or false if an error occurred.
+     */
+    @Override
+    public boolean updateAll(Collection<User> users) {
+        return writeThrough(users, super.updateAll(users));
+    }
+
+    /**
+     * Delete multiple users from the database and remove them from the cache.
+     * @param users Users that should be deleted from the database.
+     * @return true if all users were deleted, or false if an error occurred.
+     */
+    @Override
+    public boolean deleteAll(Collection<User> users) {
+        boolean deleted = super.deleteAll(users);
+        cache.invalidateAll(getIds(users));
+        return deleted;
+    }
+
+    /**
+     * Retrieve a single user from the local database using any attribute. Lookups by id, onPremisesImmutableId
+     * and azureImmutableId are answered from the cache if possible.
+     * @return Instance of the found user, or null if no user could be found.
+     */
+    @Override
+    public User getByAttributeMatch(String attributeName, String attributeValue) {
+        User cachedUser;
+        switch (attributeName) {
+            case "id":
+                cachedUser = cache.get(attributeValue);
+                break;
+            case "onPremisesImmutableId":
+                cachedUser = cache.getByOnPremisesImmutableId(attributeValue);
+                break;
+            case "azureImmutableId":
+                cachedUser = cache.getByAzureImmutableId(attributeValue);
+                break;
+            default:
+                return super.getByAttributeMatch(attributeName, attributeValue);
+        }
+        if (cachedUser != null) return cachedUser;
+        long generation = cache.getGeneration();
+        User user = super.getByAttributeMatch(attributeName, attributeValue);
+        if (user != null) cache.putLoaded(user, generation);
+        return user;
+    }
+
+    /**
+     * Get a snapshot of the state of the user cache.
+     * @return {@link UserCacheMetrics} containing the current state of the user cache.
+     */
+    public UserCacheMetrics getCacheMetrics() {
+        return cache.getMetrics();
     }
 
     /**
@@ -73,4 +209,278 @@ public class UserDAOImpl extends GenericDAOImpl<User> {
         return 0;
     }
 
+    /**
+     * Recalculate the hashes of all users. Used to migrate users saved by older versions of ldap2azure,
+     * since the hashes are compared against the ones calculated by the ldap import.
+     */
+    public void updateHashes() {
+        try {
+            dao.callBatchTasks(() -> {
+                try (CloseableIterator<User> iterator = dao.closeableIterator()) {
+                    while (iterator.hasNext()) {
+                        User user = iterator.next();
+                        user.updateHashes();
+                        dao.update(user);
+                    }
+                }
+                return null;
+            });
+        } catch (Exception ex) {
+            LOG.error("An unexpected error occurred", ex);
+        } finally {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Load an index of all stored users. The users are streamed from the database and only the columns required
+     * by the {@link UserIndexEntry} are read, so the index stays small even for large directories.
+     * @return Map containing the index entries of all users by their onPremisesImmutableId.
+     * @throws SQLException Thrown if an error occurs while querying the database.
+     */
+    public Map<String, UserIndexEntry> getIndex() throws SQLException {
+        QueryBuilder<User, String> queryBuilder = dao.queryBuilder().selectColumns(INDEX_COLUMNS);
+        Map<String, UserIndexEntry> index = new HashMap<>();
+        try (CloseableIterator<User> iterator = dao.iterator(queryBuilder.prepare())) {
+            while (iterator.hasNext()) {
+                User user = iterator.next();
+                index.put(user.getOnPremisesImmutableId(), new UserIndexEntry(user));
+            }
+        } catch (IOException ex) {
+            throw new SQLException("Could not close user iterator", ex);
+        }
+        return index;
+    }
+
+    /**
+     * Load the change states of all users pending for synchronization. Only the id and the change state are read,
+     * so the result stays small even if a large part of the directory is pending.
+     * @return Map containing the change states of all pending users by their id.
+     * @throws SQLException Thrown if an error occurs while querying the database.
+     */
+    public Map<String, ChangeState> getPendingChangeStates() throws SQLException {
+        QueryBuilder<User, String> queryBuilder = dao.queryBuilder().selectColumns("id", "changeState");
+        queryBuilder.where().eq("syncState", SyncState.PENDING.toValue());
+        Map<String, ChangeState> changeStates = new HashMap<>();
+        try (CloseableIterator<User> iterator = dao.iterator(queryBuilder.prepare())) {
+            while (iterator.hasNext()) {
+                User user = iterator.next();
+                changeStates.put(user.getId(), user.getChangeState());
+            }
+        } catch (IOException ex) {
+            throw new SQLException("Could not close user iterator", ex);
+        }
+        return changeStates;
+    }
+
+    /**
+     * Load the index entries of the users with the given onPremisesImmutableIds.
+     * @param onPremisesImmutableIds onPremisesImmutableIds of the users that should be loaded.
+     * @return Map containing the index entries of all found users by their onPremisesImmutableId.
+     * @throws SQLException Thrown if an error occurs while querying the database.
+     */
+    public Map<String, UserIndexEntry> getIndex(List<String> onPremisesImmutableIds) throws SQLException {
+        Map<String, UserIndexEntry> index = new HashMap<>();
+        for (int i = 0; i < onPremisesImmutableIds.size(); i += MAX_IN_CLAUSE_SIZE) {
+            List<String> chunk = onPremisesImmutableIds.subList(i,
+                    Math.min(i + MAX_IN_CLAUSE_SIZE, onPremisesImmutableIds.size()));
+            QueryBuilder<User, String> queryBuilder = dao.queryBuilder().selectColumns(INDEX_COLUMNS);
+            queryBuilder.where().in("onPremisesImmutableId", chunk.toArray());
+            for (User user : dao.query(queryBuilder.prepare())) {
+                index.put(user.getOnPremisesImmutableId(), new UserIndexEntry(user));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Load the users with the given internal ids.
+     * @param ids Internal ids of the users that should be loaded.
+     * @return Map containing all found users by their id.
+     * @throws SQLException Thrown if an error occurs while querying the database.
+     */
+    public Map<String, User> getByIds(Collection<String> ids) throws SQLException {
+        return getAllByAttributeIn("id", ids, User::getId, cache::get);
+    }
+
+    /**
+     * Load the users with the given Azure AD object ids.
+     * @param azureImmutableIds Azure AD object ids of the users that should be loaded.
+     * @return Map containing all found users by their azureImmutableId.
+     * @throws SQLException Thrown if an error occurs while querying the database.
+     */
+    public Map<String, User> getByAzureImmutableIds(Collection<String> azureImmutableIds) throws SQLException {
+        return getAllByAttributeIn("azureImmutableId", azureImmutableIds, User::getAzureImmutableId,
+                cache::getByAzureImmutableId);
+    }
+
+    /**
+     * Load the users with the given onPremisesImmutableIds.
+     * @param onPremisesImmutableIds onPremisesImmutableIds of the users that should be loaded.
+     * @return Map containing all found users by their onPremisesImmutableId.
+     * @throws SQLException Thrown if an error occurs while querying the database.
+     */
+    public Map<String, User> getByOnPremisesImmutableIds(Collection<String> onPremisesImmutableIds)
+            throws SQLException {
+        return getAllByAttributeIn("onPremisesImmutableId", onPremisesImmutableIds, User::getOnPremisesImmutableId,
+                cache::getByOnPremisesImmutableId);
+    }
+
+    /**
+     * Mark the users with the given ids as deleted and pending for synchronization. The current change state is kept,
+     * so it can be restored if the deletion is reverted. Users already marked as deleted are left untouched.
+     * The ids are updated in chunks using a single statement per chunk.
+     * @param ids Internal ids of the users that should be marked as deleted.
+     * @throws SQLException Thrown if an error occurs while writing to the database.
+     */
+    public void markDeleted(Collection<String> ids) throws SQLException {
+        List<String> idList = new ArrayList<>(ids);
+        for (int i = 0; i < idList.size(); i += MAX_IN_CLAUSE_SIZE) {
+            List<String> chunk = idList.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, idList.size()));
+            UpdateBuilder<User, String> updateBuilder = dao.updateBuilder();
+            // Assigned first, since MySQL evaluates the assignments from left to right
+            updateBuilder.updateColumnExpression("deletedChangeState", updateBuilder.escapeColumnName("changeState"))
+                    .updateColumnValue("changeState", ChangeState.DELETED.toValue())
+                    .updateColumnValue("syncState", SyncState.PENDING.toValue());
+            updateBuilder.where().in("id", chunk.toArray())
+                    .and().ne("changeState", ChangeState.DELETED.toValue());
+            try {
+                updateBuilder.update();
+            } finally {
+                cache.invalidateAll(chunk);
+            }
+        }
+    }
+
+    /**
+     * Restore all users pending for deletion to the change state they had before they were marked as deleted.
+     * Users marked as deleted by older versions have no stored change state. They are pending for creation again
+     * if they were never created in Azure AD, and pending for an update of all attributes otherwise.
+     * Users that are still missing in the source ldap are marked as deleted again by the next full import.
+     * @throws SQLException Thrown if an error occurs while writing to the database.
+     */
+    public void restoreDeleted() throws SQLException {
+        try {
+            restoreDeletedUsers();
+        } finally {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Restore all users pending for deletion, as described by {@link #restoreDeleted()}, without clearing the cache.
+     * @throws SQLException Thrown if an error occurs while writing to the database.
+     */
+    private void restoreDeletedUsers() throws SQLException {
+        UpdateBuilder<User, String> updateBuilder = dao.updateBuilder();
+        updateBuilder.updateColumnValue("changeState", ChangeState.UNCHANGED.toValue())
+                .updateColumnValue("syncState", SyncState.OK.toValue())
+                .updateColumnValue("deletedChangeState", null);
+        updateBuilder.where().eq("changeState", ChangeState.DELETED.toValue())
+                .and().eq("syncState", SyncState.PENDING.toValue())
+                .and().eq("deletedChangeState", ChangeState.UNCHANGED.toValue());
+        updateBuilder.update();
+
+        updateBuilder = dao.updateBuilder();
+        // Assigned first, since MySQL evaluates the assignments from left to right
+        updateBuilder.updateColumnExpression("changeState", updateBuilder.escapeColumnName("deletedChangeState"))
+                .updateColumnValue("deletedChangeState", null);
+        updateBuilder.where().eq("changeState", ChangeState.DELETED.toValue())
+                .and().eq("syncState", SyncState.PENDING.toValue())
+                .and().isNotNull("deletedChangeState");
+        updateBuilder.update();
+
+        updateBuilder = dao.updateBuilder();
+        updateBuilder.updateColumnValue("changeState", ChangeState.NEW.toValue());
+        updateBuilder.where().eq("changeState", ChangeState.DELETED.toValue())
+                .and().eq("syncState", SyncState.PENDING.toValue())
+                .and().isNull("azureImmutableId");
+        updateBuilder.update();
+
+        updateBuilder = dao.updateBuilder();
+        updateBuilder.updateColumnValue("changeState", ChangeState.CHANGED.toValue());
+        updateBuilder.where().eq("changeState", ChangeState.DELETED.toValue())
+                .and().eq("syncState", SyncState.PENDING.toValue());
+        updateBuilder.update();
+    }
+
+    /**
+     * Discard the changes of all users pending for update by marking them as synced. The stored attributes are
+     * kept, so the users are only updated again once their attributes change in the source ldap.
+     * @throws SQLException Thrown if an error occurs while writing to the database.
+     */
+    public void discardChanges() throws SQLException {
+        UpdateBuilder<User, String> updateBuilder = dao.updateBuilder();
+        updateBuilder.updateColumnValue("changeState", ChangeState.UNCHANGED.toValue())
+                .updateColumnValue("syncState", SyncState.OK.toValue())
+                .updateColumnValue("changedAttributes", null);
+        updateBuilder.where().eq("changeState", ChangeState.CHANGED.toValue())
+                .and().eq("syncState", SyncState.PENDING.toValue());
+        try {
+            updateBuilder.update();
+        } finally {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Load the users whose attribute matches one of the given values. Users found in the cache are not queried,
+     * the remaining values are queried in chunks. Queried users are not added to the cache, so bulk lookups
+     * don't evict the users that are looked up individually.
+     * @param attributeName Name of the attribute that should be matched.
+     * @param values Values the attribute should be matched against.
+     * @param keyFunction Function returning the value of the matched attribute of a user.
+     * @param cacheLookup Function returning the cached user for a value of the matched attribute, or null.
+     * @return Map containing all found users by the value of the matched attribute.
+     * @throws SQLException Thrown if an error occurs while querying the database.
+     */
+    private Map<String, User> getAllByAttributeIn(String attributeName, Collection<String> values,
+                                                  Function<User, String> keyFunction,
+                                                  Function<String, User> cacheLookup) throws SQLException {
+        Map<String, User> users = new HashMap<>();
+        List<String> valueList = new ArrayList<>();
+        for (String value : values) {
+            User cachedUser = cacheLookup.apply(value);
+            if (cachedUser != null) {
+                users.put(value, cachedUser);
+            } else {
+                valueList.add(value);
+            }
+        }
+        for (int i = 0; i < valueList.size(); i += MAX_IN_CLAUSE_SIZE) {
+            List<String> chunk = valueList.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, valueList.size()));
+            QueryBuilder<User, String> queryBuilder = dao.queryBuilder();
+            queryBuilder.where().in(attributeName, chunk.toArray());
+            for (User user : dao.query(queryBuilder.prepare())) {
+                users.put(keyFunction.apply(user), user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Update the cache after a bulk write. If the write failed, some of the users might not have been written,
+     * so they are removed from the cache instead.
+     * @param users Users that were written to the database.
+     * @param written true if all users were written.
+     * @return The given write result.
+     */
+    private boolean writeThrough(Collection<User> users, boolean written) {
+        if (written) {
+            cache.refresh(users);
+        } else {
+            cache.invalidateAll(getIds(users));
+        }
+        return written;
+    }
+
+    /**
+     * Get the ids of the given users.
+     * @param users Users whose ids should be returned.
+     * @return List containing the ids of the given users.
+     */
+    private static List<String> getIds(Collection<User> users) {
+        return users.stream().map(User::getId).collect(Collectors.toList());
+    }
+
 }
@@ -0,0 +1,66 @@
+package de.traber_info.home.ldap2azure.h2.dao;
+
+import com.j256.ormlite.dao.Dao;
+import de.traber_info.home.ldap2azure.model.object.Watermark;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+
+/**
+ * Class used to retrieve, create and update {@link Watermark} objects in the database.
+ *
+ * @author Oliver Traber
+ */
+public class WatermarkDAOImpl extends GenericDAOImpl<Watermark> {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(WatermarkDAOImpl.class.getName());
+
+    /**
+     * Default constructor to instantiate this class.
+     *
+     * @param dao {@link Dao} that should be used for database operations.
+     */
+    public WatermarkDAOImpl(Dao<Watermark, String> dao) {
+        super(dao);
+    }
+
+    /**
+     * Get the stored {@link Watermark} for the given source.
+     * @param sourceKey Key identifying the source.
+     * @return Stored {@link Watermark}, or null if no watermark exists for the source.
+     */
+    public Watermark get(String sourceKey) {
+        try {
+            return dao.queryForId(sourceKey);
+        } catch (SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+        return null;
+    }
+
+    /**
+     * Get the stored watermark value for the given source.
+     * @param sourceKey Key identifying the source.
+     * @return Stored watermark value, or null if no watermark exists for the source.
+     */
+    public String getValue(String sourceKey) {
+        Watermark watermark = get(sourceKey);
+        return watermark != null ? watermark.getValue() : null;
+    }
+
+    /**
+     * Create or replace the watermark for the given source.
+     * @param sourceKey Key identifying the source.
+     * @param value New watermark value.
+     */
+    public void setValue(String sourceKey, String value) {
+        try {
+            dao.createOrUpdate(new Watermark(sourceKey, value));
+        } catch (SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+    }
+
+}
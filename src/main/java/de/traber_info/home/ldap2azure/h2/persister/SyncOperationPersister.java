@@ -0,0 +1,47 @@
+package de.traber_info.home.ldap2azure.h2.persister;
+
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.field.types.StringType;
+import de.traber_info.home.ldap2azure.model.type.SyncOperation;
+
+/**
+ * Custom H2 persister used to convert {@link SyncOperation} to an database friendly format.
+ *
+ * @author Oliver Traber
+ */
+public class SyncOperationPersister extends StringType {
+
+    private static final SyncOperationPersister singleton = new SyncOperationPersister();
+
+    private SyncOperationPersister() {
+        super(SqlType.STRING, new Class<?>[] { SyncOperation.class });
+    }
+
+    public static SyncOperationPersister getSingleton() {
+        return singleton;
+    }
+
+    /**
+     * Convert an {@link SyncOperation} to it's iso_local_date_time representation for persistence.
+     * @param fieldType Type of the SQL field where the object should be persisted.
+     * @param javaObject Object that should be persisted.
+     * @return String representation of the given {@link SyncOperation}, or null if the given object was null.
+     */
+    @Override
+    public Object javaToSqlArg(FieldType fieldType, Object javaObject) {
+        return javaObject.toString().toLowerCase();
+    }
+
+    /**
+     * Convert an {@link String} back to it's {@link SyncOperation} representation.
+     * @param fieldType Type of the SQL field where the object was persisted.
+     * @param sqlArg Object that was persisted.
+     * @return Java object representing the given sql type.
+     */
+    @Override
+    public Object sqlArgToJava(FieldType fieldType, Object sqlArg, int columnPos) {
+        return SyncOperation.forValue((String) sqlArg);
+    }
+
+}
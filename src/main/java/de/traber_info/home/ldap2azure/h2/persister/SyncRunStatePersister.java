@@ -0,0 +1,47 @@
+package de.traber_info.home.ldap2azure.h2.persister;
+
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.field.types.StringType;
+import de.traber_info.home.ldap2azure.model.type.SyncRunState;
+
+/**
+ * Custom H2 persister used to convert {@link SyncRunState} to an database friendly format.
+ *
+ * @author Oliver Traber
+ */
+public class SyncRunStatePersister extends StringType {
+
+    private static final SyncRunStatePersister singleton = new SyncRunStatePersister();
+
+    private SyncRunStatePersister() {
+        super(SqlType.STRING, new Class<?>[] { SyncRunState.class });
+    }
+
+    public static SyncRunStatePersister getSingleton() {
+        return singleton;
+    }
+
+    /**
+     * Convert an {@link SyncRunState} to it's iso_local_date_time representation for persistence.
+     * @param fieldType Type of the SQL field where the object should be persisted.
+     * @param javaObject Object that should be persisted.
+     * @return String representation of the given {@link SyncRunState}, or null if the given object was null.
+     */
+    @Override
+    public Object javaToSqlArg(FieldType fieldType, Object javaObject) {
+        return javaObject.toString().toLowerCase();
+    }
+
+    /**
+     * Convert an {@link String} back to it's {@link SyncRunState} representation.
+     * @param fieldType Type of the SQL field where the object was persisted.
+     * @param sqlArg Object that was persisted.
+     * @return Java object representing the given sql type.
+     */
+    @Override
+    public Object sqlArgToJava(FieldType fieldType, Object sqlArg, int columnPos) {
+        return SyncRunState.forValue((String) sqlArg);
+    }
+
+}
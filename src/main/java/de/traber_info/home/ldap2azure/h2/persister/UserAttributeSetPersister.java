@@ -0,0 +1,63 @@
+package de.traber_info.home.ldap2azure.h2.persister;
+
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.field.types.StringType;
+import de.traber_info.home.ldap2azure.model.type.UserAttribute;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Custom H2 persister used to convert a set of {@link UserAttribute} to an database friendly format.
+ *
+ * @author Oliver Traber
+ */
+public class UserAttributeSetPersister extends StringType {
+
+    private static final UserAttributeSetPersister singleton = new UserAttributeSetPersister();
+
+    private UserAttributeSetPersister() {
+        super(SqlType.STRING, new Class<?>[] { Set.class });
+    }
+
+    public static UserAttributeSetPersister getSingleton() {
+        return singleton;
+    }
+
+    /**
+     * Convert a set of {@link UserAttribute} to a comma separated string for persistence.
+     * @param fieldType Type of the SQL field where the object should be persisted.
+     * @param javaObject Object that should be persisted.
+     * @return Comma separated string of the given attributes, or null if the given object was null.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object javaToSqlArg(FieldType fieldType, Object javaObject) {
+        if (javaObject == null) return null;
+        StringJoiner joiner = new StringJoiner(",");
+        for (UserAttribute attribute : (Set<UserAttribute>) javaObject) {
+            joiner.add(attribute.toValue());
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Convert a comma separated {@link String} back to it's set of {@link UserAttribute} representation.
+     * @param fieldType Type of the SQL field where the object was persisted.
+     * @param sqlArg Object that was persisted.
+     * @return Java object representing the given sql type.
+     */
+    @Override
+    public Object sqlArgToJava(FieldType fieldType, Object sqlArg, int columnPos) {
+        Set<UserAttribute> attributes = EnumSet.noneOf(UserAttribute.class);
+        for (String value : ((String) sqlArg).split(",")) {
+            if (value.isEmpty()) continue;
+            UserAttribute attribute = UserAttribute.forValue(value);
+            if (attribute != null) attributes.add(attribute);
+        }
+        return attributes;
+    }
+
+}
@@ -0,0 +1,146 @@
+package de.traber_info.home.ldap2azure.ldap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pool of bound {@link LdapContext} instances that are kept alive between imports.
+ * Idle contexts are validated with a cheap RootDSE read before they are handed out and are replaced by a new
+ * connection if the validation fails. The amount of concurrently used contexts is bound by the pool size.
+ *
+ * @author Oliver Traber
+ */
+public class LdapConnectionPool {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(LdapConnectionPool.class.getName());
+
+    /** Attributes requested from the RootDSE to validate an idle connection */
+    private static final String[] VALIDATION_ATTRIBUTES = { "supportedLDAPVersion" };
+
+    /** JNDI environment used to create new connections */
+    private final Properties environment;
+
+    /** Permits limiting the amount of contexts that are in use at the same time */
+    private final Semaphore permits;
+
+    /** Bound contexts that are currently not in use */
+    private final Deque<LdapContext> idleContexts = new ConcurrentLinkedDeque<>();
+
+    /** Boolean representing if the pool was closed */
+    private volatile boolean closed = false;
+
+    /**
+     * Create a new connection pool. Connections are created lazily on first use.
+     * @param environment JNDI environment used to create and bind new connections.
+     * @param maxSize Maximal amount of connections that can be used at the same time.
+     */
+    public LdapConnectionPool(Properties environment, int maxSize) {
+        this.environment = environment;
+        this.permits = new Semaphore(Math.max(1, maxSize), true);
+    }
+
+    /**
+     * Borrow a bound context from the pool. Blocks until a context is available if all contexts are in use.
+     * The context must be handed back using {@link #release(LdapContext)} or {@link #invalidate(LdapContext)}.
+     * @return Bound and validated {@link LdapContext}.
+     * @throws NamingException Thrown if a new connection could not be created or the pool was closed.
+     */
+    public LdapContext borrow() throws NamingException {
+        if (closed) throw new NamingException("LDAP connection pool is closed");
+        try {
+            permits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new NamingException("Interrupted while waiting for an LDAP connection");
+        }
+        try {
+            LdapContext context;
+            while ((context = idleContexts.pollFirst()) != null) {
+                if (isValid(context)) return context;
+                LOG.debug("Discarding stale LDAP connection");
+                closeQuietly(context);
+            }
+            LOG.debug("Opening new LDAP connection to {}", environment.get(Context.PROVIDER_URL));
+            return new InitialLdapContext(environment, null);
+        } catch (NamingException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Hand back a context that was borrowed from this pool, so it can be reused.
+     * @param context {@link LdapContext} that was borrowed from this pool.
+     */
+    public void release(LdapContext context) {
+        try {
+            context.setRequestControls(null);
+        } catch (NamingException ex) {
+            invalidate(context);
+            return;
+        }
+        if (closed) {
+            closeQuietly(context);
+        } else {
+            idleContexts.offerFirst(context);
+        }
+        permits.release();
+    }
+
+    /**
+     * Hand back a context that was borrowed from this pool and close it, since it is no longer usable.
+     * @param context {@link LdapContext} that was borrowed from this pool.
+     */
+    public void invalidate(LdapContext context) {
+        closeQuietly(context);
+        permits.release();
+    }
+
+    /**
+     * Close all idle connections. Connections still in use are closed when they are handed back.
+     */
+    public void close() {
+        closed = true;
+        LdapContext context;
+        while ((context = idleContexts.pollFirst()) != null) {
+            closeQuietly(context);
+        }
+    }
+
+    /**
+     * Check if the given context is still connected by reading from the RootDSE.
+     * @param context {@link LdapContext} that should be validated.
+     * @return true if the context is still usable, otherwise false.
+     */
+    private boolean isValid(LdapContext context) {
+        try {
+            context.getAttributes("", VALIDATION_ATTRIBUTES);
+            return true;
+        } catch (NamingException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Close the given context and ignore all errors.
+     * @param context {@link LdapContext} that should be closed.
+     */
+    private void closeQuietly(LdapContext context) {
+        try {
+            context.close();
+        } catch (NamingException ex) {
+            LOG.debug("Failed to close LDAP connection", ex);
+        }
+    }
+
+}
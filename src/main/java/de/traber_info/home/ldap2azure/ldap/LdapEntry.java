@@ -0,0 +1,71 @@
+package de.traber_info.home.ldap2azure.ldap;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.NoSuchAttributeException;
+import javax.naming.directory.SearchResult;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wrapper around a single {@link SearchResult} that converts attribute values to strings on first access
+ * and caches them, so binary attributes are Base64 encoded at most once and only if they are actually used.
+ *
+ * @author Oliver Traber
+ */
+public class LdapEntry {
+
+    /** Search result this entry wraps */
+    private final SearchResult result;
+
+    /** Attributes of the search result */
+    private final Attributes attributes;
+
+    /** Attribute values that were already converted to strings */
+    private final Map<String, String> resolvedValues = new HashMap<>();
+
+    /**
+     * Create a new entry from the given search result.
+     * @param result Result of the LDAP search.
+     */
+    public LdapEntry(SearchResult result) {
+        this.result = result;
+        this.attributes = result.getAttributes();
+    }
+
+    /**
+     * Get the string value of the given attribute. Binary values are converted to a Base64 encoded string.
+     * @param attributeName Name of the attribute.
+     * @return String value of the attribute.
+     * @throws NamingException Thrown if the attribute is not present on the entry or could not be read.
+     */
+    public String getValue(String attributeName) throws NamingException {
+        String value = resolvedValues.get(attributeName);
+        if (value != null) return value;
+
+        Attribute attribute = attributes.get(attributeName);
+        if (attribute == null) {
+            throw new NoSuchAttributeException(
+                    "Attribute " + attributeName + " is not present on " + result.getNameInNamespace());
+        }
+        Object rawValue = attribute.get();
+        if (rawValue instanceof byte[]) {
+            value = Base64.getEncoder().encodeToString((byte[]) rawValue);
+        } else {
+            value = rawValue.toString();
+        }
+        resolvedValues.put(attributeName, value);
+        return value;
+    }
+
+    /**
+     * Get the search result this entry wraps.
+     * @return Search result this entry wraps.
+     */
+    public SearchResult getSearchResult() {
+        return result;
+    }
+
+}
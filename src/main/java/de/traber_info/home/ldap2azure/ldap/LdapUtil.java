@@ -7,16 +7,22 @@ import org.slf4j.LoggerFactory;
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
-import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
+import javax.naming.directory.Attribute;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
 /**
  * Utility used to connect to and read objects from the source ldap server.
+ * Connections are taken from an {@link LdapConnectionPool}, so an instance can be reused across imports
+ * and used by multiple threads at the same time.
  *
  * @author Oliver Traber
  */
@@ -25,31 +31,31 @@ public class LdapUtil {
     /** SLF4J logger for usage in this class */
     private static final Logger LOG = LoggerFactory.getLogger(LdapUtil.class.getName());
 
-    /** DirContext used to connect to the target LDAP server */
-    private DirContext dirContext;
+    /** Pool of bound connections to the target LDAP server */
+    private final LdapConnectionPool connectionPool;
 
     /** Search controls used to configure how an search takes place */
     private SearchControls searchCtls;
 
-    /** Base DN which is searched for objects */
-    private String searchBase;
-
     /** LDAP filter string used to filter for specific requirements */
     private String searchFilter;
 
+    /** Amount of objects requested per page using the RFC 2696 paged results control */
+    private int pageSize;
+
     /**
      * Create a new instance of the LdapDirectory class.
      * @param ldapUrl Url of the LDAP server the directory context should be bind to.
      * @param bindUser User (full CN) the context should use for binding to the server.
      * @param bindPassword Password used for authenticating against the ldap server.
-     * @param searchBase Base DN from which user objects should be read.
      * @param searchFilter LDAP-Filter to filter for LDAP-Objects that should be synced.
      * @param returnAttributes Array of LDAP-Attribute-Names that should be used to build Azure user attributes.
      * @param ignoreSSLValidation Set true to ignore all SSL-Errors and accept all certificates. Warning! Not recommended for production use.
-     * @throws NamingException Thrown either if the creation of the DirContext fails, or if errors occur while retrieving the users.
+     * @param pageSize Amount of objects that should be requested from the LDAP server per page.
+     * @param poolSize Maximal amount of connections to the LDAP server that can be used at the same time.
      */
-    public LdapUtil(String ldapUrl, String bindUser, String bindPassword, String searchBase, String searchFilter,
-                    List<LdapAttribute> returnAttributes, boolean ignoreSSLValidation) throws NamingException {
+    public LdapUtil(String ldapUrl, String bindUser, String bindPassword, String searchFilter,
+                    List<LdapAttribute> returnAttributes, boolean ignoreSSLValidation, int pageSize, int poolSize) {
 
         ArrayList<String> attributeNames = new ArrayList<>();
         ArrayList<String> binaryAttributes = new ArrayList<>();
@@ -72,10 +78,10 @@ public class LdapUtil {
         properties.put("java.naming.ldap.attributes.binary", String.join(" ", binaryAttributes));
         if (ignoreSSLValidation) properties.put("java.naming.ldap.factory.socket", "de.traber_info.home.ldap2azure.ldap.AcceptAllSSLSocketFactory");
 
-        this.searchBase = searchBase;
         this.searchFilter = searchFilter;
+        this.pageSize = pageSize;
 
-        dirContext = new InitialDirContext(properties);
+        connectionPool = new LdapConnectionPool(properties, poolSize);
 
         // initializing search controls
         searchCtls = new SearchControls();
@@ -84,25 +90,89 @@ public class LdapUtil {
     }
 
     /**
-     * Get all objects from the ldap server that match the specified filter and are located in the specified base DN.
-     * @return NamingEnumeration containing all matched objects.
+     * Get all objects from the ldap server that match the given filter and are located in the given base DN.
+     * The objects are requested page by page using the RFC 2696 paged results control and handed over to the given
+     * {@link SearchResultPageHandler}. The next page is requested only after the previous one has been processed,
+     * so only a single page has to be held in memory at a time. Each search uses its own pooled connection,
+     * so multiple search bases can be searched at the same time.
+     * @param searchBase Base DN which is searched for objects.
+     * @param searchFilter LDAP filter string used for this search.
+     * @param pageHandler {@link SearchResultPageHandler} that processes each page of the search result.
      * @throws NamingException Thrown if errors occur while retrieving the objects.
      */
-    public NamingEnumeration<SearchResult> search() throws NamingException {
-        return dirContext.search(searchBase, searchFilter, searchCtls);
+    public void search(String searchBase, String searchFilter, SearchResultPageHandler pageHandler) throws NamingException {
+        LdapContext ldapContext = connectionPool.borrow();
+        try {
+            byte[] cookie = null;
+            int pageCount = 0;
+            do {
+                try {
+                    ldapContext.setRequestControls(new Control[] {
+                            new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL)
+                    });
+                } catch (IOException ex) {
+                    NamingException namingException = new NamingException("Failed to create paged results control");
+                    namingException.setRootCause(ex);
+                    throw namingException;
+                }
+
+                List<SearchResult> page = new ArrayList<>(pageSize);
+                NamingEnumeration<SearchResult> results = ldapContext.search(searchBase, searchFilter, searchCtls);
+                try {
+                    while (results.hasMore()) {
+                        page.add(results.next());
+                    }
+                } finally {
+                    results.close();
+                }
+
+                cookie = null;
+                Control[] responseControls = ldapContext.getResponseControls();
+                if (responseControls != null) {
+                    for (Control control : responseControls) {
+                        if (control instanceof PagedResultsResponseControl) {
+                            cookie = ((PagedResultsResponseControl) control).getCookie();
+                        }
+                    }
+                }
+
+                pageCount++;
+                LOG.debug("Received page {} containing {} objects from the LDAP server", pageCount, page.size());
+                pageHandler.handlePage(page);
+            } while (cookie != null && cookie.length > 0);
+        } catch (NamingException | RuntimeException ex) {
+            // The state of an aborted paged search is unknown, so the connection is not reused
+            connectionPool.invalidate(ldapContext);
+            throw ex;
+        }
+        connectionPool.release(ldapContext);
     }
 
     /**
-     * Closes the LDAP connection.
+     * Read a single attribute from the RootDSE of the connected LDAP server.
+     * @param attributeName Name of the operational attribute that should be read.
+     * @return String value of the attribute, or null if the server does not provide the attribute.
+     * @throws NamingException Thrown if reading the RootDSE fails.
      */
-    public void close() {
+    public String getRootDseAttribute(String attributeName) throws NamingException {
+        LdapContext ldapContext = connectionPool.borrow();
+        Attribute attribute;
         try {
-            if(dirContext != null)
-                dirContext.close();
-        }
-        catch (NamingException ex) {
-            LOG.error("An unexpected error occurred", ex);
+            attribute = ldapContext.getAttributes("", new String[] { attributeName }).get(attributeName);
+        } catch (NamingException | RuntimeException ex) {
+            connectionPool.invalidate(ldapContext);
+            throw ex;
         }
+        connectionPool.release(ldapContext);
+        if (attribute == null) return null;
+        return attribute.get().toString();
+    }
+
+    /**
+     * Closes all pooled LDAP connections.
+     */
+    public void close() {
+        connectionPool.close();
     }
 
 }
@@ -0,0 +1,87 @@
+package de.traber_info.home.ldap2azure.ldap;
+
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Precompiled user build pattern. The pattern is split once into literal and attribute segments,
+ * so building a value only requires a single pass over the segments instead of parsing the pattern again.
+ *
+ * @author Oliver Traber
+ */
+public class PatternTemplate {
+
+    /** Regex pattern for matching ldapProperty placeholders in user build pattern */
+    private static final Pattern placeholderPattern = Pattern.compile("\\{([^}]+)}");
+
+    /** Segments of the template. Attribute segments contain the attribute name, literal segments the fixed text. */
+    private final String[] segments;
+
+    /** Boolean for each segment representing if the segment is an attribute placeholder */
+    private final boolean[] attributeSegments;
+
+    /**
+     * Create a new template from the given segments.
+     * @param segments Segments of the template.
+     * @param attributeSegments Boolean for each segment representing if the segment is an attribute placeholder.
+     */
+    private PatternTemplate(String[] segments, boolean[] attributeSegments) {
+        this.segments = segments;
+        this.attributeSegments = attributeSegments;
+    }
+
+    /**
+     * Compile the given user build pattern into a template.
+     * @param pattern User build pattern containing fixed values and placeholders like {attributeName}.
+     * @return Compiled {@link PatternTemplate}.
+     */
+    public static PatternTemplate compile(String pattern) {
+        List<String> segments = new ArrayList<>();
+        List<Boolean> attributeSegments = new ArrayList<>();
+
+        Matcher matcher = placeholderPattern.matcher(pattern);
+        int literalStart = 0;
+        while (matcher.find()) {
+            if (matcher.start() > literalStart) {
+                segments.add(pattern.substring(literalStart, matcher.start()));
+                attributeSegments.add(false);
+            }
+            segments.add(matcher.group(1));
+            attributeSegments.add(true);
+            literalStart = matcher.end();
+        }
+        if (literalStart < pattern.length()) {
+            segments.add(pattern.substring(literalStart));
+            attributeSegments.add(false);
+        }
+
+        boolean[] attributeSegmentArray = new boolean[attributeSegments.size()];
+        for (int i = 0; i < attributeSegmentArray.length; i++) {
+            attributeSegmentArray[i] = attributeSegments.get(i);
+        }
+        return new PatternTemplate(segments.toArray(new String[0]), attributeSegmentArray);
+    }
+
+    /**
+     * Build the actual user attribute value from this template and the given ldap entry.
+     * @param entry {@link LdapEntry} used to read the actual attribute values.
+     * @param buffer Reusable {@link StringBuilder} used to assemble the value. Its content is replaced.
+     * @return Final value that can be set as an user attribute on an user object.
+     * @throws NamingException Thrown if reading of an LDAP attribute is unsuccessful.
+     */
+    public String render(LdapEntry entry, StringBuilder buffer) throws NamingException {
+        buffer.setLength(0);
+        for (int i = 0; i < segments.length; i++) {
+            if (attributeSegments[i]) {
+                buffer.append(entry.getValue(segments[i]));
+            } else {
+                buffer.append(segments[i]);
+            }
+        }
+        return buffer.toString();
+    }
+
+}
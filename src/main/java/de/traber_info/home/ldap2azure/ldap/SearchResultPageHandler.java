@@ -0,0 +1,22 @@
+package de.traber_info.home.ldap2azure.ldap;
+
+import javax.naming.NamingException;
+import javax.naming.directory.SearchResult;
+import java.util.List;
+
+/**
+ * Callback used by the {@link LdapUtil} to hand over a single page of a paged LDAP search for processing.
+ *
+ * @author Oliver Traber
+ */
+@FunctionalInterface
+public interface SearchResultPageHandler {
+
+    /**
+     * Process a single page of search results. The next page is only requested after this method returned.
+     * @param page {@link List} containing the {@link SearchResult} objects of the current page.
+     * @throws NamingException Thrown if reading of an LDAP attribute is unsuccessful.
+     */
+    void handlePage(List<SearchResult> page) throws NamingException;
+
+}
@@ -21,6 +21,10 @@ public class AutoLicensingConfig {
     @JsonProperty("defaultLicenseSkuIDs")
     private List<String> defaultLicenceSkuIDs;
 
+    /** Id of the Azure AD group new users are added to, if licenses are assigned using group-based licensing */
+    @JsonProperty("licenseGroupId")
+    private String licenseGroupId;
+
     /**
      * Check if the auto licensing feature should be enabled
      * @return true if auto licensing should be enabled, otherwise false
@@ -37,4 +41,12 @@ public class AutoLicensingConfig {
         return defaultLicenceSkuIDs;
     }
 
+    /**
+     * Get the id of the Azure AD group new users are added to, if licenses are assigned using group-based licensing
+     * @return Id of the license group, or null if the licenses should be assigned directly
+     */
+    public String getLicenseGroupId() {
+        return licenseGroupId;
+    }
+
 }
@@ -24,6 +24,50 @@ public class GeneralConfig {
     @JsonProperty("databaseJDBCUrl")
     private String databaseJDBCUrl;
 
+    /** Maximum amount of rows written to the database in a single transaction */
+    @JsonProperty("databaseBatchSize")
+    private int databaseBatchSize = 1000;
+
+    /** Maximum amount of users kept in the in-memory user cache. 0 disables the cache */
+    @JsonProperty("userCacheSize")
+    private int userCacheSize = 10000;
+
+    /** Boolean representing if changed users are synced to Azure AD while the ldap import is still running */
+    @JsonProperty("pipelinedSync")
+    private boolean pipelinedSync = false;
+
+    /** Maximum amount of imported users waiting to be synced to Azure AD in pipelined mode */
+    @JsonProperty("pipelineQueueSize")
+    private int pipelineQueueSize = 5000;
+
+    /** Delay in seconds before a failed user operation is retried the first time */
+    @JsonProperty("retryBaseDelay")
+    private long retryBaseDelay = 60;
+
+    /** Maximum delay in seconds between two retries of a failed user operation */
+    @JsonProperty("retryMaxDelay")
+    private long retryMaxDelay = 21600;
+
+    /** Maximum amount of attempts for a failed user operation, before it is only retried by regular syncs */
+    @JsonProperty("retryMaxAttempts")
+    private int retryMaxAttempts = 10;
+
+    /** Maximum amount of users updated by a single sync without approval. 0 disables the limit */
+    @JsonProperty("massChangeLimit")
+    private long massChangeLimit = 0;
+
+    /** Maximum share of all users in percent updated by a single sync without approval. 0 disables the limit */
+    @JsonProperty("massChangePercentage")
+    private double massChangePercentage = 0;
+
+    /** Maximum amount of users deleted by a single sync without approval. 0 disables the limit */
+    @JsonProperty("massDeleteLimit")
+    private long massDeleteLimit = 0;
+
+    /** Maximum share of all users in percent deleted by a single sync without approval. 0 disables the limit */
+    @JsonProperty("massDeletePercentage")
+    private double massDeletePercentage = 50;
+
     /**
      * Get the sync cron expression from the config file
      * @return Sync cron expression
@@ -50,4 +94,93 @@ public class GeneralConfig {
         }
         return databaseJDBCUrl;
     }
-}
\ No newline at end of file
+
+    /**
+     * Get the maximum amount of rows written to the database in a single transaction.
+     * @return Maximum amount of rows written to the database in a single transaction.
+     */
+    public int getDatabaseBatchSize() {
+        return Math.max(1, databaseBatchSize);
+    }
+
+    /**
+     * Get the maximum amount of users kept in the in-memory user cache
+     * @return Maximum amount of cached users, or 0 if the cache is disabled
+     */
+    public int getUserCacheSize() {
+        return Math.max(0, userCacheSize);
+    }
+
+    /**
+     * Get if changed users should be synced to Azure AD while the ldap import is still running.
+     * @return true if the import and the sync should run pipelined, otherwise false.
+     */
+    public boolean isPipelinedSync() {
+        return pipelinedSync;
+    }
+
+    /**
+     * Get the maximum amount of imported users waiting to be synced to Azure AD in pipelined mode.
+     * @return Maximum amount of imported users waiting to be synced.
+     */
+    public int getPipelineQueueSize() {
+        return Math.max(1, pipelineQueueSize);
+    }
+
+    /**
+     * Get the delay in seconds before a failed user operation is retried the first time
+     * @return Delay in seconds before the first retry
+     */
+    public long getRetryBaseDelay() {
+        return Math.max(1, retryBaseDelay);
+    }
+
+    /**
+     * Get the maximum delay in seconds between two retries of a failed user operation
+     * @return Maximum delay in seconds between two retries
+     */
+    public long getRetryMaxDelay() {
+        return Math.max(getRetryBaseDelay(), retryMaxDelay);
+    }
+
+    /**
+     * Get the maximum amount of attempts for a failed user operation
+     * @return Maximum amount of attempts for a failed user operation
+     */
+    public int getRetryMaxAttempts() {
+        return Math.max(1, retryMaxAttempts);
+    }
+
+    /**
+     * Get the maximum amount of users updated by a single sync without approval
+     * @return Maximum amount of updated users, or 0 if the amount is not limited
+     */
+    public long getMassChangeLimit() {
+        return Math.max(0, massChangeLimit);
+    }
+
+    /**
+     * Get the maximum share of all users in percent updated by a single sync without approval
+     * @return Maximum share of updated users in percent, or 0 if the share is not limited
+     */
+    public double getMassChangePercentage() {
+        return Math.max(0, massChangePercentage);
+    }
+
+    /**
+     * Get the maximum amount of users deleted by a single sync without approval
+     * @return Maximum amount of deleted users, or 0 if the amount is not limited
+     */
+    public long getMassDeleteLimit() {
+        return Math.max(0, massDeleteLimit);
+    }
+
+    /**
+     * Get the maximum share of all users in percent deleted by a single sync without approval
+     * @return Maximum share of deleted users in percent, or 0 if the share is not limited
+     */
+    public double getMassDeletePercentage() {
+        return Math.max(0, massDeletePercentage);
+    }
+
+}
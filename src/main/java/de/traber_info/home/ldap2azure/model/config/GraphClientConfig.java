@@ -32,6 +32,102 @@ public class GraphClientConfig {
     @JsonProperty("deleteBehavior")
     private DeleteBehavior deleteBehavior = DeleteBehavior.SOFT;
 
+    /** Amount of worker threads used to send requests to Azure AD during a sync */
+    @JsonProperty("syncThreads")
+    private int syncThreads = 4;
+
+    /** Maximum amount of batches creating users that are sent at the same time */
+    @JsonProperty("maxConcurrentCreates")
+    private int maxConcurrentCreates = 4;
+
+    /** Maximum amount of batches updating users that are sent at the same time */
+    @JsonProperty("maxConcurrentUpdates")
+    private int maxConcurrentUpdates = 4;
+
+    /** Maximum amount of batches deleting users that are sent at the same time */
+    @JsonProperty("maxConcurrentDeletes")
+    private int maxConcurrentDeletes = 2;
+
+    /** Maximum amount of batches purging soft-deleted users that are sent at the same time */
+    @JsonProperty("maxConcurrentPurges")
+    private int maxConcurrentPurges = 2;
+
+    /** Delay in seconds between the soft delete of a user and its purge, if deleteBehavior HARD is configured */
+    @JsonProperty("purgeDelay")
+    private int purgeDelay = 60;
+
+    /** Boolean representing if changes made in Azure AD outside of ldap2azure should be detected on every sync */
+    @JsonProperty("reconcileEnabled")
+    private boolean reconcileEnabled = false;
+
+    /** Boolean representing if existing Azure AD users are loaded before users are created to detect conflicts */
+    @JsonProperty("conflictPrefetchEnabled")
+    private boolean conflictPrefetchEnabled = true;
+
+    /** Maximum amount of requests that are sent to Microsoft Graph at the same time */
+    @JsonProperty("throttlingMaxConcurrency")
+    private int throttlingMaxConcurrency = 16;
+
+    /** Maximum amount of retries for a request throttled by Microsoft Graph */
+    @JsonProperty("throttlingMaxRetries")
+    private int throttlingMaxRetries = 5;
+
+    /** Maximum delay in seconds before a throttled request is retried */
+    @JsonProperty("throttlingMaxBackoff")
+    private int throttlingMaxBackoff = 120;
+
+    /** Maximum amount of requests per second sent to the users workload of Microsoft Graph */
+    @JsonProperty("rateLimitUsers")
+    private double rateLimitUsers = 100;
+
+    /** Maximum amount of requests per second sent to the directory workload of Microsoft Graph */
+    @JsonProperty("rateLimitDirectory")
+    private double rateLimitDirectory = 25;
+
+    /** Maximum amount of requests per second sent to the licensing workload of Microsoft Graph */
+    @JsonProperty("rateLimitLicensing")
+    private double rateLimitLicensing = 15;
+
+    /** Share of every rate limit that is reserved for requests triggered using the REST api */
+    @JsonProperty("interactiveRateShare")
+    private double interactiveRateShare = 0.2;
+
+    /** Maximum amount of idle connections to Microsoft Graph kept open for reuse */
+    @JsonProperty("httpMaxIdleConnections")
+    private int httpMaxIdleConnections = 16;
+
+    /** Time in seconds an idle connection to Microsoft Graph is kept open */
+    @JsonProperty("httpKeepAlive")
+    private int httpKeepAlive = 300;
+
+    /** Maximum amount of asynchronous requests that are executed at the same time */
+    @JsonProperty("httpMaxRequests")
+    private int httpMaxRequests = 64;
+
+    /** Maximum amount of asynchronous requests that are executed at the same time per host */
+    @JsonProperty("httpMaxRequestsPerHost")
+    private int httpMaxRequestsPerHost = 32;
+
+    /** Timeout in seconds for establishing a connection to Microsoft Graph */
+    @JsonProperty("httpConnectTimeout")
+    private int httpConnectTimeout = 10;
+
+    /** Timeout in seconds for reading a response from Microsoft Graph */
+    @JsonProperty("httpReadTimeout")
+    private int httpReadTimeout = 100;
+
+    /** Whether HTTP/2 should be used to contact Microsoft Graph */
+    @JsonProperty("http2Enabled")
+    private boolean http2Enabled = true;
+
+    /** Whether Microsoft Graph should be asked to compress responses */
+    @JsonProperty("httpCompressionEnabled")
+    private boolean httpCompressionEnabled = true;
+
+    /** Time in seconds before the access token expires at which it is refreshed in the background */
+    @JsonProperty("tokenRefreshMargin")
+    private int tokenRefreshMargin = 300;
+
     /**
      * Get the tenant specific authorisation authority from the config file
      * @return Tenant specific authority
@@ -71,4 +167,197 @@ public class GraphClientConfig {
     public DeleteBehavior getDeleteBehavior() {
         return deleteBehavior;
     }
+
+    /**
+     * Get the amount of worker threads used to send requests to Azure AD during a sync
+     * @return Amount of worker threads used to send requests to Azure AD during a sync
+     */
+    public int getSyncThreads() {
+        return syncThreads;
+    }
+
+    /**
+     * Get the maximum amount of batches creating users that are sent at the same time
+     * @return Maximum amount of batches creating users that are sent at the same time
+     */
+    public int getMaxConcurrentCreates() {
+        return maxConcurrentCreates;
+    }
+
+    /**
+     * Get the maximum amount of batches updating users that are sent at the same time
+     * @return Maximum amount of batches updating users that are sent at the same time
+     */
+    public int getMaxConcurrentUpdates() {
+        return maxConcurrentUpdates;
+    }
+
+    /**
+     * Get the maximum amount of batches deleting users that are sent at the same time
+     * @return Maximum amount of batches deleting users that are sent at the same time
+     */
+    public int getMaxConcurrentDeletes() {
+        return maxConcurrentDeletes;
+    }
+
+    /**
+     * Get the maximum amount of batches purging soft-deleted users that are sent at the same time
+     * @return Maximum amount of batches purging soft-deleted users that are sent at the same time
+     */
+    public int getMaxConcurrentPurges() {
+        return Math.max(1, maxConcurrentPurges);
+    }
+
+    /**
+     * Get the delay in seconds between the soft delete of a user and its purge
+     * @return Delay in seconds between the soft delete of a user and its purge
+     */
+    public int getPurgeDelay() {
+        return Math.max(1, purgeDelay);
+    }
+
+    /**
+     * Get the maximum amount of requests that are sent to Microsoft Graph at the same time
+     * @return Maximum amount of requests that are sent to Microsoft Graph at the same time
+     */
+    public int getThrottlingMaxConcurrency() {
+        return throttlingMaxConcurrency;
+    }
+
+    /**
+     * Get the maximum amount of retries for a request throttled by Microsoft Graph
+     * @return Maximum amount of retries for a throttled request
+     */
+    public int getThrottlingMaxRetries() {
+        return throttlingMaxRetries;
+    }
+
+    /**
+     * Get the maximum delay in seconds before a throttled request is retried
+     * @return Maximum delay in seconds before a throttled request is retried
+     */
+    public int getThrottlingMaxBackoff() {
+        return throttlingMaxBackoff;
+    }
+
+    /**
+     * Get the maximum amount of requests per second sent to the users workload of Microsoft Graph
+     * @return Maximum amount of requests per second, or 0 if the workload is not limited
+     */
+    public double getRateLimitUsers() {
+        return rateLimitUsers;
+    }
+
+    /**
+     * Get the maximum amount of requests per second sent to the directory workload of Microsoft Graph
+     * @return Maximum amount of requests per second, or 0 if the workload is not limited
+     */
+    public double getRateLimitDirectory() {
+        return rateLimitDirectory;
+    }
+
+    /**
+     * Get the maximum amount of requests per second sent to the licensing workload of Microsoft Graph
+     * @return Maximum amount of requests per second, or 0 if the workload is not limited
+     */
+    public double getRateLimitLicensing() {
+        return rateLimitLicensing;
+    }
+
+    /**
+     * Get the share of every rate limit that is reserved for requests triggered using the REST api
+     * @return Share of every rate limit that is reserved for interactive requests
+     */
+    public double getInteractiveRateShare() {
+        return interactiveRateShare;
+    }
+
+    /**
+     * Get if changes made in Azure AD outside of ldap2azure should be detected on every sync
+     * @return true if the reconciliation with Azure AD is enabled, otherwise false
+     */
+    public boolean isReconcileEnabled() {
+        return reconcileEnabled;
+    }
+
+    /**
+     * Get if existing Azure AD users should be loaded before users are created to detect conflicts
+     * @return true if conflicts should be detected before users are created, otherwise false
+     */
+    public boolean isConflictPrefetchEnabled() {
+        return conflictPrefetchEnabled;
+    }
+
+    /**
+     * Get the maximum amount of idle connections to Microsoft Graph kept open for reuse
+     * @return Maximum amount of idle connections kept open for reuse
+     */
+    public int getHttpMaxIdleConnections() {
+        return Math.max(1, httpMaxIdleConnections);
+    }
+
+    /**
+     * Get the time in seconds an idle connection to Microsoft Graph is kept open
+     * @return Time in seconds an idle connection is kept open
+     */
+    public int getHttpKeepAlive() {
+        return Math.max(1, httpKeepAlive);
+    }
+
+    /**
+     * Get the maximum amount of asynchronous requests that are executed at the same time
+     * @return Maximum amount of asynchronous requests that are executed at the same time
+     */
+    public int getHttpMaxRequests() {
+        return Math.max(1, httpMaxRequests);
+    }
+
+    /**
+     * Get the maximum amount of asynchronous requests that are executed at the same time per host
+     * @return Maximum amount of asynchronous requests that are executed at the same time per host
+     */
+    public int getHttpMaxRequestsPerHost() {
+        return Math.max(1, httpMaxRequestsPerHost);
+    }
+
+    /**
+     * Get the timeout in seconds for establishing a connection to Microsoft Graph
+     * @return Timeout in seconds for establishing a connection, or 0 if there is no timeout
+     */
+    public int getHttpConnectTimeout() {
+        return httpConnectTimeout;
+    }
+
+    /**
+     * Get the timeout in seconds for reading a response from Microsoft Graph
+     * @return Timeout in seconds for reading a response, or 0 if there is no timeout
+     */
+    public int getHttpReadTimeout() {
+        return httpReadTimeout;
+    }
+
+    /**
+     * Get if HTTP/2 should be used to contact Microsoft Graph
+     * @return true if HTTP/2 should be used, otherwise false
+     */
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    /**
+     * Get if Microsoft Graph should be asked to compress responses
+     * @return true if responses should be compressed, otherwise false
+     */
+    public boolean isHttpCompressionEnabled() {
+        return httpCompressionEnabled;
+    }
+
+    /**
+     * Get the time in seconds before the access token expires at which it is refreshed in the background
+     * @return Time in seconds before the access token expires at which it is refreshed
+     */
+    public int getTokenRefreshMargin() {
+        return tokenRefreshMargin;
+    }
+
 }
@@ -19,6 +19,21 @@ public class LdapAttribute {
     @JsonProperty(value = "binary")
     private boolean isBinary = false;
 
+    /**
+     * Default constructor for deserialization.
+     */
+    private LdapAttribute() {}
+
+    /**
+     * Public constructor used to define an attribute that is loaded additionally to the configured ones.
+     * @param attributeName Name of the ldap attribute that should be loaded.
+     * @param isBinary Set true if the attribute is an binary attribute.
+     */
+    public LdapAttribute(String attributeName, boolean isBinary) {
+        this.attributeName = attributeName;
+        this.isBinary = isBinary;
+    }
+
     /**
      * Get the name of the ldap attribute that should be loaded.
      * @return Name of the ldap attribute that should be loaded.
@@ -2,7 +2,9 @@ package de.traber_info.home.ldap2azure.model.config;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import de.traber_info.home.ldap2azure.model.type.DeltaImportStrategy;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -26,9 +28,17 @@ public class LdapConfig {
     private String bindPassword;
 
     /** Base DN where users are searched in */
-    @JsonProperty(value = "ldapSearchBase", required = true)
+    @JsonProperty(value = "ldapSearchBase")
     private String searchBase;
 
+    /** Additional base DNs where users are searched in. All search bases are searched in parallel. */
+    @JsonProperty(value = "ldapSearchBases")
+    private List<String> searchBases;
+
+    /** Maximal amount of search bases that are searched at the same time */
+    @JsonProperty("ldapSearchThreads")
+    private int searchThreads = 4;
+
     /** LDAP filter which is used to determine which users should be synced */
     @JsonProperty(value = "ldapSearchFilter", required = true)
     private String searchFilter;
@@ -43,6 +53,26 @@ public class LdapConfig {
     @JsonProperty("ignoreSSLErrors")
     private boolean ignoreSSLErrors = false;
 
+    /** Amount of objects requested from the LDAP server per page when using paged results */
+    @JsonProperty("ldapPageSize")
+    private int pageSize = 500;
+
+    /** Maximal amount of connections to the LDAP server that are kept open and can be used at the same time */
+    @JsonProperty("ldapPoolSize")
+    private int poolSize = 4;
+
+    /** Boolean representing if only objects changed since the last import should be read from the LDAP server */
+    @JsonProperty("deltaImportEnabled")
+    private boolean deltaImportEnabled = false;
+
+    /** Attribute used as high-water mark to detect changed objects */
+    @JsonProperty("deltaImportStrategy")
+    private DeltaImportStrategy deltaImportStrategy = DeltaImportStrategy.MODIFY_TIMESTAMP;
+
+    /** Interval in minutes after which a full import is run to detect deleted objects */
+    @JsonProperty("fullImportInterval")
+    private long fullImportInterval = 1440;
+
     /**
      * Get the URL that specifies to which LDAP server ldap2azure should connect to
      * @return The URL that specifies to which LDAP server ldap2azure should connect to
@@ -75,6 +105,31 @@ public class LdapConfig {
         return searchBase;
     }
 
+    /**
+     * Get all base DNs where users are searched in. Contains the single search base and all additional search bases.
+     * @return List of all base DNs where users are searched in without duplicates
+     */
+    public List<String> getSearchBases() {
+        List<String> allSearchBases = new ArrayList<>();
+        if (searchBase != null && !"".equals(searchBase)) {
+            allSearchBases.add(searchBase);
+        }
+        if (searchBases != null) {
+            for (String additionalSearchBase : searchBases) {
+                if (!allSearchBases.contains(additionalSearchBase)) allSearchBases.add(additionalSearchBase);
+            }
+        }
+        return allSearchBases;
+    }
+
+    /**
+     * Get the maximal amount of search bases that are searched at the same time
+     * @return The maximal amount of search bases that are searched at the same time
+     */
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
     /**
      * Get the LDAP filter which is used to determine which users should be synced
      * @return The LDAP filter which is used to determine which users should be synced
@@ -99,4 +154,44 @@ public class LdapConfig {
         return ignoreSSLErrors;
     }
 
+    /**
+     * Get the amount of objects requested from the LDAP server per page when using paged results
+     * @return The amount of objects requested from the LDAP server per page
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Get the maximal amount of connections to the LDAP server that are kept open and can be used at the same time
+     * @return The maximal amount of pooled connections to the LDAP server
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Check if only objects changed since the last import should be read from the LDAP server
+     * @return true if incremental imports should be used, otherwise false
+     */
+    public boolean isDeltaImportEnabled() {
+        return deltaImportEnabled;
+    }
+
+    /**
+     * Get the attribute used as high-water mark to detect changed objects
+     * @return The attribute used as high-water mark to detect changed objects
+     */
+    public DeltaImportStrategy getDeltaImportStrategy() {
+        return deltaImportStrategy;
+    }
+
+    /**
+     * Get the interval in minutes after which a full import is run to detect deleted objects
+     * @return The interval in minutes after which a full import is run
+     */
+    public long getFullImportInterval() {
+        return fullImportInterval;
+    }
+
 }
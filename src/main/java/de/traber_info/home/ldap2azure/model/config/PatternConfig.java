@@ -1,7 +1,9 @@
 package de.traber_info.home.ldap2azure.model.config;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import de.traber_info.home.ldap2azure.ldap.PatternTemplate;
 
 /**
  * Model for the patterns by which attributes of Azure AD users are build
@@ -35,6 +37,42 @@ public class PatternConfig {
     @JsonProperty(value = "userPrincipalNamePattern", required = true)
     private String userPrincipalNamePattern;
 
+    /** Compiled template of the given name pattern */
+    @JsonIgnore
+    private PatternTemplate givenNameTemplate;
+
+    /** Compiled template of the surname pattern */
+    @JsonIgnore
+    private PatternTemplate surnameTemplate;
+
+    /** Compiled template of the display name pattern */
+    @JsonIgnore
+    private PatternTemplate displayNameTemplate;
+
+    /** Compiled template of the on-premises immutable id pattern */
+    @JsonIgnore
+    private PatternTemplate onPremisesImmutableIdTemplate;
+
+    /** Compiled template of the mail nickname pattern */
+    @JsonIgnore
+    private PatternTemplate mailNicknameTemplate;
+
+    /** Compiled template of the user principal name pattern */
+    @JsonIgnore
+    private PatternTemplate userPrincipalNameTemplate;
+
+    /**
+     * Compile all patterns into templates. Called once after the config was loaded.
+     */
+    public void compileTemplates() {
+        givenNameTemplate = PatternTemplate.compile(givenNamePattern);
+        surnameTemplate = PatternTemplate.compile(surnamePattern);
+        displayNameTemplate = PatternTemplate.compile(displayNamePattern);
+        onPremisesImmutableIdTemplate = PatternTemplate.compile(onPremisesImmutableIdPattern);
+        mailNicknameTemplate = PatternTemplate.compile(mailNicknamePattern);
+        userPrincipalNameTemplate = PatternTemplate.compile(userPrincipalNamePattern);
+    }
+
     /**
      * Get the pattern by which the given name is build
      * @return The pattern by which the given name is build
@@ -83,4 +121,52 @@ public class PatternConfig {
         return userPrincipalNamePattern;
     }
 
+    /**
+     * Get the compiled template of the given name pattern
+     * @return The compiled template of the given name pattern
+     */
+    public PatternTemplate getGivenNameTemplate() {
+        return givenNameTemplate;
+    }
+
+    /**
+     * Get the compiled template of the surname pattern
+     * @return The compiled template of the surname pattern
+     */
+    public PatternTemplate getSurnameTemplate() {
+        return surnameTemplate;
+    }
+
+    /**
+     * Get the compiled template of the display name pattern
+     * @return The compiled template of the display name pattern
+     */
+    public PatternTemplate getDisplayNameTemplate() {
+        return displayNameTemplate;
+    }
+
+    /**
+     * Get the compiled template of the on-premises immutable id pattern
+     * @return The compiled template of the on-premises immutable id pattern
+     */
+    public PatternTemplate getOnPremisesImmutableIdTemplate() {
+        return onPremisesImmutableIdTemplate;
+    }
+
+    /**
+     * Get the compiled template of the mail nickname pattern
+     * @return The compiled template of the mail nickname pattern
+     */
+    public PatternTemplate getMailNicknameTemplate() {
+        return mailNicknameTemplate;
+    }
+
+    /**
+     * Get the compiled template of the user principal name pattern
+     * @return The compiled template of the user principal name pattern
+     */
+    public PatternTemplate getUserPrincipalNameTemplate() {
+        return userPrincipalNameTemplate;
+    }
+
 }
@@ -0,0 +1,110 @@
+package de.traber_info.home.ldap2azure.model.object;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import de.traber_info.home.ldap2azure.h2.persister.LocalDateTimePersister;
+
+import java.time.LocalDateTime;
+
+/**
+ * Purge entry object model that holds a soft-deleted Azure AD user, which should be removed from the deleted items
+ * of Azure AD. Purges are delayed, so Azure AD has propagated the soft delete before the purge is sent.
+ *
+ * @author Oliver Traber
+ */
+@DatabaseTable(tableName = "purges")
+public class PurgeEntry {
+
+    /** Maximum length of the stored error message */
+    public static final int MAX_ERROR_LENGTH = 1024;
+
+    /** Azure AD object id of the soft-deleted user */
+    @DatabaseField(id = true)
+    private String id;
+
+    /** Display name of the soft-deleted user, used for logging */
+    @DatabaseField
+    private String displayName;
+
+    /** Time after which the user should be purged */
+    @DatabaseField(persisterClass = LocalDateTimePersister.class, index = true)
+    private LocalDateTime purgeAfter;
+
+    /** Amount of failed purge attempts */
+    @DatabaseField
+    private int attempts;
+
+    /** Error message of the last failed attempt */
+    @DatabaseField(width = MAX_ERROR_LENGTH)
+    private String lastError;
+
+    /**
+     * Default constructor for deserialization.
+     */
+    private PurgeEntry() {}
+
+    /**
+     * Public constructor used to create a new purge entry.
+     * @param id Azure AD object id of the soft-deleted user
+     * @param displayName Display name of the soft-deleted user
+     * @param purgeAfter Time after which the user should be purged
+     */
+    public PurgeEntry(String id, String displayName, LocalDateTime purgeAfter) {
+        this.id = id;
+        this.displayName = displayName;
+        this.purgeAfter = purgeAfter;
+    }
+
+    /**
+     * Record a failed attempt and delay the next one. The delay doubles with every failed attempt.
+     * @param error Error message of the failed attempt
+     * @param baseDelay Delay in seconds before the first retry
+     */
+    public void recordFailure(String error, long baseDelay) {
+        this.attempts++;
+        this.lastError = error != null && error.length() > MAX_ERROR_LENGTH
+                ? error.substring(0, MAX_ERROR_LENGTH) : error;
+        this.purgeAfter = LocalDateTime.now().plusSeconds(baseDelay << Math.min(attempts, 16));
+    }
+
+    /**
+     * Get the Azure AD object id of the soft-deleted user.
+     * @return Azure AD object id of the soft-deleted user.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the display name of the soft-deleted user.
+     * @return Display name of the soft-deleted user.
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Get the time after which the user should be purged.
+     * @return Time after which the user should be purged.
+     */
+    public LocalDateTime getPurgeAfter() {
+        return purgeAfter;
+    }
+
+    /**
+     * Get the amount of failed purge attempts.
+     * @return Amount of failed purge attempts.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Get the error message of the last failed attempt.
+     * @return Error message of the last failed attempt.
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+}
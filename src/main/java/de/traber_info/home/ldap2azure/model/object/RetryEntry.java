@@ -0,0 +1,151 @@
+package de.traber_info.home.ldap2azure.model.object;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import de.traber_info.home.ldap2azure.h2.persister.LocalDateTimePersister;
+import de.traber_info.home.ldap2azure.h2.persister.SyncOperationPersister;
+import de.traber_info.home.ldap2azure.model.type.SyncOperation;
+
+import java.time.LocalDateTime;
+
+/**
+ * Retry entry object model that holds a failed operation of a user, which is retried with an exponential backoff.
+ * Every user has at most one entry, since a user only has a single pending operation at a time.
+ *
+ * @author Oliver Traber
+ */
+@DatabaseTable(tableName = "retries")
+public class RetryEntry {
+
+    /** Maximum length of the stored error message */
+    public static final int MAX_ERROR_LENGTH = 1024;
+
+    /** Internal id of the user the failed operation belongs to */
+    @DatabaseField(id = true)
+    private String id;
+
+    /** Operation that failed */
+    @DatabaseField(persisterClass = SyncOperationPersister.class)
+    private SyncOperation operation;
+
+    /** Amount of failed attempts */
+    @DatabaseField
+    private int attempts;
+
+    /** Time the operation is retried next. Null if the maximum amount of attempts is reached */
+    @DatabaseField(persisterClass = LocalDateTimePersister.class, index = true)
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "uuuu-MM-dd'T'HH:mm:ss.SSS")
+    private LocalDateTime nextAttempt;
+
+    /** Time the operation failed first */
+    @DatabaseField(persisterClass = LocalDateTimePersister.class)
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "uuuu-MM-dd'T'HH:mm:ss.SSS")
+    private LocalDateTime firstFailure;
+
+    /** Error message of the last failed attempt */
+    @DatabaseField(width = MAX_ERROR_LENGTH)
+    private String lastError;
+
+    /**
+     * Default constructor for deserialization.
+     */
+    private RetryEntry() {}
+
+    /**
+     * Public constructor used to create a new retry entry for the first failure of an operation.
+     * @param id Internal id of the user the failed operation belongs to
+     * @param operation Operation that failed
+     * @param lastError Error message of the failed attempt
+     */
+    public RetryEntry(String id, SyncOperation operation, String lastError) {
+        this.id = id;
+        this.operation = operation;
+        this.lastError = lastError;
+        this.firstFailure = LocalDateTime.now();
+    }
+
+    /**
+     * Record a failed attempt and schedule the next one with an exponential backoff.
+     * @param operation Operation that failed
+     * @param error Error message of the failed attempt
+     * @param baseDelay Delay in seconds before the first retry
+     * @param maxDelay Maximum delay in seconds between two retries
+     * @param maxAttempts Maximum amount of attempts, after which the operation is not retried anymore
+     */
+    public void recordFailure(SyncOperation operation, String error, long baseDelay, long maxDelay, int maxAttempts) {
+        // A different operation starts a new series of attempts
+        if (this.operation != operation) {
+            this.operation = operation;
+            this.attempts = 0;
+            this.firstFailure = LocalDateTime.now();
+        }
+        this.attempts++;
+        this.lastError = error != null && error.length() > MAX_ERROR_LENGTH
+                ? error.substring(0, MAX_ERROR_LENGTH) : error;
+        if (attempts >= maxAttempts) {
+            this.nextAttempt = null;
+            return;
+        }
+        long delay = baseDelay << Math.min(attempts - 1, 30);
+        this.nextAttempt = LocalDateTime.now().plusSeconds(Math.min(Math.max(delay, baseDelay), maxDelay));
+    }
+
+    /**
+     * Get the internal id of the user the failed operation belongs to.
+     * @return Internal id of the user.
+     */
+    @JsonProperty("_id")
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the operation that failed.
+     * @return Operation that failed.
+     */
+    @JsonProperty("operation")
+    public SyncOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Get the amount of failed attempts.
+     * @return Amount of failed attempts.
+     */
+    @JsonProperty("attempts")
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Get the time the operation is retried next.
+     * @return Time of the next attempt, or null if the maximum amount of attempts is reached.
+     */
+    @JsonProperty("nextAttempt")
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "uuuu-MM-dd'T'HH:mm:ss.SSS")
+    public LocalDateTime getNextAttempt() {
+        return nextAttempt;
+    }
+
+    /**
+     * Get the time the operation failed first.
+     * @return Time of the first failure.
+     */
+    @JsonProperty("firstFailure")
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "uuuu-MM-dd'T'HH:mm:ss.SSS")
+    public LocalDateTime getFirstFailure() {
+        return firstFailure;
+    }
+
+    /**
+     * Get the error message of the last failed attempt.
+     * @return Error message of the last failed attempt.
+     */
+    @JsonProperty("lastError")
+    public String getLastError() {
+        return lastError;
+    }
+
+}
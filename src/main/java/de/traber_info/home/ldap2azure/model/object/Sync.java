@@ -5,11 +5,16 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 import de.traber_info.home.ldap2azure.h2.persister.LocalDateTimePersister;
+import de.traber_info.home.ldap2azure.h2.persister.SyncPhasePersister;
+import de.traber_info.home.ldap2azure.h2.persister.SyncRunStatePersister;
+import de.traber_info.home.ldap2azure.model.type.SyncPhase;
+import de.traber_info.home.ldap2azure.model.type.SyncRunState;
 
 import java.time.LocalDateTime;
 
 /**
- * Sync object model that holds all information about a completed sync.
+ * Sync object model that holds all information about a sync. The sync is written to the database when it begins
+ * and updated at every checkpoint, so a sync interrupted by a crash can be resumed.
  *
  * @author Oliver Traber
  */
@@ -46,13 +51,40 @@ public class Sync {
     @DatabaseField
     private long usersFailed;
 
+    /** Current state of the sync. Syncs recorded by older versions don't have a state and are completed */
+    @DatabaseField(persisterClass = SyncRunStatePersister.class)
+    private SyncRunState state;
+
+    /** Phase the sync was in at the last checkpoint */
+    @DatabaseField(persisterClass = SyncPhasePersister.class)
+    private SyncPhase phase;
+
+    /** Time of the last checkpoint */
+    @DatabaseField(persisterClass = LocalDateTimePersister.class)
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "uuuu-MM-dd'T'HH:mm:ss.SSS")
+    private LocalDateTime lastCheckpoint;
+
     /**
      * Default constructor for deserialization.
      */
     private Sync() {}
 
     /**
-     * Public constructor used to create a new user object.
+     * Public constructor used to create a new running sync.
+     * @param id Internal id of the sync
+     * @param syncBegin Time the sync began
+     * @param phase Phase the sync begins with
+     */
+    public Sync(String id, LocalDateTime syncBegin, SyncPhase phase) {
+        this.id = id;
+        this.syncBegin = syncBegin;
+        this.state = SyncRunState.RUNNING;
+        this.phase = phase;
+        this.lastCheckpoint = syncBegin;
+    }
+
+    /**
+     * Public constructor used to create a new completed sync.
      * @param id Internal id of the sync
      * @param syncBegin Time the sync began
      * @param syncEnd Time the sync completed
@@ -70,6 +102,36 @@ public class Sync {
         this.usersChanged = usersChanged;
         this.usersDeleted = usersDeleted;
         this.usersFailed = usersFailed;
+        this.state = SyncRunState.COMPLETED;
+    }
+
+    /**
+     * Record the progress of the sync.
+     * @param phase Phase the sync is currently in
+     * @param usersCreated Amount of users created so far
+     * @param usersChanged Amount of users changed so far
+     * @param usersDeleted Amount of users deleted so far
+     * @param usersFailed Amount of users that failed to sync so far
+     */
+    public void checkpoint(SyncPhase phase, long usersCreated, long usersChanged, long usersDeleted,
+                           long usersFailed) {
+        this.phase = phase;
+        this.usersCreated = usersCreated;
+        this.usersChanged = usersChanged;
+        this.usersDeleted = usersDeleted;
+        this.usersFailed = usersFailed;
+        this.lastCheckpoint = LocalDateTime.now();
+    }
+
+    /**
+     * Mark the sync as ended.
+     * @param state Final state of the sync
+     * @param syncEnd Time the sync ended
+     */
+    public void end(SyncRunState state, LocalDateTime syncEnd) {
+        this.state = state;
+        this.syncEnd = syncEnd;
+        this.lastCheckpoint = syncEnd;
     }
 
     /**
@@ -136,4 +198,32 @@ public class Sync {
     public long getUsersFailed() {
         return usersFailed;
     }
+
+    /**
+     * Get the current state of the sync.
+     * @return Current state of the sync.
+     */
+    @JsonProperty("state")
+    public SyncRunState getState() {
+        return state != null ? state : SyncRunState.COMPLETED;
+    }
+
+    /**
+     * Get the phase the sync was in at the last checkpoint.
+     * @return Phase the sync was in at the last checkpoint, or null if the sync was recorded by an older version.
+     */
+    @JsonProperty("phase")
+    public SyncPhase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Get the time of the last checkpoint.
+     * @return Time of the last checkpoint.
+     */
+    @JsonProperty("lastCheckpoint")
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "uuuu-MM-dd'T'HH:mm:ss.SSS")
+    public LocalDateTime getLastCheckpoint() {
+        return lastCheckpoint;
+    }
 }
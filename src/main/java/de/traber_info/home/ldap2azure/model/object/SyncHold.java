@@ -0,0 +1,132 @@
+package de.traber_info.home.ldap2azure.model.object;
+
+import java.time.LocalDateTime;
+
+/**
+ * Changes held back by the {@link de.traber_info.home.ldap2azure.service.SyncCircuitBreaker}, since they exceeded
+ * the configured limits for a single sync. The held users stay pending until the hold is approved or rejected.
+ *
+ * @author Oliver Traber
+ */
+public class SyncHold {
+
+    /** Date and time the changes were held for the first time */
+    private final LocalDateTime heldSince;
+
+    /** Id of the last sync that held the changes */
+    private final String syncId;
+
+    /** Amount of users whose update was held */
+    private final long heldChanges;
+
+    /** Maximum amount of users updated by a single sync without approval */
+    private final long changeLimit;
+
+    /** Amount of users whose deletion was held */
+    private final long heldDeletes;
+
+    /** Maximum amount of users deleted by a single sync without approval */
+    private final long deleteLimit;
+
+    /** Total amount of users stored in ldap2azure when the changes were held */
+    private final long totalUsers;
+
+    /** Boolean representing if the held changes were approved and are synced by the next sync */
+    private final boolean approved;
+
+    /**
+     * Create a new hold.
+     * @param heldSince Date and time the changes were held for the first time.
+     * @param syncId Id of the last sync that held the changes.
+     * @param heldChanges Amount of users whose update was held.
+     * @param changeLimit Maximum amount of users updated by a single sync without approval.
+     * @param heldDeletes Amount of users whose deletion was held.
+     * @param deleteLimit Maximum amount of users deleted by a single sync without approval.
+     * @param totalUsers Total amount of users stored in ldap2azure when the changes were held.
+     * @param approved true if the held changes were approved.
+     */
+    public SyncHold(LocalDateTime heldSince, String syncId, long heldChanges, long changeLimit,
+                    long heldDeletes, long deleteLimit, long totalUsers, boolean approved) {
+        this.heldSince = heldSince;
+        this.syncId = syncId;
+        this.heldChanges = heldChanges;
+        this.changeLimit = changeLimit;
+        this.heldDeletes = heldDeletes;
+        this.deleteLimit = deleteLimit;
+        this.totalUsers = totalUsers;
+        this.approved = approved;
+    }
+
+    /**
+     * Create a copy of this hold that is marked as approved.
+     * @return Approved copy of this hold.
+     */
+    public SyncHold approve() {
+        return new SyncHold(heldSince, syncId, heldChanges, changeLimit, heldDeletes, deleteLimit, totalUsers, true);
+    }
+
+    /**
+     * Get the date and time the changes were held for the first time.
+     * @return Date and time the changes were held for the first time.
+     */
+    public LocalDateTime getHeldSince() {
+        return heldSince;
+    }
+
+    /**
+     * Get the id of the last sync that held the changes.
+     * @return Id of the last {@link Sync} that held the changes.
+     */
+    public String getSyncId() {
+        return syncId;
+    }
+
+    /**
+     * Get the amount of users whose update was held.
+     * @return Amount of held updates.
+     */
+    public long getHeldChanges() {
+        return heldChanges;
+    }
+
+    /**
+     * Get the maximum amount of users updated by a single sync without approval.
+     * @return Maximum amount of updated users, or -1 if the amount is not limited.
+     */
+    public long getChangeLimit() {
+        return changeLimit;
+    }
+
+    /**
+     * Get the amount of users whose deletion was held.
+     * @return Amount of held deletes.
+     */
+    public long getHeldDeletes() {
+        return heldDeletes;
+    }
+
+    /**
+     * Get the maximum amount of users deleted by a single sync without approval.
+     * @return Maximum amount of deleted users, or -1 if the amount is not limited.
+     */
+    public long getDeleteLimit() {
+        return deleteLimit;
+    }
+
+    /**
+     * Get the total amount of users stored in ldap2azure when the changes were held.
+     * @return Total amount of users.
+     */
+    public long getTotalUsers() {
+        return totalUsers;
+    }
+
+    /**
+     * Check if the held changes were approved.
+     * @return true if the held changes are synced by the next sync, otherwise false.
+     */
+    public boolean isApproved() {
+        return approved;
+    }
+
+}
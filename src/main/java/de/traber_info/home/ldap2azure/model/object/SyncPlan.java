@@ -0,0 +1,164 @@
+package de.traber_info.home.ldap2azure.model.object;
+
+import java.time.LocalDateTime;
+
+/**
+ * Result of a dry run of the next sync. Contains the amount of users the next sync will create, update and delete
+ * in Azure AD, the requests required to do so and the duration estimated from the throughput of recent syncs.
+ *
+ * @author Oliver Traber
+ */
+public class SyncPlan {
+
+    /** Date and time the plan was created */
+    private final LocalDateTime plannedAt;
+
+    /** Amount of users that will be created in Azure AD */
+    private final long usersToCreate;
+
+    /** Amount of users that will be updated in Azure AD */
+    private final long usersToUpdate;
+
+    /** Amount of users that will be deleted from Azure AD */
+    private final long usersToDelete;
+
+    /** Amount of requests assigning licenses to the created users */
+    private final long licenseRequests;
+
+    /** Amount of requests purging the deleted users from the deleted items after the sync */
+    private final long purgeRequests;
+
+    /** Total amount of requests to Microsoft Graph, counting every step of a batch as a single request */
+    private final long graphRequests;
+
+    /** Total amount of http calls to Microsoft Graph, counting every batch as a single call */
+    private final long httpCalls;
+
+    /** Average amount of users synced per second by the reference syncs */
+    private final double usersPerSecond;
+
+    /** Amount of recent syncs the throughput was calculated from */
+    private final int referenceSyncs;
+
+    /** Estimated duration of the sync in seconds, or null if no reference syncs are available */
+    private final Long estimatedDuration;
+
+    /**
+     * Create a new plan.
+     * @param plannedAt Date and time the plan was created.
+     * @param usersToCreate Amount of users that will be created in Azure AD.
+     * @param usersToUpdate Amount of users that will be updated in Azure AD.
+     * @param usersToDelete Amount of users that will be deleted from Azure AD.
+     * @param licenseRequests Amount of requests assigning licenses to the created users.
+     * @param purgeRequests Amount of requests purging the deleted users from the deleted items after the sync.
+     * @param graphRequests Total amount of requests to Microsoft Graph.
+     * @param httpCalls Total amount of http calls to Microsoft Graph.
+     * @param usersPerSecond Average amount of users synced per second by the reference syncs.
+     * @param referenceSyncs Amount of recent syncs the throughput was calculated from.
+     * @param estimatedDuration Estimated duration of the sync in seconds, or null if it is unknown.
+     */
+    public SyncPlan(LocalDateTime plannedAt, long usersToCreate, long usersToUpdate, long usersToDelete,
+                    long licenseRequests, long purgeRequests, long graphRequests, long httpCalls,
+                    double usersPerSecond, int referenceSyncs, Long estimatedDuration) {
+        this.plannedAt = plannedAt;
+        this.usersToCreate = usersToCreate;
+        this.usersToUpdate = usersToUpdate;
+        this.usersToDelete = usersToDelete;
+        this.licenseRequests = licenseRequests;
+        this.purgeRequests = purgeRequests;
+        this.graphRequests = graphRequests;
+        this.httpCalls = httpCalls;
+        this.usersPerSecond = usersPerSecond;
+        this.referenceSyncs = referenceSyncs;
+        this.estimatedDuration = estimatedDuration;
+    }
+
+    /**
+     * Get the date and time the plan was created.
+     * @return Date and time the plan was created.
+     */
+    public LocalDateTime getPlannedAt() {
+        return plannedAt;
+    }
+
+    /**
+     * Get the amount of users that will be created in Azure AD.
+     * @return Amount of users that will be created.
+     */
+    public long getUsersToCreate() {
+        return usersToCreate;
+    }
+
+    /**
+     * Get the amount of users that will be updated in Azure AD.
+     * @return Amount of users that will be updated.
+     */
+    public long getUsersToUpdate() {
+        return usersToUpdate;
+    }
+
+    /**
+     * Get the amount of users that will be deleted from Azure AD.
+     * @return Amount of users that will be deleted.
+     */
+    public long getUsersToDelete() {
+        return usersToDelete;
+    }
+
+    /**
+     * Get the amount of requests assigning licenses to the created users.
+     * @return Amount of license requests.
+     */
+    public long getLicenseRequests() {
+        return licenseRequests;
+    }
+
+    /**
+     * Get the amount of requests purging the deleted users from the deleted items after the sync.
+     * @return Amount of purge requests, or 0 if deleteBehavior SOFT is configured.
+     */
+    public long getPurgeRequests() {
+        return purgeRequests;
+    }
+
+    /**
+     * Get the total amount of requests to Microsoft Graph, counting every step of a batch as a single request.
+     * @return Total amount of requests to Microsoft Graph.
+     */
+    public long getGraphRequests() {
+        return graphRequests;
+    }
+
+    /**
+     * Get the total amount of http calls to Microsoft Graph, counting every batch as a single call.
+     * @return Total amount of http calls to Microsoft Graph.
+     */
+    public long getHttpCalls() {
+        return httpCalls;
+    }
+
+    /**
+     * Get the average amount of users synced per second by the reference syncs.
+     * @return Average amount of users synced per second, or 0 if no reference syncs are available.
+     */
+    public double getUsersPerSecond() {
+        return usersPerSecond;
+    }
+
+    /**
+     * Get the amount of recent syncs the throughput was calculated from.
+     * @return Amount of reference syncs.
+     */
+    public int getReferenceSyncs() {
+        return referenceSyncs;
+    }
+
+    /**
+     * Get the estimated duration of the sync.
+     * @return Estimated duration in seconds, or null if no reference syncs are available.
+     */
+    public Long getEstimatedDuration() {
+        return estimatedDuration;
+    }
+
+}
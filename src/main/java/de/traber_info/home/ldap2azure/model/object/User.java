@@ -1,5 +1,6 @@
 package de.traber_info.home.ldap2azure.model.object;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.j256.ormlite.field.DatabaseField;
@@ -7,15 +8,18 @@ import com.j256.ormlite.table.DatabaseTable;
 import de.traber_info.home.ldap2azure.h2.persister.ChangeStatePersister;
 import de.traber_info.home.ldap2azure.h2.persister.LocalDateTimePersister;
 import de.traber_info.home.ldap2azure.h2.persister.SyncStatePersister;
+import de.traber_info.home.ldap2azure.h2.persister.UserAttributeSetPersister;
 import de.traber_info.home.ldap2azure.model.type.ChangeState;
 import de.traber_info.home.ldap2azure.model.type.SyncState;
+import de.traber_info.home.ldap2azure.model.type.UserAttribute;
+import de.traber_info.home.ldap2azure.util.HashUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
-import java.util.Base64;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.StringJoiner;
 
 /**
  * User object model that holds all information about a user that is being synced.
@@ -29,16 +33,19 @@ public class User {
     /** SLF4J logger for usage in this class */
     private static final Logger LOG = LoggerFactory.getLogger(User.class.getName());
 
+    /** Name of the composite index over the change and sync state */
+    private static final String STATE_INDEX_NAME = "users_state_idx";
+
     /** Internal id of the user in ldap2azure */
     @DatabaseField(id = true)
     private String id;
 
     /** Immutable id of the user in the source ldap */
-    @DatabaseField
+    @DatabaseField(index = true)
     private String onPremisesImmutableId;
 
     /** Immutable id of the user in Azure AD */
-    @DatabaseField
+    @DatabaseField(index = true)
     private String azureImmutableId;
 
     /** Given name of the user in Azure AD */
@@ -65,20 +72,32 @@ public class User {
     @DatabaseField
     private String hash;
 
+    /** Comma separated hashes of the single user attributes, in the order of {@link UserAttribute} */
+    @DatabaseField
+    private String attributeHashes;
+
+    /** Attributes that changed since the last sync to Azure AD, or null if all attributes should be synced */
+    @DatabaseField(persisterClass = UserAttributeSetPersister.class)
+    private Set<UserAttribute> changedAttributes;
+
+    /** Current change state of the user. Declared first, since it is the leading column of the state index */
+    @DatabaseField(persisterClass = ChangeStatePersister.class, indexName = STATE_INDEX_NAME)
+    private ChangeState changeState;
+
     /** Current sync state of the user */
-    @DatabaseField(persisterClass = SyncStatePersister.class)
+    @DatabaseField(persisterClass = SyncStatePersister.class, indexName = STATE_INDEX_NAME)
     private SyncState syncState;
 
-    /** Current change state of the user */
+    /** Change state of the user before it was marked as deleted, used to restore it if the deletion is reverted */
     @DatabaseField(persisterClass = ChangeStatePersister.class)
-    private ChangeState changeState;
+    private ChangeState deletedChangeState;
 
     /** {@link LocalDateTime} the user was last changed on */
-    @DatabaseField(persisterClass = LocalDateTimePersister.class)
+    @DatabaseField(persisterClass = LocalDateTimePersister.class, index = true)
     private LocalDateTime lastChanged;
 
     /** Id of the last sync that made changed on the user object */
-    @DatabaseField
+    @DatabaseField(index = true)
     private String lastSyncId;
 
     /**
@@ -108,15 +127,7 @@ public class User {
         this.mailNickname = mailNickname;
         this.userPrincipalName = userPrincipalName;
         this.lastChanged = LocalDateTime.now();
-
-        String hashBase = this.givenName + this.surname + this.displayName + this.mailNickname + this.userPrincipalName;
-        try {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            this.hash = Base64.getEncoder().encodeToString(digest.digest(hashBase.getBytes()));
-            LOG.trace("Converted {} to hash {}", hashBase, this.hash);
-        } catch (NoSuchAlgorithmException ex) {
-            LOG.error("An unexpected error occurred", ex);
-        }
+        updateHashes();
     }
 
     /**
@@ -150,27 +161,96 @@ public class User {
         dbUser.mailNickname = user.mailNickname;
         dbUser.userPrincipalName = user.userPrincipalName;
         dbUser.lastChanged = LocalDateTime.now();
+        dbUser.updateHashes();
+        return dbUser;
+    }
 
-        String hashBase = user.givenName + user.surname + user.displayName + user.mailNickname + user.userPrincipalName;
-
-        try {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            dbUser.hash = Base64.getEncoder().encodeToString(digest.digest(hashBase.getBytes()));
-            LOG.trace("Converted {} to hash {}", hashBase, dbUser.hash);
-        } catch (NoSuchAlgorithmException ex) {
-            LOG.error("An unexpected error occurred", ex);
+    /**
+     * Create a copy of this user, so changes made to the copy don't affect this instance.
+     * @return New instance of {@link User} containing the same attributes as this user.
+     */
+    public User copy() {
+        User copy = new User();
+        copy.id = id;
+        copy.onPremisesImmutableId = onPremisesImmutableId;
+        copy.azureImmutableId = azureImmutableId;
+        copy.givenName = givenName;
+        copy.surname = surname;
+        copy.displayName = displayName;
+        copy.mailNickname = mailNickname;
+        copy.userPrincipalName = userPrincipalName;
+        copy.hash = hash;
+        copy.attributeHashes = attributeHashes;
+        if (changedAttributes != null) {
+            copy.changedAttributes = EnumSet.noneOf(UserAttribute.class);
+            copy.changedAttributes.addAll(changedAttributes);
         }
+        copy.changeState = changeState;
+        copy.syncState = syncState;
+        copy.deletedChangeState = deletedChangeState;
+        copy.lastChanged = lastChanged;
+        copy.lastSyncId = lastSyncId;
+        return copy;
+    }
 
-        return dbUser;
+    /**
+     * Recalculate the hash of the users details and the hashes of the single attributes.
+     */
+    public void updateHashes() {
+        StringJoiner joiner = new StringJoiner(",");
+        for (UserAttribute attribute : UserAttribute.values()) {
+            joiner.add(HashUtil.toHex(HashUtil.hash(getAttributeValue(attribute))));
+        }
+        this.attributeHashes = joiner.toString();
+        this.hash = HashUtil.toHex(HashUtil.hash(givenName, surname, displayName, mailNickname, userPrincipalName));
+        LOG.trace("Calculated hash {} for user {}", this.hash, this.userPrincipalName);
     }
 
     /**
-     * Check if the hash of two user instances is the same.
+     * Get all attributes that differ between this user and the given user instance.
+     * If one of the users has no stored attribute hashes yet, the hashes are calculated from its current values.
      * @param user User instance to check against.
-     * @return true if the hash of the two user instances are equal, or false if not.
+     * @return Set containing all attributes that differ. The set is empty if both users are equal.
+     */
+    public Set<UserAttribute> diffAttributes(User user) {
+        return diffAttributes(user.getAttributeHashes());
+    }
+
+    /**
+     * Get all attributes that differ between this user and the given attribute hashes.
+     * @param otherAttributeHashes Comma separated attribute hashes as returned by {@link #getAttributeHashes()}.
+     *                             If null, all attributes are treated as changed.
+     * @return Set containing all attributes that differ. The set is empty if all attributes are equal.
+     */
+    public Set<UserAttribute> diffAttributes(String otherAttributeHashes) {
+        if (otherAttributeHashes == null) return EnumSet.allOf(UserAttribute.class);
+        String[] ownHashes = getAttributeHashes().split(",");
+        String[] otherHashes = otherAttributeHashes.split(",");
+        Set<UserAttribute> changed = EnumSet.noneOf(UserAttribute.class);
+        for (UserAttribute attribute : UserAttribute.values()) {
+            int index = attribute.ordinal();
+            if (index >= ownHashes.length || index >= otherHashes.length
+                    || !ownHashes[index].equals(otherHashes[index])) {
+                changed.add(attribute);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Get the value of the given attribute.
+     * @param attribute {@link UserAttribute} the value should be returned for.
+     * @return Value of the given attribute.
      */
-    public boolean isHashEqual(User user) {
-        return hash.equals(user.hash);
+    public String getAttributeValue(UserAttribute attribute) {
+        switch (attribute) {
+            case GIVEN_NAME: return givenName;
+            case SURNAME: return surname;
+            case DISPLAY_NAME: return displayName;
+            case MAIL_NICKNAME: return mailNickname;
+            case USER_PRINCIPAL_NAME: return userPrincipalName;
+            default: throw new IllegalArgumentException("Unknown user attribute " + attribute);
+        }
     }
 
     /**
@@ -246,14 +326,52 @@ public class User {
     }
 
     /**
-     * Get the MD5 hash of the users details.
-     * @return MD5 hash of the users deatils.
+     * Get the hash of the users details.
+     * @return Hash of the users details.
      */
     @JsonProperty("hash")
     public String getHash() {
         return hash;
     }
 
+    /**
+     * Get the comma separated hashes of the single user attributes. Users saved by older versions have no
+     * attribute hashes, so they are calculated from the current values on first access.
+     * @return Comma separated hashes of the single user attributes.
+     */
+    @JsonIgnore
+    public String getAttributeHashes() {
+        if (attributeHashes == null) updateHashes();
+        return attributeHashes;
+    }
+
+    /**
+     * Get the comma separated hashes of the single user attributes as stored in the database,
+     * without calculating missing ones.
+     * @return Comma separated hashes of the single user attributes, or null if none are stored.
+     */
+    @JsonIgnore
+    public String getStoredAttributeHashes() {
+        return attributeHashes;
+    }
+
+    /**
+     * Get the attributes that changed since the last sync to Azure AD.
+     * @return Attributes that changed since the last sync, or null if all attributes should be synced.
+     */
+    @JsonProperty("changedAttributes")
+    public Set<UserAttribute> getChangedAttributes() {
+        return changedAttributes;
+    }
+
+    /**
+     * Set the attributes that changed since the last sync to Azure AD.
+     * @param changedAttributes Attributes that changed since the last sync, or null if all attributes should be synced.
+     */
+    public void setChangedAttributes(Set<UserAttribute> changedAttributes) {
+        this.changedAttributes = changedAttributes;
+    }
+
     /**
      * Get the current sync state of the user.
      * @return Current sync state of the user.
@@ -272,6 +390,15 @@ public class User {
         return changeState;
     }
 
+    /**
+     * Get the change state of the user before it was marked as deleted.
+     * @return Change state before the deletion, or null if the user is not deleted or was deleted by an older version.
+     */
+    @JsonIgnore
+    public ChangeState getDeletedChangeState() {
+        return deletedChangeState;
+    }
+
     /**
      * Get the {@link LocalDateTime} the user was last changed at.
      * @return {@link LocalDateTime} the user was last changed at.
@@ -306,6 +433,14 @@ public class User {
         this.changeState = changeState;
     }
 
+    /**
+     * Set the change state of the user before it was marked as deleted.
+     * @param deletedChangeState Change state before the deletion, or null if the user is not deleted.
+     */
+    public void setDeletedChangeState(ChangeState deletedChangeState) {
+        this.deletedChangeState = deletedChangeState;
+    }
+
     /**
      * Reset the last changed time for the user.
      */
@@ -338,4 +473,27 @@ public class User {
         return user;
     }
 
+    /**
+     * Convert this instance of {@link User} to an instance of {@link com.microsoft.graph.models.User} that only
+     * contains the given attributes. Used to patch only the changed attributes in Azure AD.
+     * @param attributes Attributes that should be set on the Azure AD user,
+     *                   or null if all attributes should be set.
+     * @return New instance of an Azure AD {@link com.microsoft.graph.models.User} containing the given attributes.
+     */
+    public com.microsoft.graph.models.User toAzureUser(Set<UserAttribute> attributes) {
+        if (attributes == null || attributes.isEmpty()) return toAzureUser();
+        com.microsoft.graph.models.User user = new com.microsoft.graph.models.User();
+        user.id = this.azureImmutableId;
+        for (UserAttribute attribute : attributes) {
+            switch (attribute) {
+                case GIVEN_NAME: user.givenName = this.givenName; break;
+                case SURNAME: user.surname = this.surname; break;
+                case DISPLAY_NAME: user.displayName = this.displayName; break;
+                case MAIL_NICKNAME: user.mailNickname = this.mailNickname; break;
+                case USER_PRINCIPAL_NAME: user.userPrincipalName = this.userPrincipalName; break;
+            }
+        }
+        return user;
+    }
+
 }
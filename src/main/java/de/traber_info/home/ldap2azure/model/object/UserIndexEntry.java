@@ -0,0 +1,123 @@
+package de.traber_info.home.ldap2azure.model.object;
+
+import de.traber_info.home.ldap2azure.model.type.ChangeState;
+import de.traber_info.home.ldap2azure.model.type.SyncState;
+import de.traber_info.home.ldap2azure.model.type.UserAttribute;
+
+import java.util.Set;
+
+/**
+ * Compact representation of a stored {@link User} that only holds the details required to classify
+ * the users read by an ldap import as new, changed, unchanged or deleted.
+ *
+ * @author Oliver Traber
+ */
+public class UserIndexEntry {
+
+    /** Internal id of the user in ldap2azure */
+    private final String id;
+
+    /** Immutable id of the user in Azure AD */
+    private final String azureImmutableId;
+
+    /** Id of the last sync that made changed on the user object */
+    private final String lastSyncId;
+
+    /** Comma separated hashes of the single user attributes */
+    private final String attributeHashes;
+
+    /** Current sync state of the user */
+    private final SyncState syncState;
+
+    /** Current change state of the user */
+    private final ChangeState changeState;
+
+    /** Attributes that changed since the last sync to Azure AD */
+    private final Set<UserAttribute> changedAttributes;
+
+    /** Change state of the user before it was marked as deleted */
+    private final ChangeState deletedChangeState;
+
+    /**
+     * Create a new index entry from the given user.
+     * @param user {@link User} loaded with at least the columns held by the index entry.
+     */
+    public UserIndexEntry(User user) {
+        this.id = user.getId();
+        this.azureImmutableId = user.getAzureImmutableId();
+        this.lastSyncId = user.getLastSyncId();
+        this.attributeHashes = user.getStoredAttributeHashes();
+        this.syncState = user.getSyncState();
+        this.changeState = user.getChangeState();
+        this.changedAttributes = user.getChangedAttributes();
+        this.deletedChangeState = user.getDeletedChangeState();
+    }
+
+    /**
+     * Get the internal ldap2azure id of the user.
+     * @return Internal ldap2azure id of the user.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the immutable id of the user in Azure AD.
+     * @return Immutable id of the user in Azure AD.
+     */
+    public String getAzureImmutableId() {
+        return azureImmutableId;
+    }
+
+    /**
+     * Get the id of the last sync that made changed to the user.
+     * @return Id of the last sync that made changed to the user.
+     */
+    public String getLastSyncId() {
+        return lastSyncId;
+    }
+
+    /**
+     * Get the comma separated hashes of the single user attributes.
+     * @return Comma separated hashes of the single user attributes, or null if none are stored.
+     */
+    public String getAttributeHashes() {
+        return attributeHashes;
+    }
+
+    /**
+     * Get the current sync state of the user.
+     * @return Current sync state of the user.
+     */
+    public SyncState getSyncState() {
+        return syncState;
+    }
+
+    /**
+     * Get the current change state of the user.
+     * @return Current change state of the user.
+     */
+    public ChangeState getChangeState() {
+        return changeState;
+    }
+
+    /**
+     * Get the attributes that changed since the last sync to Azure AD.
+     * @return Attributes that changed since the last sync, or null if all attributes should be synced.
+     */
+    public Set<UserAttribute> getChangedAttributes() {
+        return changedAttributes;
+    }
+
+    /**
+     * Get the change state the user returns to if its pending deletion is reverted. Users marked as deleted by
+     * older versions have no stored change state, so they are created again if they were never created
+     * in Azure AD and updated with all attributes otherwise.
+     * @return Change state the user returns to.
+     */
+    public ChangeState getRestoredChangeState() {
+        if (deletedChangeState != null) return deletedChangeState;
+        return azureImmutableId == null ? ChangeState.NEW : ChangeState.CHANGED;
+    }
+
+}
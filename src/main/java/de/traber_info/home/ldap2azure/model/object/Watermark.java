@@ -0,0 +1,72 @@
+package de.traber_info.home.ldap2azure.model.object;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import de.traber_info.home.ldap2azure.h2.persister.LocalDateTimePersister;
+
+import java.time.LocalDateTime;
+
+/**
+ * Watermark object model that holds the last processed position of an incremental import source.
+ *
+ * @author Oliver Traber
+ */
+@DatabaseTable(tableName = "watermarks")
+public class Watermark {
+
+    /** Key identifying the source the watermark belongs to */
+    @DatabaseField(id = true)
+    private String id;
+
+    /** Maximum length of a watermark value. Large enough to hold Microsoft Graph delta links */
+    public static final int MAX_VALUE_LENGTH = 4096;
+
+    /** Last processed position of the source */
+    @DatabaseField(width = MAX_VALUE_LENGTH)
+    private String value;
+
+    /** Time the watermark was last updated */
+    @DatabaseField(persisterClass = LocalDateTimePersister.class)
+    private LocalDateTime lastChanged;
+
+    /**
+     * Default constructor for deserialization.
+     */
+    private Watermark() {}
+
+    /**
+     * Public constructor used to create a new watermark object.
+     * @param id Key identifying the source the watermark belongs to.
+     * @param value Last processed position of the source.
+     */
+    public Watermark(String id, String value) {
+        this.id = id;
+        this.value = value;
+        this.lastChanged = LocalDateTime.now();
+    }
+
+    /**
+     * Get the key identifying the source the watermark belongs to.
+     * @return Key identifying the source the watermark belongs to.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the last processed position of the source.
+     * @return Last processed position of the source.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Get the time the watermark was last updated.
+     * @return Time the watermark was last updated.
+     */
+    public LocalDateTime getLastChanged() {
+        return lastChanged;
+    }
+
+}
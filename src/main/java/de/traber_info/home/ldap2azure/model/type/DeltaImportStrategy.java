@@ -0,0 +1,53 @@
+package de.traber_info.home.ldap2azure.model.type;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Enum containing the possible attributes ldap2azure uses as high-water mark for incremental ldap imports.
+ * MODIFY_TIMESTAMP uses the generic modifyTimestamp attribute, USN_CHANGED uses the Active Directory specific
+ * uSNChanged attribute together with the highestCommittedUSN of the domain controller.
+ *
+ * @author Oliver Traber
+ */
+public enum DeltaImportStrategy {
+
+    MODIFY_TIMESTAMP, USN_CHANGED;
+
+    /**
+     * Map used to convert enum values to and from strings for JSON serialisation and deserialization.
+     */
+    private static Map<String, DeltaImportStrategy> typeMap = new HashMap<>();
+
+    static {
+        typeMap.put("modifytimestamp", MODIFY_TIMESTAMP);
+        typeMap.put("usnchanged", USN_CHANGED);
+    }
+
+    /**
+     * Get the enum value that represents the given string. The value is determined by the type map.
+     * @param value String value you want to get the enum value for.
+     * @return Enum value that represents the given string, or null if the string could not be matched to any value.
+     */
+    @JsonCreator
+    public static DeltaImportStrategy forValue(String value) {
+        return typeMap.get(value.toLowerCase());
+    }
+
+    /**
+     * Get the lower case string representation of the enum value.
+     * @return Lower case string representation of the enum value
+     */
+    @JsonValue
+    public String toValue() {
+        for (Map.Entry<String, DeltaImportStrategy> entry : typeMap.entrySet()) {
+            if (entry.getValue() == this)
+                return entry.getKey();
+        }
+        return null;
+    }
+
+}
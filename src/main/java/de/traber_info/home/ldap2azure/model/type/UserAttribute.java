@@ -0,0 +1,55 @@
+package de.traber_info.home.ldap2azure.model.type;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Enum containing all user attributes that are synchronized to Azure AD and checked for changes individually.
+ *
+ * @author Oliver Traber
+ */
+public enum UserAttribute {
+
+    GIVEN_NAME, SURNAME, DISPLAY_NAME, MAIL_NICKNAME, USER_PRINCIPAL_NAME;
+
+    /**
+     * Map used to convert enum values to and from strings for JSON serialisation and deserialization.
+     * The keys match the property names used by Azure AD.
+     */
+    private static Map<String, UserAttribute> typeMap = new HashMap<>();
+
+    static {
+        typeMap.put("givenname", GIVEN_NAME);
+        typeMap.put("surname", SURNAME);
+        typeMap.put("displayname", DISPLAY_NAME);
+        typeMap.put("mailnickname", MAIL_NICKNAME);
+        typeMap.put("userprincipalname", USER_PRINCIPAL_NAME);
+    }
+
+    /**
+     * Get the enum value that represents the given string. The value is determined by the type map.
+     * @param value String value you want to get the enum value for.
+     * @return Enum value that represents the given string, or null if the string could not be matched to any value.
+     */
+    @JsonCreator
+    public static UserAttribute forValue(String value) {
+        return typeMap.get(value.toLowerCase());
+    }
+
+    /**
+     * Get the lower case string representation of the enum value.
+     * @return Lower case string representation of the enum value
+     */
+    @JsonValue
+    public String toValue() {
+        for (Map.Entry<String, UserAttribute> entry : typeMap.entrySet()) {
+            if (entry.getValue() == this)
+                return entry.getKey();
+        }
+        return null;
+    }
+
+}
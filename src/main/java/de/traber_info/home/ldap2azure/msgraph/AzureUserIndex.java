@@ -0,0 +1,189 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import com.microsoft.graph.requests.GraphServiceClient;
+import com.microsoft.graph.requests.UserCollectionPage;
+import com.microsoft.graph.requests.UserCollectionRequestBuilder;
+import de.traber_info.home.ldap2azure.model.object.User;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory index of all existing and soft-deleted users of an Azure AD tenant.
+ * Only the ids, user principal names, onPremisesImmutableIds and creation dates are loaded, so the index can be
+ * used to detect conflicts before new users are created, without sending a request per user.
+ *
+ * @author Oliver Traber
+ */
+public class AzureUserIndex {
+
+    /** Attributes of the Azure AD users that are loaded into the index */
+    private static final String SELECT_EXPRESSION = "id,userPrincipalName,onPremisesImmutableId,createdDateTime";
+
+    /** Tolerated difference between the local clock and the clock of Azure AD when matching creation dates */
+    private static final Duration CLOCK_SKEW = Duration.ofMinutes(1);
+
+    /** Maximum page size supported by Microsoft Graph for users */
+    private static final int PAGE_SIZE = 999;
+
+    /** Existing users by their onPremisesImmutableId */
+    private final Map<String, Entry> usersByImmutableId = new HashMap<>();
+
+    /** Existing users by their lower case user principal name */
+    private final Map<String, Entry> usersByPrincipalName = new HashMap<>();
+
+    /** Soft-deleted users by their onPremisesImmutableId */
+    private final Map<String, Entry> deletedUsersByImmutableId = new HashMap<>();
+
+    /**
+     * Load the index of the tenant. Existing users and the users in the recycle bin are read page by page.
+     * @param graphServiceClient Instance of the GraphServiceClient used to read the users.
+     * @return Loaded {@link AzureUserIndex}.
+     */
+    public static AzureUserIndex load(GraphServiceClient<?> graphServiceClient) {
+        AzureUserIndex index = new AzureUserIndex();
+        UserCollectionPage page = graphServiceClient.users().buildRequest()
+                .select(SELECT_EXPRESSION).top(PAGE_SIZE).get();
+        while (page != null) {
+            for (com.microsoft.graph.models.User azureUser : page.getCurrentPage()) {
+                Entry entry = new Entry(azureUser, false);
+                if (azureUser.onPremisesImmutableId != null) {
+                    index.usersByImmutableId.put(azureUser.onPremisesImmutableId, entry);
+                }
+                if (azureUser.userPrincipalName != null) {
+                    index.usersByPrincipalName.put(azureUser.userPrincipalName.toLowerCase(Locale.ROOT), entry);
+                }
+            }
+            page = getNextPage(page);
+        }
+
+        // The user principal names of soft-deleted users are prefixed with their id, so only the
+        // onPremisesImmutableId can cause a conflict
+        page = graphServiceClient.directory().deletedItemsAsUser().buildRequest()
+                .select(SELECT_EXPRESSION).top(PAGE_SIZE).get();
+        while (page != null) {
+            for (com.microsoft.graph.models.User azureUser : page.getCurrentPage()) {
+                if (azureUser.onPremisesImmutableId != null) {
+                    index.deletedUsersByImmutableId.put(azureUser.onPremisesImmutableId, new Entry(azureUser, true));
+                }
+            }
+            page = getNextPage(page);
+        }
+        return index;
+    }
+
+    /**
+     * Find an Azure AD user that conflicts with the given user. Existing users are preferred over deleted ones.
+     * @param user {@link User} that should be created.
+     * @return Conflicting {@link Entry}, or null if the user can be created without conflicts.
+     */
+    public Entry findConflict(User user) {
+        Entry entry = null;
+        if (user.getOnPremisesImmutableId() != null) {
+            entry = usersByImmutableId.get(user.getOnPremisesImmutableId());
+        }
+        if (entry == null && user.getUserPrincipalName() != null) {
+            entry = usersByPrincipalName.get(user.getUserPrincipalName().toLowerCase(Locale.ROOT));
+        }
+        if (entry == null && user.getOnPremisesImmutableId() != null) {
+            entry = deletedUsersByImmutableId.get(user.getOnPremisesImmutableId());
+        }
+        return entry;
+    }
+
+    /**
+     * Find an existing Azure AD user that was created by ldap2azure for the given user, but whose result was never
+     * written to the database. The user must carry the onPremisesImmutableId and the user principal name of the
+     * given user and must have been created after the given time, so users that existed before are still treated
+     * as conflicts.
+     * @param user {@link User} that should be created.
+     * @param since Time the sync that may have created the user began.
+     * @return Existing {@link Entry} created for the user, or null if there is none.
+     */
+    public Entry findCreated(User user, LocalDateTime since) {
+        if (user.getOnPremisesImmutableId() == null || user.getUserPrincipalName() == null) return null;
+        Entry entry = usersByImmutableId.get(user.getOnPremisesImmutableId());
+        if (entry == null || entry.createdDateTime == null
+                || !user.getUserPrincipalName().equalsIgnoreCase(entry.getUserPrincipalName())) {
+            return null;
+        }
+        OffsetDateTime earliest = since.atZone(ZoneId.systemDefault()).toOffsetDateTime().minus(CLOCK_SKEW);
+        return entry.createdDateTime.isBefore(earliest) ? null : entry;
+    }
+
+    /**
+     * Get the amount of users contained in the index.
+     * @return Amount of existing and soft-deleted users.
+     */
+    public int size() {
+        return usersByPrincipalName.size() + deletedUsersByImmutableId.size();
+    }
+
+    /**
+     * Request the next page of a user collection.
+     * @param page Current page.
+     * @return Next page, or null if the current page is the last one.
+     */
+    private static UserCollectionPage getNextPage(UserCollectionPage page) {
+        UserCollectionRequestBuilder nextPage = page.getNextPage();
+        return nextPage != null ? nextPage.buildRequest().get() : null;
+    }
+
+    /**
+     * Azure AD user contained in the index.
+     */
+    public static class Entry {
+
+        /** Id of the Azure AD user */
+        private final String id;
+        /** User principal name of the Azure AD user */
+        private final String userPrincipalName;
+        /** Boolean representing if the user is in the recycle bin */
+        private final boolean deleted;
+        /** Date and time the Azure AD user was created, or null if unknown */
+        private final OffsetDateTime createdDateTime;
+
+        /**
+         * Create a new index entry.
+         * @param azureUser Azure AD user the entry should be created from.
+         * @param deleted true if the user is in the recycle bin.
+         */
+        private Entry(com.microsoft.graph.models.User azureUser, boolean deleted) {
+            this.id = azureUser.id;
+            this.userPrincipalName = azureUser.userPrincipalName;
+            this.deleted = deleted;
+            this.createdDateTime = azureUser.createdDateTime;
+        }
+
+        /**
+         * Get the id of the Azure AD user.
+         * @return Id of the Azure AD user.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Get the user principal name of the Azure AD user.
+         * @return User principal name of the Azure AD user.
+         */
+        public String getUserPrincipalName() {
+            return userPrincipalName;
+        }
+
+        /**
+         * Check if the user is in the recycle bin.
+         * @return true if the user was soft-deleted, otherwise false.
+         */
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+    }
+
+}
@@ -0,0 +1,278 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import com.google.gson.JsonElement;
+import com.microsoft.graph.content.BatchRequestContent;
+import com.microsoft.graph.content.BatchResponseContent;
+import com.microsoft.graph.content.BatchResponseStep;
+import com.microsoft.graph.core.ClientException;
+import com.microsoft.graph.requests.GraphServiceClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Executor used to combine multiple Microsoft Graph requests into JSON batches.
+ * Operations are collected until a batch is full and then sent as a single $batch request.
+ * The steps of a single operation are chained using dependsOn, so they are executed in order by Microsoft Graph.
+ * Full batches are sent using the given {@link Executor}, so multiple batches may be in flight at the same time.
+ * In that case the callbacks are called from the threads of the executor.
+ * Batches are sent in the {@link GraphRequestLane} of the thread that added the operations.
+ *
+ * @author Oliver Traber
+ */
+public class GraphBatchExecutor {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(GraphBatchExecutor.class.getName());
+
+    /** Maximum amount of requests Microsoft Graph accepts in a single batch */
+    public static final int MAX_BATCH_SIZE = 20;
+
+    /** Instance of the GraphServiceClient used to send the batches */
+    private final GraphServiceClient<?> graphServiceClient;
+
+    /** Rate governor used to delay the retry of throttled steps, or null if throttled steps are not retried */
+    private final GraphRateGovernor rateGovernor;
+
+    /** Rate limiter the tokens for the steps are taken from, or null if the steps are not limited */
+    private final GraphRequestLimiter requestLimiter;
+
+    /** Executor used to send the batches */
+    private final Executor executor;
+
+    /** Operations waiting to be sent with the next batch */
+    private final List<Operation> pendingOperations = new ArrayList<>();
+
+    /** Amount of steps contained in the pending operations */
+    private int pendingSteps = 0;
+
+    /**
+     * Create a new batch executor that sends the batches in the calling thread.
+     * @param graphServiceClient Instance of the GraphServiceClient used to send the batches.
+     */
+    public GraphBatchExecutor(GraphServiceClient<?> graphServiceClient) {
+        this(graphServiceClient, Runnable::run);
+    }
+
+    /**
+     * Create a new batch executor.
+     * @param graphServiceClient Instance of the GraphServiceClient used to send the batches.
+     * @param executor Executor used to send the batches.
+     */
+    public GraphBatchExecutor(GraphServiceClient<?> graphServiceClient, Executor executor) {
+        this.graphServiceClient = graphServiceClient;
+        this.executor = executor;
+        this.rateGovernor = GraphClientUtil.getRateGovernor();
+        this.requestLimiter = GraphClientUtil.getRequestLimiter();
+    }
+
+    /**
+     * Add an operation to the next batch. If the operation does not fit into the current batch,
+     * the current batch is sent first.
+     * @param callback Callback that is called with the responses of the steps once the batch was sent.
+     * @param steps Steps of the operation. Every step depends on the previous one.
+     */
+    public void add(Consumer<GraphBatchResult> callback, GraphBatchStep... steps) {
+        if (steps.length == 0 || steps.length > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("An operation must contain between 1 and "
+                    + MAX_BATCH_SIZE + " steps");
+        }
+        if (pendingSteps + steps.length > MAX_BATCH_SIZE) flush();
+        pendingOperations.add(new Operation(Arrays.asList(steps), callback));
+        pendingSteps += steps.length;
+        if (pendingSteps == MAX_BATCH_SIZE) flush();
+    }
+
+    /**
+     * Send all pending operations using the executor. Their callbacks are called once the batch was sent.
+     */
+    public void flush() {
+        if (pendingOperations.isEmpty()) return;
+        List<Operation> operations = new ArrayList<>(pendingOperations);
+        GraphRequestLane lane = GraphRequestLane.current();
+        pendingOperations.clear();
+        pendingSteps = 0;
+        executor.execute(() -> send(operations, lane));
+    }
+
+    /**
+     * Send the given operations as a single batch and call their callbacks.
+     * If a step of an operation was throttled by Microsoft Graph, the step and all following steps have not been
+     * executed, so they are sent again once the backoff of the {@link GraphRateGovernor} is over. Steps that were
+     * already executed are not sent again. Steps that are not idempotent are only retried if they were rejected
+     * with 429, as decided by {@link GraphRateGovernor#isRetryable(String, int)}.
+     * @param operations Operations that should be sent.
+     * @param lane Lane of the thread that added the operations.
+     */
+    private void send(List<Operation> operations, GraphRequestLane lane) {
+        List<Operation> remaining = operations;
+        for (int attempt = 0; !remaining.isEmpty(); attempt++) {
+            boolean retryAllowed = rateGovernor != null && attempt < rateGovernor.getMaxRetries();
+            List<Operation> throttled = new ArrayList<>();
+            Set<String> throttledClasses = new HashSet<>();
+
+            BatchRequestContent batchContent = new BatchRequestContent();
+            for (Operation operation : remaining) {
+                operation.stepIds.clear();
+                String previousStepId = null;
+                for (GraphBatchStep step : operation.getPendingSteps()) {
+                    String stepId = previousStepId == null
+                            ? batchContent.addBatchRequestStep(step.getRequest(), step.getMethod(), step.getBody())
+                            : batchContent.addBatchRequestStep(step.getRequest(), step.getMethod(), step.getBody(),
+                                previousStepId);
+                    operation.stepIds.add(stepId);
+                    previousStepId = stepId;
+                }
+            }
+
+            try {
+                acquireTokens(remaining, lane);
+            } catch (InterruptedIOException ex) {
+                LOG.warn("Interrupted while waiting for the Microsoft Graph rate limit");
+                fail(remaining, ex);
+                return;
+            }
+
+            BatchResponseContent batchResponse = null;
+            Exception batchError = null;
+            try {
+                LOG.trace("Sending batch containing {} operations to Microsoft Graph", remaining.size());
+                batchResponse = graphServiceClient.batch().buildRequest().post(batchContent);
+            } catch (ClientException ex) {
+                LOG.error("Batch request to Microsoft Graph failed", ex);
+                batchError = ex;
+            }
+
+            for (Operation operation : remaining) {
+                List<BatchResponseStep<JsonElement>> responses = new ArrayList<>(operation.stepIds.size());
+                for (String stepId : operation.stepIds) {
+                    responses.add(batchResponse != null ? batchResponse.getResponseById(stepId) : null);
+                }
+                GraphBatchResult result = new GraphBatchResult(responses, batchError);
+                int throttledStep = retryAllowed ? getRetryableStep(operation, result) : -1;
+                if (throttledStep >= 0) {
+                    GraphBatchStep step = operation.getPendingSteps().get(throttledStep);
+                    String requestClass = GraphRateGovernor.getRequestClass(step.getMethod().name(),
+                            step.getRequest().getRequestUrl().getPath());
+                    rateGovernor.onThrottled(requestClass, result.getHeader(throttledStep, "Retry-After"));
+                    operation.complete(responses.subList(0, throttledStep));
+                    throttledClasses.add(requestClass);
+                    throttled.add(operation);
+                    continue;
+                }
+                operation.complete(responses);
+                operation.callback.accept(new GraphBatchResult(operation.responses, batchError));
+            }
+
+            try {
+                for (String requestClass : throttledClasses) rateGovernor.awaitRetry(requestClass);
+            } catch (InterruptedIOException ex) {
+                LOG.warn("Interrupted while waiting to retry throttled batch steps");
+                fail(throttled, ex);
+                return;
+            }
+            remaining = throttled;
+        }
+    }
+
+    /**
+     * Get the first step of an operation that was throttled and may be sent again.
+     * @param operation Operation that was sent.
+     * @param result Result of the pending steps of the operation.
+     * @return Index of the step within the pending steps, or -1 if no step has to be sent again.
+     */
+    private static int getRetryableStep(Operation operation, GraphBatchResult result) {
+        List<GraphBatchStep> pendingSteps = operation.getPendingSteps();
+        for (int i = 0; i < pendingSteps.size(); i++) {
+            int status = result.getStatus(i);
+            if (!GraphRateGovernor.isThrottled(status)) continue;
+            return GraphRateGovernor.isRetryable(pendingSteps.get(i).getMethod().name(), status) ? i : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Take the tokens for all steps of the given operations from the {@link GraphRequestLimiter}.
+     * @param operations Operations that are about to be sent.
+     * @param lane Lane the operations are sent in.
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting.
+     */
+    private void acquireTokens(List<Operation> operations, GraphRequestLane lane) throws InterruptedIOException {
+        if (requestLimiter == null) return;
+        Map<GraphWorkload, Integer> permits = new EnumMap<>(GraphWorkload.class);
+        for (Operation operation : operations) {
+            for (GraphBatchStep step : operation.getPendingSteps()) {
+                permits.merge(GraphWorkload.forPath(step.getRequest().getRequestUrl().getPath()), 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<GraphWorkload, Integer> entry : permits.entrySet()) {
+            requestLimiter.acquire(entry.getKey(), lane, entry.getValue());
+        }
+    }
+
+    /**
+     * Call the callbacks of the given operations without responses.
+     * @param operations Operations that could not be sent.
+     * @param error Error that prevented the operations from being sent.
+     */
+    private static void fail(List<Operation> operations, Exception error) {
+        for (Operation operation : operations) {
+            operation.complete(Collections.nCopies(operation.getPendingSteps().size(), null));
+            operation.callback.accept(new GraphBatchResult(operation.responses, error));
+        }
+    }
+
+    /**
+     * Operation consisting of one or more chained steps.
+     */
+    private static class Operation {
+
+        /** Steps of the operation */
+        private final List<GraphBatchStep> steps;
+        /** Callback that is called with the responses of the steps */
+        private final Consumer<GraphBatchResult> callback;
+        /** Ids of the pending steps within the batch */
+        private final List<String> stepIds = new ArrayList<>();
+        /** Responses of the steps that were already executed */
+        private final List<BatchResponseStep<JsonElement>> responses = new ArrayList<>();
+
+        /**
+         * Create a new operation.
+         * @param steps Steps of the operation.
+         * @param callback Callback that is called with the responses of the steps.
+         */
+        private Operation(List<GraphBatchStep> steps, Consumer<GraphBatchResult> callback) {
+            this.steps = steps;
+            this.callback = callback;
+        }
+
+        /**
+         * Get the steps that were not executed yet.
+         * @return Steps that were not executed yet.
+         */
+        private List<GraphBatchStep> getPendingSteps() {
+            return steps.subList(responses.size(), steps.size());
+        }
+
+        /**
+         * Record the responses of executed steps, so they are not sent again.
+         * @param executedResponses Responses of the executed steps, in the order of the pending steps.
+         */
+        private void complete(List<BatchResponseStep<JsonElement>> executedResponses) {
+            responses.addAll(executedResponses);
+        }
+
+    }
+
+}
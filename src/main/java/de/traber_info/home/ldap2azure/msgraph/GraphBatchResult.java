@@ -0,0 +1,110 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.microsoft.graph.content.BatchResponseStep;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Responses to the steps of a single operation that was sent to Microsoft Graph as part of a JSON batch.
+ * The responses are accessed by the index of the step within the operation.
+ *
+ * @author Oliver Traber
+ */
+public class GraphBatchResult {
+
+    /** Responses of the steps, or null entries if no response was returned for a step */
+    private final List<BatchResponseStep<JsonElement>> responses;
+
+    /** Error that caused the whole batch to fail, or null if the batch was sent successfully */
+    private final Exception batchError;
+
+    /**
+     * Create a new result.
+     * @param responses Responses of the steps, or null entries if no response was returned for a step.
+     * @param batchError Error that caused the whole batch to fail, or null if the batch was sent successfully.
+     */
+    GraphBatchResult(List<BatchResponseStep<JsonElement>> responses, Exception batchError) {
+        this.responses = responses;
+        this.batchError = batchError;
+    }
+
+    /**
+     * Get the HTTP status code returned for the given step.
+     * @param step Index of the step within the operation.
+     * @return HTTP status code of the step, or -1 if no response was returned.
+     */
+    public int getStatus(int step) {
+        BatchResponseStep<JsonElement> response = responses.get(step);
+        return response != null ? response.status : -1;
+    }
+
+    /**
+     * Check if a response was returned for the given step.
+     * @param step Index of the step within the operation.
+     * @return true if Microsoft Graph returned a response for the step, or false if the whole batch failed.
+     */
+    public boolean hasResponse(int step) {
+        return responses.get(step) != null;
+    }
+
+    /**
+     * Check if the given step was successful.
+     * @param step Index of the step within the operation.
+     * @return true if the step returned a 2xx status code, otherwise false.
+     */
+    public boolean isSuccessful(int step) {
+        int status = getStatus(step);
+        return status >= 200 && status < 300;
+    }
+
+    /**
+     * Deserialize the body returned for the given step.
+     * @param step Index of the step within the operation.
+     * @param type Class the body should be deserialized to.
+     * @param <T> Type the body should be deserialized to.
+     * @return Deserialized body of the step, or null if the step returned no body.
+     */
+    public <T> T getBody(int step, Class<T> type) {
+        BatchResponseStep<JsonElement> response = responses.get(step);
+        if (response == null || response.body == null) return null;
+        return response.getDeserializedBody(type);
+    }
+
+    /**
+     * Get the value of a response header returned for the given step.
+     * @param step Index of the step within the operation.
+     * @param name Name of the header. The case of the name is ignored.
+     * @return Value of the header, or null if the header was not returned.
+     */
+    public String getHeader(int step, String name) {
+        BatchResponseStep<JsonElement> response = responses.get(step);
+        if (response == null || response.headers == null) return null;
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) return header.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Get a human readable description of the error returned for the given step.
+     * @param step Index of the step within the operation.
+     * @return Error message returned by Microsoft Graph, or a description of the failure if none was returned.
+     */
+    public String getErrorMessage(int step) {
+        if (batchError != null) return batchError.getMessage();
+        BatchResponseStep<JsonElement> response = responses.get(step);
+        if (response == null) return "No response was returned";
+        if (response.body != null && response.body.isJsonObject()) {
+            JsonObject body = response.body.getAsJsonObject();
+            if (body.has("error") && body.get("error").isJsonObject()) {
+                JsonObject error = body.getAsJsonObject("error");
+                if (error.has("message")) return error.get("message").getAsString();
+            }
+        }
+        return "Request failed with status " + response.status;
+    }
+
+}
@@ -0,0 +1,58 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import com.microsoft.graph.http.HttpMethod;
+import com.microsoft.graph.http.IHttpRequest;
+
+/**
+ * Single request that is sent to Microsoft Graph as part of a JSON batch.
+ *
+ * @author Oliver Traber
+ */
+public class GraphBatchStep {
+
+    /** Request containing the url of the step */
+    private final IHttpRequest request;
+
+    /** HTTP method used for the request */
+    private final HttpMethod method;
+
+    /** Body of the request, or null if the request has no body */
+    private final Object body;
+
+    /**
+     * Create a new batch step.
+     * @param request Request containing the url of the step.
+     * @param method HTTP method used for the request.
+     * @param body Body of the request, or null if the request has no body.
+     */
+    public GraphBatchStep(IHttpRequest request, HttpMethod method, Object body) {
+        this.request = request;
+        this.method = method;
+        this.body = body;
+    }
+
+    /**
+     * Get the request containing the url of the step.
+     * @return Request containing the url of the step.
+     */
+    public IHttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Get the HTTP method used for the request.
+     * @return HTTP method used for the request.
+     */
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * Get the body of the request.
+     * @return Body of the request, or null if the request has no body.
+     */
+    public Object getBody() {
+        return body;
+    }
+
+}
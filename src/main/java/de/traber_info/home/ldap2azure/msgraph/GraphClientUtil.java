@@ -2,10 +2,20 @@ package de.traber_info.home.ldap2azure.msgraph;
 
 import com.azure.identity.ClientSecretCredential;
 import com.azure.identity.ClientSecretCredentialBuilder;
-import com.microsoft.graph.authentication.TokenCredentialAuthProvider;
+import com.microsoft.graph.httpcore.AuthenticationHandler;
+import com.microsoft.graph.httpcore.HttpClients;
+import com.microsoft.graph.httpcore.RedirectHandler;
 import com.microsoft.graph.requests.GraphServiceClient;
+import de.traber_info.home.ldap2azure.model.config.GraphClientConfig;
+import de.traber_info.home.ldap2azure.util.ConfigUtil;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility used to handle authentication against Azure AD and make it easier to use the Microsoft Graph API.
@@ -24,6 +34,18 @@ public class GraphClientUtil {
     /** Instance of the Microsoft Graph service client used for Graph API actions. */
     private static GraphServiceClient mGraphServiceClient;
 
+    /** Token manager providing the access tokens for requests to Microsoft Graph. */
+    private static GraphTokenManager mTokenManager;
+
+    /** Rate governor all requests to Microsoft Graph are sent through. */
+    private static GraphRateGovernor mRateGovernor;
+
+    /** Rate limiter shared by all requests to Microsoft Graph. */
+    private static GraphRequestLimiter mRequestLimiter;
+
+    /** Monitor collecting statistics about the connections to Microsoft Graph. */
+    private static GraphHttpMonitor mHttpMonitor;
+
     /**
      * Initialize the GraphClientUtil.
      * @param tenantId Id of the Azure AD Tenant used to contact the tenant specific OAuth2-Authority.
@@ -38,13 +60,67 @@ public class GraphClientUtil {
                 .tenantId(tenantId)
                 .build();
 
-        TokenCredentialAuthProvider tokenCredentialAuthProvider = new TokenCredentialAuthProvider(
+        GraphClientConfig graphClientConfig = ConfigUtil.getConfig().getGraphClientConfig();
+        if (mTokenManager != null) mTokenManager.stop();
+        mTokenManager = new GraphTokenManager(
                 Collections.singletonList(GRAPH_DEFAULT_SCOPE),
-                clientSecretCredential
+                clientSecretCredential,
+                graphClientConfig.getTokenRefreshMargin()
+        );
+        mTokenManager.start();
+
+        mRateGovernor = new GraphRateGovernor(
+                graphClientConfig.getThrottlingMaxConcurrency(),
+                graphClientConfig.getThrottlingMaxRetries(),
+                graphClientConfig.getThrottlingMaxBackoff()
+        );
+
+        mRequestLimiter = new GraphRequestLimiter(
+                graphClientConfig.getRateLimitUsers(),
+                graphClientConfig.getRateLimitDirectory(),
+                graphClientConfig.getRateLimitLicensing(),
+                graphClientConfig.getInteractiveRateShare()
         );
 
+        ConnectionPool connectionPool = new ConnectionPool(
+                graphClientConfig.getHttpMaxIdleConnections(),
+                graphClientConfig.getHttpKeepAlive(),
+                TimeUnit.SECONDS
+        );
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(graphClientConfig.getHttpMaxRequests());
+        dispatcher.setMaxRequestsPerHost(graphClientConfig.getHttpMaxRequestsPerHost());
+        mHttpMonitor = new GraphHttpMonitor(connectionPool, dispatcher);
+
+        OkHttpClient.Builder httpClientBuilder = HttpClients.custom()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .eventListener(mHttpMonitor)
+                .connectTimeout(graphClientConfig.getHttpConnectTimeout(), TimeUnit.SECONDS)
+                .readTimeout(graphClientConfig.getHttpReadTimeout(), TimeUnit.SECONDS)
+                .writeTimeout(graphClientConfig.getHttpReadTimeout(), TimeUnit.SECONDS)
+                .protocols(graphClientConfig.isHttp2Enabled()
+                        ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1));
+
+        // OkHttp requests and decompresses gzip responses by itself, unless the Accept-Encoding header is already set
+        if (!graphClientConfig.isHttpCompressionEnabled()) {
+            httpClientBuilder.addInterceptor(chain -> chain.proceed(chain.request().newBuilder()
+                    .header("Accept-Encoding", "identity")
+                    .build()));
+        }
+
+        // The rate governor replaces the default RetryHandler, so throttled requests are not retried twice
+        OkHttpClient httpClient = httpClientBuilder
+                .addInterceptor(new AuthenticationHandler(mTokenManager))
+                .addInterceptor(mRequestLimiter)
+                .addInterceptor(mRateGovernor)
+                .addInterceptor(new RedirectHandler())
+                .build();
+
         mGraphServiceClient = GraphServiceClient.builder()
-                .authenticationProvider(tokenCredentialAuthProvider)
+                .authenticationProvider(mTokenManager)
+                .httpClient(httpClient)
                 .logger(new CustomGraphLogger())
                 .buildClient();
     }
@@ -57,4 +133,36 @@ public class GraphClientUtil {
         return mGraphServiceClient;
     }
 
+    /**
+     * Get the rate governor all requests to Microsoft Graph are sent through.
+     * @return {@link GraphRateGovernor} used by the Microsoft Graph service client.
+     */
+    public static GraphRateGovernor getRateGovernor() {
+        return mRateGovernor;
+    }
+
+    /**
+     * Get the rate limiter shared by all requests to Microsoft Graph.
+     * @return {@link GraphRequestLimiter} used by the Microsoft Graph service client.
+     */
+    public static GraphRequestLimiter getRequestLimiter() {
+        return mRequestLimiter;
+    }
+
+    /**
+     * Get the monitor collecting statistics about the connections to Microsoft Graph.
+     * @return {@link GraphHttpMonitor} used by the Microsoft Graph service client.
+     */
+    public static GraphHttpMonitor getHttpMonitor() {
+        return mHttpMonitor;
+    }
+
+    /**
+     * Get the token manager providing the access tokens for requests to Microsoft Graph.
+     * @return {@link GraphTokenManager} used by the Microsoft Graph service client.
+     */
+    public static GraphTokenManager getTokenManager() {
+        return mTokenManager;
+    }
+
 }
@@ -0,0 +1,188 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+/**
+ * Snapshot of the state of the http client used to contact Microsoft Graph.
+ *
+ * @author Oliver Traber
+ */
+public class GraphHttpMetrics {
+
+    /** Amount of connections currently held by the connection pool */
+    private final int connections;
+
+    /** Amount of idle connections currently held by the connection pool */
+    private final int idleConnections;
+
+    /** Amount of calls currently executed */
+    private final int runningCalls;
+
+    /** Amount of asynchronous calls waiting for a free slot of the dispatcher */
+    private final int queuedCalls;
+
+    /** Total amount of calls started */
+    private final long callsTotal;
+
+    /** Total amount of calls that failed because of an I/O error */
+    private final long callsFailed;
+
+    /** Total amount of connections acquired by calls */
+    private final long connectionsAcquired;
+
+    /** Total amount of connections that have been reused from the connection pool */
+    private final long connectionsReused;
+
+    /** Total amount of new connections that have been established */
+    private final long connectionsOpened;
+
+    /** Total amount of new connections that used HTTP/2 */
+    private final long http2Connections;
+
+    /** Total amount of connection attempts that failed */
+    private final long connectionsFailed;
+
+    /** Total amount of TLS handshakes that have been completed */
+    private final long tlsHandshakes;
+
+    /** Average time in milliseconds needed to establish a new connection */
+    private final double averageConnectMillis;
+
+    /**
+     * Create a new snapshot.
+     * @param connections Amount of connections currently held by the connection pool.
+     * @param idleConnections Amount of idle connections currently held by the connection pool.
+     * @param runningCalls Amount of calls currently executed.
+     * @param queuedCalls Amount of asynchronous calls waiting for a free slot of the dispatcher.
+     * @param callsTotal Total amount of calls started.
+     * @param callsFailed Total amount of calls that failed because of an I/O error.
+     * @param connectionsAcquired Total amount of connections acquired by calls.
+     * @param connectionsReused Total amount of connections that have been reused from the connection pool.
+     * @param connectionsOpened Total amount of new connections that have been established.
+     * @param http2Connections Total amount of new connections that used HTTP/2.
+     * @param connectionsFailed Total amount of connection attempts that failed.
+     * @param tlsHandshakes Total amount of TLS handshakes that have been completed.
+     * @param averageConnectMillis Average time in milliseconds needed to establish a new connection.
+     */
+    public GraphHttpMetrics(int connections, int idleConnections, int runningCalls, int queuedCalls,
+                            long callsTotal, long callsFailed, long connectionsAcquired, long connectionsReused,
+                            long connectionsOpened, long http2Connections, long connectionsFailed,
+                            long tlsHandshakes, double averageConnectMillis) {
+        this.connections = connections;
+        this.idleConnections = idleConnections;
+        this.runningCalls = runningCalls;
+        this.queuedCalls = queuedCalls;
+        this.callsTotal = callsTotal;
+        this.callsFailed = callsFailed;
+        this.connectionsAcquired = connectionsAcquired;
+        this.connectionsReused = connectionsReused;
+        this.connectionsOpened = connectionsOpened;
+        this.http2Connections = http2Connections;
+        this.connectionsFailed = connectionsFailed;
+        this.tlsHandshakes = tlsHandshakes;
+        this.averageConnectMillis = averageConnectMillis;
+    }
+
+    /**
+     * Get the amount of connections currently held by the connection pool.
+     * @return Amount of connections currently held by the connection pool.
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Get the amount of idle connections currently held by the connection pool.
+     * @return Amount of idle connections currently held by the connection pool.
+     */
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    /**
+     * Get the amount of calls currently executed.
+     * @return Amount of calls currently executed.
+     */
+    public int getRunningCalls() {
+        return runningCalls;
+    }
+
+    /**
+     * Get the amount of asynchronous calls waiting for a free slot of the dispatcher.
+     * @return Amount of queued asynchronous calls.
+     */
+    public int getQueuedCalls() {
+        return queuedCalls;
+    }
+
+    /**
+     * Get the total amount of calls started.
+     * @return Total amount of calls started.
+     */
+    public long getCallsTotal() {
+        return callsTotal;
+    }
+
+    /**
+     * Get the total amount of calls that failed because of an I/O error.
+     * @return Total amount of failed calls.
+     */
+    public long getCallsFailed() {
+        return callsFailed;
+    }
+
+    /**
+     * Get the total amount of connections acquired by calls.
+     * @return Total amount of connections acquired by calls.
+     */
+    public long getConnectionsAcquired() {
+        return connectionsAcquired;
+    }
+
+    /**
+     * Get the total amount of connections that have been reused from the connection pool.
+     * @return Total amount of reused connections.
+     */
+    public long getConnectionsReused() {
+        return connectionsReused;
+    }
+
+    /**
+     * Get the total amount of new connections that have been established.
+     * @return Total amount of new connections.
+     */
+    public long getConnectionsOpened() {
+        return connectionsOpened;
+    }
+
+    /**
+     * Get the total amount of new connections that used HTTP/2.
+     * @return Total amount of new HTTP/2 connections.
+     */
+    public long getHttp2Connections() {
+        return http2Connections;
+    }
+
+    /**
+     * Get the total amount of connection attempts that failed.
+     * @return Total amount of failed connection attempts.
+     */
+    public long getConnectionsFailed() {
+        return connectionsFailed;
+    }
+
+    /**
+     * Get the total amount of TLS handshakes that have been completed.
+     * @return Total amount of TLS handshakes.
+     */
+    public long getTlsHandshakes() {
+        return tlsHandshakes;
+    }
+
+    /**
+     * Get the average time in milliseconds needed to establish a new connection.
+     * @return Average time in milliseconds needed to establish a new connection.
+     */
+    public double getAverageConnectMillis() {
+        return averageConnectMillis;
+    }
+
+}
@@ -0,0 +1,181 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OkHttp event listener used to collect statistics about the connections used to contact Microsoft Graph.
+ * Together with the state of the connection pool and the dispatcher, these statistics show if requests
+ * are stalling on connection limits or if connections are opened and closed too often.
+ *
+ * @author Oliver Traber
+ */
+public class GraphHttpMonitor extends EventListener {
+
+    /** Connection pool used by the http client */
+    private final ConnectionPool connectionPool;
+
+    /** Dispatcher used by the http client */
+    private final Dispatcher dispatcher;
+
+    /** Total amount of calls started */
+    private final LongAdder callsTotal = new LongAdder();
+
+    /** Total amount of calls that failed because of an I/O error */
+    private final LongAdder callsFailed = new LongAdder();
+
+    /** Total amount of connections acquired by calls, including reused connections */
+    private final LongAdder connectionsAcquired = new LongAdder();
+
+    /** Total amount of new connections that have been established */
+    private final LongAdder connectionsOpened = new LongAdder();
+
+    /** Total amount of new connections that used HTTP/2 */
+    private final LongAdder http2Connections = new LongAdder();
+
+    /** Total amount of connection attempts that failed */
+    private final LongAdder connectionsFailed = new LongAdder();
+
+    /** Total amount of TLS handshakes that have been completed */
+    private final LongAdder tlsHandshakes = new LongAdder();
+
+    /** Total time in milliseconds spent establishing new connections */
+    private final LongAdder connectMillisTotal = new LongAdder();
+
+    /** Start of the connection attempt of the current thread, since OkHttp connects on the calling thread */
+    private final ThreadLocal<Long> connectStart = new ThreadLocal<>();
+
+    /**
+     * Create a new monitor.
+     * @param connectionPool Connection pool used by the http client.
+     * @param dispatcher Dispatcher used by the http client.
+     */
+    public GraphHttpMonitor(ConnectionPool connectionPool, Dispatcher dispatcher) {
+        this.connectionPool = connectionPool;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Count a started call.
+     * @param call Call that has been started.
+     */
+    @Override
+    public void callStart(Call call) {
+        callsTotal.increment();
+    }
+
+    /**
+     * Count a failed call.
+     * @param call Call that failed.
+     * @param ioe Error that caused the call to fail.
+     */
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        callsFailed.increment();
+    }
+
+    /**
+     * Remember the start of a new connection attempt.
+     * @param call Call the connection is established for.
+     * @param inetSocketAddress Address that is connected to.
+     * @param proxy Proxy used for the connection.
+     */
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStart.set(System.nanoTime());
+    }
+
+    /**
+     * Count a completed TLS handshake.
+     * @param call Call the connection is established for.
+     * @param handshake Handshake that has been completed.
+     */
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        tlsHandshakes.increment();
+    }
+
+    /**
+     * Count a newly established connection.
+     * @param call Call the connection was established for.
+     * @param inetSocketAddress Address that was connected to.
+     * @param proxy Proxy used for the connection.
+     * @param protocol Protocol negotiated for the connection.
+     */
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        connectionsOpened.increment();
+        if (protocol == Protocol.HTTP_2) http2Connections.increment();
+        recordConnectTime();
+    }
+
+    /**
+     * Count a failed connection attempt.
+     * @param call Call the connection should have been established for.
+     * @param inetSocketAddress Address that should have been connected to.
+     * @param proxy Proxy used for the connection.
+     * @param protocol Protocol negotiated for the connection, if any.
+     * @param ioe Error that caused the connection attempt to fail.
+     */
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol,
+                              IOException ioe) {
+        connectionsFailed.increment();
+        recordConnectTime();
+    }
+
+    /**
+     * Count a connection acquired by a call.
+     * @param call Call that acquired the connection.
+     * @param connection Connection that has been acquired.
+     */
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        connectionsAcquired.increment();
+    }
+
+    /**
+     * Add the duration of the connection attempt of the current thread to the total connect time.
+     */
+    private void recordConnectTime() {
+        Long start = connectStart.get();
+        if (start == null) return;
+        connectStart.remove();
+        connectMillisTotal.add((System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Get a snapshot of the current state of the http client.
+     * @return {@link GraphHttpMetrics} containing the current state.
+     */
+    public GraphHttpMetrics getMetrics() {
+        long opened = connectionsOpened.sum();
+        long acquired = connectionsAcquired.sum();
+        return new GraphHttpMetrics(
+                connectionPool.connectionCount(),
+                connectionPool.idleConnectionCount(),
+                dispatcher.runningCallsCount(),
+                dispatcher.queuedCallsCount(),
+                callsTotal.sum(),
+                callsFailed.sum(),
+                acquired,
+                Math.max(0, acquired - opened),
+                opened,
+                http2Connections.sum(),
+                connectionsFailed.sum(),
+                tlsHandshakes.sum(),
+                opened > 0 ? (double) connectMillisTotal.sum() / opened : 0
+        );
+    }
+
+}
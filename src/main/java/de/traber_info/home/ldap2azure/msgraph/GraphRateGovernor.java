@@ -0,0 +1,416 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OkHttp interceptor governing the rate of all requests sent to Microsoft Graph.
+ * The amount of concurrent requests is limited by an AIMD (additive increase, multiplicative decrease) limit,
+ * that shrinks whenever Microsoft Graph throttles a request and slowly grows again with every successful request.
+ * Throttled requests are retried after the delay requested by the Retry-After header, or after a jittered
+ * exponential backoff if no header was sent. Requests that are not idempotent are only retried if they were
+ * rejected with 429, since a 503 or 504 may be sent after the request was already processed.
+ * The backoff is tracked per request class, so all requests of a throttled class wait, while other classes continue.
+ *
+ * @author Oliver Traber
+ */
+public class GraphRateGovernor implements Interceptor {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(GraphRateGovernor.class.getName());
+
+    /** Base delay of the exponential backoff in milliseconds */
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+
+    /** Minimal time between two decreases of the concurrency limit in milliseconds */
+    private static final long DECREASE_INTERVAL_MILLIS = 1000;
+
+    /** Size of the window used to calculate the request rate in seconds */
+    private static final int RATE_WINDOW_SECONDS = 60;
+
+    /** HTTP methods that may be sent again if the service was temporarily unavailable */
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE");
+
+    /** Maximum amount of retries for a single throttled request */
+    private final int maxRetries;
+
+    /** Maximum amount of concurrent requests */
+    private final int maxConcurrency;
+
+    /** Maximum delay before a throttled request is retried in milliseconds */
+    private final long maxBackoffMillis;
+
+    /** Current concurrency limit. Guarded by this */
+    private double concurrencyLimit;
+
+    /** Amount of requests currently sent. Guarded by this */
+    private int inFlight = 0;
+
+    /** Time the concurrency limit was decreased the last time. Guarded by this */
+    private long lastDecrease = 0;
+
+    /** Backoff state of every request class */
+    private final Map<String, BackoffState> backoffStates = new ConcurrentHashMap<>();
+
+    /** Amount of requests per second of the last seconds, indexed by the second modulo the window size */
+    private final long[] requestsPerSecond = new long[RATE_WINDOW_SECONDS];
+
+    /** Second the entries of requestsPerSecond belong to */
+    private final long[] requestSeconds = new long[RATE_WINDOW_SECONDS];
+
+    /** Total amount of requests sent */
+    private final LongAdder requestsTotal = new LongAdder();
+
+    /** Total amount of throttled responses received */
+    private final LongAdder throttledTotal = new LongAdder();
+
+    /** Total amount of retried requests */
+    private final LongAdder retriesTotal = new LongAdder();
+
+    /**
+     * Create a new rate governor.
+     * @param maxConcurrency Maximum amount of concurrent requests.
+     * @param maxRetries Maximum amount of retries for a single throttled request.
+     * @param maxBackoffSeconds Maximum delay before a throttled request is retried in seconds.
+     */
+    public GraphRateGovernor(int maxConcurrency, int maxRetries, int maxBackoffSeconds) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.maxBackoffMillis = Math.max(1, maxBackoffSeconds) * 1000L;
+        this.concurrencyLimit = this.maxConcurrency;
+    }
+
+    /**
+     * Send the request while respecting the concurrency limit and the backoff of its request class.
+     * Throttled requests are retried until they succeed or the maximum amount of retries is reached.
+     * @param chain Chain of the request.
+     * @return Response of the request.
+     * @throws IOException Thrown if the request fails or the thread is interrupted while waiting.
+     */
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String requestClass = getRequestClass(request);
+        BackoffState backoffState = backoffStates.computeIfAbsent(requestClass, BackoffState::new);
+
+        for (int attempt = 0; ; attempt++) {
+            awaitBackoff(backoffState);
+            acquire();
+            Response response;
+            boolean throttled = false;
+            try {
+                recordRequest();
+                response = chain.proceed(request);
+                throttled = isThrottled(response.code());
+            } finally {
+                release(throttled);
+            }
+
+            if (!throttled) {
+                backoffState.reset();
+                return response;
+            }
+
+            long delay = onThrottled(requestClass, response.header("Retry-After"));
+            if (!isRetryable(request.method(), response.code())) {
+                LOG.warn("Request {} failed with status {} and is not retried, since it may already have been " +
+                        "processed by Microsoft Graph", requestClass, response.code());
+                return response;
+            }
+            if (attempt >= maxRetries) {
+                LOG.warn("Request {} was throttled by Microsoft Graph and is not retried anymore", requestClass);
+                return response;
+            }
+            LOG.debug("Request {} was throttled by Microsoft Graph. Retrying in {} ms", requestClass, delay);
+            response.close();
+            retriesTotal.increment();
+        }
+    }
+
+    /**
+     * Record that Microsoft Graph throttled a request of the given class. Used for requests throttled inside
+     * of a JSON batch, since these are not seen by the interceptor.
+     * @param requestClass Class of the throttled request.
+     * @param retryAfter Value of the Retry-After header, or null if none was sent.
+     * @return Delay in milliseconds before requests of the class are sent again.
+     */
+    public long onThrottled(String requestClass, String retryAfter) {
+        throttledTotal.increment();
+        decreaseLimit();
+        BackoffState backoffState = backoffStates.computeIfAbsent(requestClass, BackoffState::new);
+        return backoffState.backoff(parseRetryAfter(retryAfter));
+    }
+
+    /**
+     * Check if the given status code signals throttling.
+     * @param status HTTP status code.
+     * @return true if the request was throttled or the service is temporarily unavailable, otherwise false.
+     */
+    public static boolean isThrottled(int status) {
+        return status == 429 || status == 503 || status == 504;
+    }
+
+    /**
+     * Check if a throttled request may be sent again. Requests that are not idempotent, like POST requests and
+     * JSON batches, are only retried if they were rejected with 429.
+     * @param method HTTP method of the request.
+     * @param status HTTP status code of the response.
+     * @return true if the request may be retried, otherwise false.
+     */
+    public static boolean isRetryable(String method, int status) {
+        if (status == 429) return true;
+        return isThrottled(status) && IDEMPOTENT_METHODS.contains(method.toUpperCase());
+    }
+
+    /**
+     * Get the class of the given request, consisting of its method and the first segment of its path after the
+     * api version, e.g. "PATCH users". Requests of the same class share their backoff state.
+     * @param request Request the class should be determined for.
+     * @return Class of the request.
+     */
+    public static String getRequestClass(Request request) {
+        return getRequestClass(request.method(), request.url().encodedPath());
+    }
+
+    /**
+     * Get the class of a request from its method and path, e.g. "PATCH users".
+     * @param method HTTP method of the request.
+     * @param path Path of the request, starting with the api version.
+     * @return Class of the request.
+     */
+    public static String getRequestClass(String method, String path) {
+        String[] segments = path.replaceFirst("^/+", "").split("/");
+        String resource = segments.length > 1 ? segments[1] : segments[0];
+        return method + " " + resource;
+    }
+
+    /**
+     * Wait until a request of the given class, that was throttled inside of a JSON batch, can be retried.
+     * @param requestClass Class of the throttled request.
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting.
+     */
+    public void awaitRetry(String requestClass) throws InterruptedIOException {
+        retriesTotal.increment();
+        awaitBackoff(backoffStates.computeIfAbsent(requestClass, BackoffState::new));
+    }
+
+    /**
+     * Get the maximum amount of retries for a single throttled request.
+     * @return Maximum amount of retries for a single throttled request.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Get a snapshot of the current state of the governor.
+     * @return {@link GraphRateMetrics} containing the current state.
+     */
+    public GraphRateMetrics getMetrics() {
+        List<GraphRateMetrics.BackoffMetrics> backoffs = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (BackoffState state : backoffStates.values()) {
+            backoffs.add(state.toMetrics(now));
+        }
+        int currentLimit;
+        int currentInFlight;
+        synchronized (this) {
+            currentLimit = (int) concurrencyLimit;
+            currentInFlight = inFlight;
+        }
+        return new GraphRateMetrics(currentLimit, maxConcurrency, currentInFlight, getRequestRate(),
+                requestsTotal.sum(), throttledTotal.sum(), retriesTotal.sum(), backoffs);
+    }
+
+    /**
+     * Wait until the backoff of the given request class is over.
+     * @param backoffState {@link BackoffState} of the request class.
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting.
+     */
+    private void awaitBackoff(BackoffState backoffState) throws InterruptedIOException {
+        long delay;
+        while ((delay = backoffState.blockedUntil - System.currentTimeMillis()) > 0) {
+            sleep(delay);
+        }
+    }
+
+    /**
+     * Wait until the concurrency limit allows another request.
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting.
+     */
+    private synchronized void acquire() throws InterruptedIOException {
+        try {
+            while (inFlight >= (int) concurrencyLimit) wait();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Microsoft Graph concurrency limit");
+        }
+        inFlight++;
+    }
+
+    /**
+     * Release a request and adjust the concurrency limit. Every successful request increases the limit by
+     * 1 / limit, so the limit grows by roughly one per full window of requests.
+     * @param throttled true if the request was throttled.
+     */
+    private synchronized void release(boolean throttled) {
+        inFlight--;
+        if (!throttled) concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+        notifyAll();
+    }
+
+    /**
+     * Halve the concurrency limit. The limit is decreased at most once per interval, since all requests sent
+     * at the same time are usually throttled together.
+     */
+    private synchronized void decreaseLimit() {
+        long now = System.currentTimeMillis();
+        if (now - lastDecrease < DECREASE_INTERVAL_MILLIS) return;
+        lastDecrease = now;
+        concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+        LOG.info("Microsoft Graph is throttling requests. Reduced concurrency limit to {}", (int) concurrencyLimit);
+    }
+
+    /**
+     * Count a request for the calculation of the request rate.
+     */
+    private void recordRequest() {
+        requestsTotal.increment();
+        long second = System.currentTimeMillis() / 1000;
+        int index = (int) (second % RATE_WINDOW_SECONDS);
+        synchronized (requestsPerSecond) {
+            if (requestSeconds[index] != second) {
+                requestSeconds[index] = second;
+                requestsPerSecond[index] = 0;
+            }
+            requestsPerSecond[index]++;
+        }
+    }
+
+    /**
+     * Get the average amount of requests per second over the rate window.
+     * @return Average amount of requests per second.
+     */
+    private double getRequestRate() {
+        long currentSecond = System.currentTimeMillis() / 1000;
+        long requests = 0;
+        synchronized (requestsPerSecond) {
+            for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+                if (currentSecond - requestSeconds[i] < RATE_WINDOW_SECONDS) requests += requestsPerSecond[i];
+            }
+        }
+        return (double) requests / RATE_WINDOW_SECONDS;
+    }
+
+    /**
+     * Parse the value of a Retry-After header, which is either an amount of seconds or a HTTP date.
+     * @param retryAfter Value of the Retry-After header, or null if none was sent.
+     * @return Requested delay in milliseconds, or -1 if no valid value was sent.
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.isEmpty()) return -1;
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException ex) {
+            try {
+                ZonedDateTime retryDate = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, retryDate.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Sleep for the given amount of milliseconds.
+     * @param millis Amount of milliseconds to sleep.
+     * @throws InterruptedIOException Thrown if the thread is interrupted while sleeping.
+     */
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Microsoft Graph throttling backoff");
+        }
+    }
+
+    /**
+     * Backoff state of a single request class.
+     */
+    private class BackoffState {
+
+        /** Class of the requests */
+        private final String requestClass;
+        /** Amount of throttled responses since the last successful request */
+        private volatile int consecutiveThrottles = 0;
+        /** Time until requests of this class are held back */
+        private volatile long blockedUntil = 0;
+        /** Delay of the last backoff in milliseconds */
+        private volatile long lastDelay = 0;
+
+        /**
+         * Create a new backoff state.
+         * @param requestClass Class of the requests.
+         */
+        private BackoffState(String requestClass) {
+            this.requestClass = requestClass;
+        }
+
+        /**
+         * Start a new backoff. The delay requested by Microsoft Graph is used if available, otherwise an
+         * exponential backoff with jitter is calculated from the amount of consecutive throttles.
+         * @param requestedDelay Delay requested by Microsoft Graph in milliseconds, or -1 if none was requested.
+         * @return Delay in milliseconds before requests of this class are sent again.
+         */
+        private synchronized long backoff(long requestedDelay) {
+            consecutiveThrottles++;
+            long delay;
+            if (requestedDelay >= 0) {
+                delay = Math.min(requestedDelay, maxBackoffMillis);
+            } else {
+                long exponentialDelay = BASE_BACKOFF_MILLIS << Math.min(consecutiveThrottles - 1, 16);
+                long cappedDelay = Math.min(exponentialDelay, maxBackoffMillis);
+                delay = cappedDelay / 2 + ThreadLocalRandom.current().nextLong(cappedDelay / 2 + 1);
+            }
+            lastDelay = delay;
+            blockedUntil = Math.max(blockedUntil, System.currentTimeMillis() + delay);
+            return delay;
+        }
+
+        /**
+         * Reset the state after a successful request.
+         */
+        private void reset() {
+            if (consecutiveThrottles != 0) consecutiveThrottles = 0;
+        }
+
+        /**
+         * Convert the state to its metrics representation.
+         * @param now Current time in milliseconds.
+         * @return {@link GraphRateMetrics.BackoffMetrics} representing this state.
+         */
+        private GraphRateMetrics.BackoffMetrics toMetrics(long now) {
+            return new GraphRateMetrics.BackoffMetrics(requestClass, consecutiveThrottles,
+                    Math.max(0, blockedUntil - now), lastDelay);
+        }
+
+    }
+
+}
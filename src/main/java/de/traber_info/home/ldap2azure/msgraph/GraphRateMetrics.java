@@ -0,0 +1,307 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import java.util.List;
+
+/**
+ * Snapshot of the state of the {@link GraphRateGovernor}.
+ *
+ * @author Oliver Traber
+ */
+public class GraphRateMetrics {
+
+    /** Current limit of concurrent requests */
+    private final int concurrencyLimit;
+
+    /** Configured maximum of concurrent requests */
+    private final int maxConcurrency;
+
+    /** Amount of requests currently sent */
+    private final int inFlight;
+
+    /** Average amount of requests per second over the last minute */
+    private final double requestsPerSecond;
+
+    /** Total amount of requests sent */
+    private final long requestsTotal;
+
+    /** Total amount of throttled responses received */
+    private final long throttledTotal;
+
+    /** Total amount of retried requests */
+    private final long retriesTotal;
+
+    /** Backoff state of every request class */
+    private final List<BackoffMetrics> backoffs;
+
+    /**
+     * Create a new snapshot.
+     * @param concurrencyLimit Current limit of concurrent requests.
+     * @param maxConcurrency Configured maximum of concurrent requests.
+     * @param inFlight Amount of requests currently sent.
+     * @param requestsPerSecond Average amount of requests per second over the last minute.
+     * @param requestsTotal Total amount of requests sent.
+     * @param throttledTotal Total amount of throttled responses received.
+     * @param retriesTotal Total amount of retried requests.
+     * @param backoffs Backoff state of every request class.
+     */
+    public GraphRateMetrics(int concurrencyLimit, int maxConcurrency, int inFlight, double requestsPerSecond,
+                            long requestsTotal, long throttledTotal, long retriesTotal, List<BackoffMetrics> backoffs) {
+        this.concurrencyLimit = concurrencyLimit;
+        this.maxConcurrency = maxConcurrency;
+        this.inFlight = inFlight;
+        this.requestsPerSecond = requestsPerSecond;
+        this.requestsTotal = requestsTotal;
+        this.throttledTotal = throttledTotal;
+        this.retriesTotal = retriesTotal;
+        this.backoffs = backoffs;
+    }
+
+    /**
+     * Get the current limit of concurrent requests.
+     * @return Current limit of concurrent requests.
+     */
+    public int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Get the configured maximum of concurrent requests.
+     * @return Configured maximum of concurrent requests.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Get the amount of requests currently sent.
+     * @return Amount of requests currently sent.
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Get the average amount of requests per second over the last minute.
+     * @return Average amount of requests per second over the last minute.
+     */
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * Get the total amount of requests sent.
+     * @return Total amount of requests sent.
+     */
+    public long getRequestsTotal() {
+        return requestsTotal;
+    }
+
+    /**
+     * Get the total amount of throttled responses received.
+     * @return Total amount of throttled responses received.
+     */
+    public long getThrottledTotal() {
+        return throttledTotal;
+    }
+
+    /**
+     * Get the total amount of retried requests.
+     * @return Total amount of retried requests.
+     */
+    public long getRetriesTotal() {
+        return retriesTotal;
+    }
+
+    /**
+     * Get the backoff state of every request class.
+     * @return Backoff state of every request class.
+     */
+    public List<BackoffMetrics> getBackoffs() {
+        return backoffs;
+    }
+
+    /**
+     * Backoff state of a single request class.
+     */
+    public static class BackoffMetrics {
+
+        /** Class of the requests, consisting of the method and the resource */
+        private final String requestClass;
+
+        /** Amount of throttled responses since the last successful request */
+        private final int consecutiveThrottles;
+
+        /** Remaining time until requests of this class are sent again in milliseconds */
+        private final long remainingBackoffMillis;
+
+        /** Delay of the last backoff in milliseconds */
+        private final long lastBackoffMillis;
+
+        /**
+         * Create a new snapshot of a backoff state.
+         * @param requestClass Class of the requests.
+         * @param consecutiveThrottles Amount of throttled responses since the last successful request.
+         * @param remainingBackoffMillis Remaining time until requests of this class are sent again.
+         * @param lastBackoffMillis Delay of the last backoff in milliseconds.
+         */
+        public BackoffMetrics(String requestClass, int consecutiveThrottles,
+                              long remainingBackoffMillis, long lastBackoffMillis) {
+            this.requestClass = requestClass;
+            this.consecutiveThrottles = consecutiveThrottles;
+            this.remainingBackoffMillis = remainingBackoffMillis;
+            this.lastBackoffMillis = lastBackoffMillis;
+        }
+
+        /**
+         * Get the class of the requests.
+         * @return Class of the requests, consisting of the method and the resource.
+         */
+        public String getRequestClass() {
+            return requestClass;
+        }
+
+        /**
+         * Get the amount of throttled responses since the last successful request.
+         * @return Amount of throttled responses since the last successful request.
+         */
+        public int getConsecutiveThrottles() {
+            return consecutiveThrottles;
+        }
+
+        /**
+         * Get the remaining time until requests of this class are sent again.
+         * @return Remaining time until requests of this class are sent again in milliseconds.
+         */
+        public long getRemainingBackoffMillis() {
+            return remainingBackoffMillis;
+        }
+
+        /**
+         * Get the delay of the last backoff.
+         * @return Delay of the last backoff in milliseconds.
+         */
+        public long getLastBackoffMillis() {
+            return lastBackoffMillis;
+        }
+
+    }
+
+    /**
+     * State of the token bucket of a single workload.
+     */
+    public static class BucketMetrics {
+
+        /** Workload limited by the bucket */
+        private final GraphWorkload workload;
+
+        /** Amount of requests per second allowed for the workload */
+        private final double ratePerSecond;
+
+        /** Maximum amount of tokens in the bucket */
+        private final double capacity;
+
+        /** Amount of tokens currently available */
+        private final double availableTokens;
+
+        /** Amount of interactive requests currently waiting for tokens */
+        private final int interactiveWaiting;
+
+        /** Amount of sync requests currently waiting for tokens */
+        private final int syncWaiting;
+
+        /** Amount of tokens granted to interactive requests */
+        private final long interactiveGranted;
+
+        /** Amount of tokens granted to sync requests */
+        private final long syncGranted;
+
+        /**
+         * Create a new snapshot of a token bucket.
+         * @param workload Workload limited by the bucket.
+         * @param ratePerSecond Amount of requests per second allowed for the workload.
+         * @param capacity Maximum amount of tokens in the bucket.
+         * @param availableTokens Amount of tokens currently available.
+         * @param interactiveWaiting Amount of interactive requests currently waiting for tokens.
+         * @param syncWaiting Amount of sync requests currently waiting for tokens.
+         * @param interactiveGranted Amount of tokens granted to interactive requests.
+         * @param syncGranted Amount of tokens granted to sync requests.
+         */
+        public BucketMetrics(GraphWorkload workload, double ratePerSecond, double capacity, double availableTokens,
+                             int interactiveWaiting, int syncWaiting, long interactiveGranted, long syncGranted) {
+            this.workload = workload;
+            this.ratePerSecond = ratePerSecond;
+            this.capacity = capacity;
+            this.availableTokens = availableTokens;
+            this.interactiveWaiting = interactiveWaiting;
+            this.syncWaiting = syncWaiting;
+            this.interactiveGranted = interactiveGranted;
+            this.syncGranted = syncGranted;
+        }
+
+        /**
+         * Get the workload limited by the bucket.
+         * @return Workload limited by the bucket.
+         */
+        public GraphWorkload getWorkload() {
+            return workload;
+        }
+
+        /**
+         * Get the amount of requests per second allowed for the workload.
+         * @return Amount of requests per second allowed for the workload.
+         */
+        public double getRatePerSecond() {
+            return ratePerSecond;
+        }
+
+        /**
+         * Get the maximum amount of tokens in the bucket.
+         * @return Maximum amount of tokens in the bucket.
+         */
+        public double getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * Get the amount of tokens currently available.
+         * @return Amount of tokens currently available.
+         */
+        public double getAvailableTokens() {
+            return availableTokens;
+        }
+
+        /**
+         * Get the amount of interactive requests currently waiting for tokens.
+         * @return Amount of interactive requests currently waiting for tokens.
+         */
+        public int getInteractiveWaiting() {
+            return interactiveWaiting;
+        }
+
+        /**
+         * Get the amount of sync requests currently waiting for tokens.
+         * @return Amount of sync requests currently waiting for tokens.
+         */
+        public int getSyncWaiting() {
+            return syncWaiting;
+        }
+
+        /**
+         * Get the amount of tokens granted to interactive requests.
+         * @return Amount of tokens granted to interactive requests.
+         */
+        public long getInteractiveGranted() {
+            return interactiveGranted;
+        }
+
+        /**
+         * Get the amount of tokens granted to sync requests.
+         * @return Amount of tokens granted to sync requests.
+         */
+        public long getSyncGranted() {
+            return syncGranted;
+        }
+
+    }
+
+}
@@ -0,0 +1,40 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+/**
+ * Enum containing the priority lanes requests to Microsoft Graph are sent in.
+ * Requests in the {@link #INTERACTIVE} lane are triggered by administrators using the REST api and are preferred
+ * over requests in the {@link #SYNC} lane, that are sent by the scheduled sync.
+ *
+ * @author Oliver Traber
+ */
+public enum GraphRequestLane {
+
+    INTERACTIVE, SYNC;
+
+    /** Lane of the requests sent by the current thread */
+    private static final ThreadLocal<GraphRequestLane> currentLane = ThreadLocal.withInitial(() -> SYNC);
+
+    /**
+     * Get the lane requests of the current thread are sent in.
+     * @return Lane of the current thread. Threads use the {@link #SYNC} lane by default.
+     */
+    public static GraphRequestLane current() {
+        return currentLane.get();
+    }
+
+    /**
+     * Set the lane requests of the current thread are sent in.
+     * @param lane Lane that should be used by the current thread.
+     */
+    public static void set(GraphRequestLane lane) {
+        currentLane.set(lane);
+    }
+
+    /**
+     * Reset the lane of the current thread to the default lane.
+     */
+    public static void reset() {
+        currentLane.remove();
+    }
+
+}
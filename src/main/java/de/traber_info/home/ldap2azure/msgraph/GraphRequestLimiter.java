@@ -0,0 +1,89 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide rate limiter shared by all requests sent to Microsoft Graph.
+ * Every {@link GraphWorkload} is limited by its own {@link TokenBucket}. Requests are sent in the
+ * {@link GraphRequestLane} of the calling thread, so interactive requests of the REST api are preferred over
+ * requests of the sync. JSON batches are not limited by the interceptor, since their steps may belong to
+ * different workloads. Their tokens are taken by the {@link GraphBatchExecutor} before a batch is sent.
+ *
+ * @author Oliver Traber
+ */
+public class GraphRequestLimiter implements Interceptor {
+
+    /** Token buckets of the limited workloads. Workloads without a bucket are not limited */
+    private final Map<GraphWorkload, TokenBucket> buckets = new EnumMap<>(GraphWorkload.class);
+
+    /**
+     * Create a new limiter.
+     * @param usersRate Requests per second allowed for the users workload, or 0 to disable the limit.
+     * @param directoryRate Requests per second allowed for the directory workload, or 0 to disable the limit.
+     * @param licensingRate Requests per second allowed for the licensing workload, or 0 to disable the limit.
+     * @param interactiveShare Share of every bucket that is reserved for interactive requests.
+     */
+    public GraphRequestLimiter(double usersRate, double directoryRate, double licensingRate, double interactiveShare) {
+        addBucket(GraphWorkload.USERS, usersRate, interactiveShare);
+        addBucket(GraphWorkload.DIRECTORY, directoryRate, interactiveShare);
+        addBucket(GraphWorkload.LICENSING, licensingRate, interactiveShare);
+    }
+
+    /**
+     * Wait for the rate limit of the workload of the request and send it.
+     * @param chain Chain of the request.
+     * @return Response of the request.
+     * @throws IOException Thrown if the request fails or the thread is interrupted while waiting.
+     */
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String path = request.url().encodedPath();
+        if (!path.endsWith("/$batch")) {
+            acquire(GraphWorkload.forPath(path), GraphRequestLane.current(), 1);
+        }
+        return chain.proceed(request);
+    }
+
+    /**
+     * Take the given amount of tokens from the bucket of the workload, waiting until enough tokens are available.
+     * @param workload Workload the requests belong to.
+     * @param lane Lane the requests are sent in.
+     * @param permits Amount of requests.
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting.
+     */
+    public void acquire(GraphWorkload workload, GraphRequestLane lane, int permits) throws InterruptedIOException {
+        TokenBucket bucket = buckets.get(workload);
+        if (bucket != null && permits > 0) bucket.acquire(lane, permits);
+    }
+
+    /**
+     * Get a snapshot of the state of all token buckets.
+     * @return List containing the state of every limited workload.
+     */
+    public List<GraphRateMetrics.BucketMetrics> getMetrics() {
+        List<GraphRateMetrics.BucketMetrics> metrics = new ArrayList<>();
+        for (TokenBucket bucket : buckets.values()) metrics.add(bucket.toMetrics());
+        return metrics;
+    }
+
+    /**
+     * Add a token bucket for the given workload if a limit is set.
+     * @param workload Workload that should be limited.
+     * @param rate Requests per second allowed for the workload, or 0 to disable the limit.
+     * @param interactiveShare Share of the bucket that is reserved for interactive requests.
+     */
+    private void addBucket(GraphWorkload workload, double rate, double interactiveShare) {
+        if (rate > 0) buckets.put(workload, new TokenBucket(workload, rate, interactiveShare));
+    }
+
+}
@@ -0,0 +1,233 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import com.azure.core.credential.AccessToken;
+import com.azure.core.credential.TokenCredential;
+import com.azure.core.credential.TokenRequestContext;
+import com.microsoft.graph.authentication.BaseAuthenticationProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Authentication provider caching the access token used for requests to Microsoft Graph.
+ * The token is refreshed by a background thread ahead of its expiry, so requests only block on
+ * Azure AD if the background refresh failed and the cached token is about to expire.
+ *
+ * @author Oliver Traber
+ */
+public class GraphTokenManager extends BaseAuthenticationProvider {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(GraphTokenManager.class.getName());
+
+    /** Time before the expiry of a token from which it is no longer used for new requests */
+    private static final Duration EXPIRY_SAFETY_MARGIN = Duration.ofSeconds(30);
+
+    /** Maximum time to wait for Azure AD to issue a token */
+    private static final Duration ACQUISITION_TIMEOUT = Duration.ofSeconds(30);
+
+    /** Delay before a failed background refresh is retried the first time */
+    private static final long MIN_RETRY_DELAY_SECONDS = 5;
+
+    /** Maximum delay before a failed background refresh is retried */
+    private static final long MAX_RETRY_DELAY_SECONDS = 300;
+
+    /** Credential used to acquire new tokens */
+    private final TokenCredential credential;
+
+    /** Context of the token requests, containing the requested scopes */
+    private final TokenRequestContext requestContext;
+
+    /** Time before the expiry of a token at which it is refreshed in the background */
+    private final Duration refreshMargin;
+
+    /** Scheduler running the background refresh */
+    private final ScheduledExecutorService scheduler;
+
+    /** Lock ensuring that only one token is acquired at a time */
+    private final Object acquisitionLock = new Object();
+
+    /** Currently cached access token */
+    private volatile AccessToken cachedToken;
+
+    /** Delay before the next retry of a failed background refresh */
+    private long retryDelaySeconds = MIN_RETRY_DELAY_SECONDS;
+
+    /** Total amount of tokens acquired */
+    private final LongAdder acquisitionsTotal = new LongAdder();
+
+    /** Total amount of failed token acquisitions */
+    private final LongAdder acquisitionFailures = new LongAdder();
+
+    /** Total amount of tokens acquired on the request path, because no valid token was cached */
+    private final LongAdder blockingAcquisitions = new LongAdder();
+
+    /** Total time in milliseconds spent acquiring tokens */
+    private final LongAdder acquisitionMillisTotal = new LongAdder();
+
+    /** Duration of the last token acquisition in milliseconds */
+    private volatile long lastAcquisitionMillis;
+
+    /** Message of the last failed token acquisition */
+    private volatile String lastError;
+
+    /**
+     * Create a new token manager.
+     * @param scopes Scopes the token is requested for.
+     * @param credential Credential used to acquire new tokens.
+     * @param refreshMargin Time in seconds before the expiry of a token at which it is refreshed in the background.
+     */
+    public GraphTokenManager(List<String> scopes, TokenCredential credential, int refreshMargin) {
+        this.credential = credential;
+        this.requestContext = new TokenRequestContext().setScopes(scopes);
+        this.refreshMargin = Duration.ofSeconds(Math.max(0, refreshMargin));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "graph-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Acquire the first token and start the background refresh.
+     * If the first token can't be acquired, the background refresh retries it.
+     */
+    public void start() {
+        scheduler.execute(this::refreshInBackground);
+    }
+
+    /**
+     * Stop the background refresh.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Get the access token for a request. The cached token is returned if it is still valid,
+     * otherwise a new token is acquired on the calling thread.
+     * @param requestUrl Url the request is sent to.
+     * @return Future containing the access token, or null if the url should not be authenticated.
+     */
+    @Override
+    public CompletableFuture<String> getAuthorizationTokenAsync(URL requestUrl) {
+        if (!shouldAuthenticateRequestWithUrl(requestUrl)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        AccessToken token = cachedToken;
+        if (isUsable(token)) {
+            return CompletableFuture.completedFuture(token.getToken());
+        }
+        try {
+            synchronized (acquisitionLock) {
+                token = cachedToken;
+                if (!isUsable(token)) {
+                    blockingAcquisitions.increment();
+                    token = acquire();
+                }
+            }
+            return CompletableFuture.completedFuture(token.getToken());
+        } catch (RuntimeException ex) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+    }
+
+    /**
+     * Refresh the cached token and schedule the next refresh ahead of its expiry.
+     * A failed refresh is retried with an exponential backoff.
+     */
+    private void refreshInBackground() {
+        try {
+            AccessToken token;
+            synchronized (acquisitionLock) {
+                token = acquire();
+            }
+            retryDelaySeconds = MIN_RETRY_DELAY_SECONDS;
+            scheduler.schedule(this::refreshInBackground, getRefreshDelay(token), TimeUnit.SECONDS);
+        } catch (RuntimeException ex) {
+            LOG.warn("Refreshing the access token for Microsoft Graph failed, retrying in {} seconds",
+                    retryDelaySeconds, ex);
+            scheduler.schedule(this::refreshInBackground, retryDelaySeconds, TimeUnit.SECONDS);
+            retryDelaySeconds = Math.min(retryDelaySeconds * 2, MAX_RETRY_DELAY_SECONDS);
+        }
+    }
+
+    /**
+     * Get the delay in seconds until the given token should be refreshed.
+     * If the token lifetime is shorter than the refresh margin, the token is refreshed after half its lifetime.
+     * @param token Token that should be refreshed.
+     * @return Delay in seconds until the token should be refreshed.
+     */
+    private long getRefreshDelay(AccessToken token) {
+        long secondsUntilExpiry = Duration.between(OffsetDateTime.now(), token.getExpiresAt()).getSeconds();
+        long refreshIn = secondsUntilExpiry - refreshMargin.getSeconds();
+        if (refreshIn < MIN_RETRY_DELAY_SECONDS) {
+            refreshIn = secondsUntilExpiry / 2;
+        }
+        return Math.max(MIN_RETRY_DELAY_SECONDS, refreshIn);
+    }
+
+    /**
+     * Acquire a new token from Azure AD and cache it. Must be called while holding the acquisition lock.
+     * @return Newly acquired token.
+     * @throws IllegalStateException if Azure AD did not issue a token.
+     */
+    private AccessToken acquire() {
+        long start = System.nanoTime();
+        try {
+            AccessToken token = credential.getToken(requestContext).block(ACQUISITION_TIMEOUT);
+            if (token == null) throw new IllegalStateException("Azure AD did not issue an access token");
+            cachedToken = token;
+            acquisitionsTotal.increment();
+            return token;
+        } catch (RuntimeException ex) {
+            acquisitionFailures.increment();
+            lastError = ex.getMessage();
+            throw ex;
+        } finally {
+            lastAcquisitionMillis = (System.nanoTime() - start) / 1_000_000;
+            acquisitionMillisTotal.add(lastAcquisitionMillis);
+        }
+    }
+
+    /**
+     * Check if a token can still be used for new requests.
+     * @param token Token to check.
+     * @return true if the token is present and does not expire soon, otherwise false.
+     */
+    private static boolean isUsable(AccessToken token) {
+        return token != null && OffsetDateTime.now().plus(EXPIRY_SAFETY_MARGIN).isBefore(token.getExpiresAt());
+    }
+
+    /**
+     * Get a snapshot of the current state of the token manager.
+     * @return {@link GraphTokenMetrics} containing the current state.
+     */
+    public GraphTokenMetrics getMetrics() {
+        AccessToken token = cachedToken;
+        long acquisitions = acquisitionsTotal.sum();
+        long attempts = acquisitions + acquisitionFailures.sum();
+        return new GraphTokenMetrics(
+                token != null ? token.getExpiresAt().toString() : null,
+                token != null ? Duration.between(OffsetDateTime.now(), token.getExpiresAt()).getSeconds() : 0,
+                acquisitions,
+                acquisitionFailures.sum(),
+                blockingAcquisitions.sum(),
+                lastAcquisitionMillis,
+                attempts > 0 ? (double) acquisitionMillisTotal.sum() / attempts : 0,
+                lastError
+        );
+    }
+
+}
@@ -0,0 +1,122 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+/**
+ * Snapshot of the state of the {@link GraphTokenManager}.
+ *
+ * @author Oliver Traber
+ */
+public class GraphTokenMetrics {
+
+    /** Expiry of the cached token in ISO-8601 format */
+    private final String expiresAt;
+
+    /** Seconds until the cached token expires */
+    private final long secondsUntilExpiry;
+
+    /** Total amount of tokens acquired */
+    private final long acquisitionsTotal;
+
+    /** Total amount of failed token acquisitions */
+    private final long acquisitionFailures;
+
+    /** Total amount of tokens acquired on the request path, because no valid token was cached */
+    private final long blockingAcquisitions;
+
+    /** Duration of the last token acquisition in milliseconds */
+    private final long lastAcquisitionMillis;
+
+    /** Average duration of a token acquisition in milliseconds */
+    private final double averageAcquisitionMillis;
+
+    /** Message of the last failed token acquisition */
+    private final String lastError;
+
+    /**
+     * Create a new snapshot.
+     * @param expiresAt Expiry of the cached token in ISO-8601 format, or null if no token is cached.
+     * @param secondsUntilExpiry Seconds until the cached token expires.
+     * @param acquisitionsTotal Total amount of tokens acquired.
+     * @param acquisitionFailures Total amount of failed token acquisitions.
+     * @param blockingAcquisitions Total amount of tokens acquired on the request path.
+     * @param lastAcquisitionMillis Duration of the last token acquisition in milliseconds.
+     * @param averageAcquisitionMillis Average duration of a token acquisition in milliseconds.
+     * @param lastError Message of the last failed token acquisition, or null if no acquisition failed.
+     */
+    public GraphTokenMetrics(String expiresAt, long secondsUntilExpiry, long acquisitionsTotal,
+                             long acquisitionFailures, long blockingAcquisitions, long lastAcquisitionMillis,
+                             double averageAcquisitionMillis, String lastError) {
+        this.expiresAt = expiresAt;
+        this.secondsUntilExpiry = secondsUntilExpiry;
+        this.acquisitionsTotal = acquisitionsTotal;
+        this.acquisitionFailures = acquisitionFailures;
+        this.blockingAcquisitions = blockingAcquisitions;
+        this.lastAcquisitionMillis = lastAcquisitionMillis;
+        this.averageAcquisitionMillis = averageAcquisitionMillis;
+        this.lastError = lastError;
+    }
+
+    /**
+     * Get the expiry of the cached token.
+     * @return Expiry of the cached token in ISO-8601 format, or null if no token is cached.
+     */
+    public String getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Get the seconds until the cached token expires.
+     * @return Seconds until the cached token expires.
+     */
+    public long getSecondsUntilExpiry() {
+        return secondsUntilExpiry;
+    }
+
+    /**
+     * Get the total amount of tokens acquired.
+     * @return Total amount of tokens acquired.
+     */
+    public long getAcquisitionsTotal() {
+        return acquisitionsTotal;
+    }
+
+    /**
+     * Get the total amount of failed token acquisitions.
+     * @return Total amount of failed token acquisitions.
+     */
+    public long getAcquisitionFailures() {
+        return acquisitionFailures;
+    }
+
+    /**
+     * Get the total amount of tokens acquired on the request path, because no valid token was cached.
+     * @return Total amount of tokens acquired on the request path.
+     */
+    public long getBlockingAcquisitions() {
+        return blockingAcquisitions;
+    }
+
+    /**
+     * Get the duration of the last token acquisition in milliseconds.
+     * @return Duration of the last token acquisition in milliseconds.
+     */
+    public long getLastAcquisitionMillis() {
+        return lastAcquisitionMillis;
+    }
+
+    /**
+     * Get the average duration of a token acquisition in milliseconds.
+     * @return Average duration of a token acquisition in milliseconds.
+     */
+    public double getAverageAcquisitionMillis() {
+        return averageAcquisitionMillis;
+    }
+
+    /**
+     * Get the message of the last failed token acquisition.
+     * @return Message of the last failed token acquisition, or null if no acquisition failed.
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+}
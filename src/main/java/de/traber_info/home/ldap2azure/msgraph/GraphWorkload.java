@@ -0,0 +1,27 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+/**
+ * Enum containing the Microsoft Graph workloads that are rate limited separately by the {@link GraphRequestLimiter}.
+ *
+ * @author Oliver Traber
+ */
+public enum GraphWorkload {
+
+    USERS, DIRECTORY, LICENSING;
+
+    /**
+     * Get the workload a request belongs to.
+     * @param path Path of the request, starting with the api version.
+     * @return Workload the request belongs to. Requests of unknown resources are counted as {@link #USERS}.
+     */
+    public static GraphWorkload forPath(String path) {
+        String[] segments = path.replaceFirst("^/+", "").split("/");
+        String resource = segments.length > 1 ? segments[1] : segments[0];
+        String action = segments[segments.length - 1];
+        if (resource.equals("subscribedSkus") || action.equals("assignLicense")
+                || action.equals("licenseDetails")) return LICENSING;
+        if (resource.equals("directory")) return DIRECTORY;
+        return USERS;
+    }
+
+}
@@ -0,0 +1,359 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
+import com.microsoft.graph.core.ClientException;
+import com.microsoft.graph.http.GraphError;
+import com.microsoft.graph.http.GraphServiceException;
+import com.microsoft.graph.models.AssignedLicense;
+import com.microsoft.graph.models.Group;
+import com.microsoft.graph.models.SubscribedSku;
+import com.microsoft.graph.models.UserAssignLicenseParameterSet;
+import com.microsoft.graph.requests.GraphServiceClient;
+import com.microsoft.graph.requests.SubscribedSkuCollectionPage;
+import com.microsoft.graph.requests.SubscribedSkuCollectionRequestBuilder;
+import de.traber_info.home.ldap2azure.model.config.AutoLicensingConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Component managing the licenses assigned to new users.
+ * The configured SKUs are parsed once and validated against the subscribed SKUs of the tenant at startup.
+ * The available seats of every SKU are tracked, so licenses without free seats are not requested at all.
+ * If a license group is configured, new users are added to the group in bulk instead of assigning the licenses
+ * directly, so Azure AD applies them using group-based licensing.
+ *
+ * @author Oliver Traber
+ */
+public class LicenseManager {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(LicenseManager.class.getName());
+
+    /** Maximum amount of members Microsoft Graph accepts in a single group update */
+    public static final int MAX_GROUP_MEMBERS_PER_REQUEST = 20;
+
+    /** Capability status of subscribed SKUs that can be assigned */
+    private static final String ENABLED_CAPABILITY_STATUS = "Enabled";
+
+    /** Shared instance of the license manager */
+    private static LicenseManager instance;
+
+    /** Instance of the GraphServiceClient used to read the SKUs and assign the licenses */
+    private final GraphServiceClient<?> graphServiceClient;
+
+    /** Boolean representing if licenses should be assigned to new users */
+    private final boolean enabled;
+
+    /** Id of the group used for group-based licensing, or null if licenses are assigned directly */
+    private final String licenseGroupId;
+
+    /** Licenses assigned to new users. Parsed once from the config */
+    private final List<AssignedLicense> defaultLicenses;
+
+    /** Available seats of every SKU, or null if the seats are unknown. Guarded by this */
+    private Map<UUID, Integer> availableSeats;
+
+    /** SKUs without free seats that were already reported. Guarded by this */
+    private final Set<UUID> reportedSkus = new HashSet<>();
+
+    /** Ids of the users waiting to be added to the license group. Guarded by this */
+    private final List<String> pendingGroupMembers = new ArrayList<>();
+
+    /**
+     * Create a new license manager.
+     * @param graphServiceClient Instance of the GraphServiceClient used to read the SKUs and assign the licenses.
+     * @param config {@link AutoLicensingConfig} containing the licensing settings.
+     */
+    private LicenseManager(GraphServiceClient<?> graphServiceClient, AutoLicensingConfig config) {
+        this.graphServiceClient = graphServiceClient;
+        this.enabled = config.isEnabled();
+        this.licenseGroupId = config.getLicenseGroupId();
+        this.defaultLicenses = enabled ? parseLicenses(config.getDefaultLicenceSkuIDs()) : Collections.emptyList();
+    }
+
+    /**
+     * Initialize the license manager and validate the configured SKUs against the subscribed SKUs of the tenant.
+     * @param graphServiceClient Instance of the GraphServiceClient used to read the SKUs and assign the licenses.
+     * @param config {@link AutoLicensingConfig} containing the licensing settings.
+     */
+    public static void init(GraphServiceClient<?> graphServiceClient, AutoLicensingConfig config) {
+        LicenseManager licenseManager = new LicenseManager(graphServiceClient, config);
+        if (licenseManager.enabled && !licenseManager.isGroupBased()) licenseManager.validateLicenses();
+        instance = licenseManager;
+    }
+
+    /**
+     * Get the shared instance of the license manager.
+     * @return Shared {@link LicenseManager}.
+     */
+    public static LicenseManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Check if licenses should be assigned to new users.
+     * @return true if auto licensing is enabled, otherwise false.
+     */
+    public boolean isEnabled() {
+        return enabled && (isGroupBased() || !defaultLicenses.isEmpty());
+    }
+
+    /**
+     * Check if licenses are assigned using group-based licensing.
+     * @return true if new users are added to the license group, otherwise false.
+     */
+    public boolean isGroupBased() {
+        return licenseGroupId != null && !licenseGroupId.isEmpty();
+    }
+
+    /**
+     * Reload the available seats of all SKUs. Should be called once before a batch of users is created.
+     */
+    public void refreshSeats() {
+        if (!isEnabled() || isGroupBased()) return;
+        try {
+            Map<UUID, Integer> seats = new HashMap<>();
+            for (SubscribedSku sku : getSubscribedSkus()) seats.put(sku.skuId, getAvailableSeats(sku));
+            synchronized (this) {
+                availableSeats = seats;
+                reportedSkus.clear();
+            }
+        } catch (ClientException ex) {
+            LOG.warn("Available license seats could not be loaded from Azure AD", ex);
+        }
+    }
+
+    /**
+     * Reserve a seat of every default license that still has free seats. Licenses without free seats are skipped,
+     * since assigning them would fail the whole request.
+     * @return Parameters for the assignLicense request, or null if no license can be assigned.
+     */
+    public synchronized UserAssignLicenseParameterSet reserveLicenses() {
+        if (!isEnabled() || isGroupBased()) return null;
+        List<AssignedLicense> licenses = new ArrayList<>(defaultLicenses.size());
+        for (AssignedLicense license : defaultLicenses) {
+            Integer seats = availableSeats != null ? availableSeats.get(license.skuId) : null;
+            if (seats != null && seats <= 0) {
+                if (reportedSkus.add(license.skuId)) {
+                    LOG.warn("No free seats left for license {}. The license is not assigned to new users",
+                            license.skuId);
+                }
+                continue;
+            }
+            if (seats != null) availableSeats.put(license.skuId, seats - 1);
+            licenses.add(license);
+        }
+        if (licenses.isEmpty()) return null;
+        UserAssignLicenseParameterSet parameterSet = new UserAssignLicenseParameterSet();
+        parameterSet.addLicenses = licenses;
+        parameterSet.removeLicenses = Collections.emptyList();
+        return parameterSet;
+    }
+
+    /**
+     * Release the seats reserved for an assignment that was not executed.
+     * @param parameterSet Parameters returned by {@link #reserveLicenses()}.
+     */
+    public synchronized void releaseLicenses(UserAssignLicenseParameterSet parameterSet) {
+        if (parameterSet == null || availableSeats == null) return;
+        for (AssignedLicense license : parameterSet.addLicenses) {
+            availableSeats.computeIfPresent(license.skuId, (skuId, seats) -> seats + 1);
+        }
+    }
+
+    /**
+     * Queue a new user for being added to the license group. The members are added in bulk once enough users
+     * were queued.
+     * @param azureUserId Id of the Azure AD user.
+     * @return Ids of the queued users that could not be added to the license group, or an empty list.
+     */
+    public List<String> addToLicenseGroup(String azureUserId) {
+        List<String> members = null;
+        synchronized (this) {
+            pendingGroupMembers.add(azureUserId);
+            if (pendingGroupMembers.size() >= MAX_GROUP_MEMBERS_PER_REQUEST) {
+                members = new ArrayList<>(pendingGroupMembers);
+                pendingGroupMembers.clear();
+            }
+        }
+        return members != null ? sendGroupMembers(members) : Collections.emptyList();
+    }
+
+    /**
+     * Add all queued users to the license group.
+     * @return Ids of the queued users that could not be added to the license group, or an empty list.
+     */
+    public List<String> flushLicenseGroup() {
+        List<String> members;
+        synchronized (this) {
+            if (pendingGroupMembers.isEmpty()) return Collections.emptyList();
+            members = new ArrayList<>(pendingGroupMembers);
+            pendingGroupMembers.clear();
+        }
+        return sendGroupMembers(members);
+    }
+
+    /**
+     * Add a single user to the license group immediately, without queueing it.
+     * @param azureUserId Id of the Azure AD user.
+     * @return true if the user was added to the license group, otherwise false.
+     */
+    public boolean addToLicenseGroupNow(String azureUserId) {
+        return sendGroupMembers(Collections.singletonList(azureUserId)).isEmpty();
+    }
+
+    /**
+     * Add the given users to the license group using a single request. If the request fails, the users are added
+     * one by one, since a single user that is already a member fails the whole request. This happens if a previous
+     * request timed out after it was executed, or if a user is retried.
+     * @param azureUserIds Ids of the Azure AD users.
+     * @return Ids of the users that could not be added to the license group, or an empty list.
+     */
+    private List<String> sendGroupMembers(List<String> azureUserIds) {
+        if (azureUserIds.size() > 1) {
+            try {
+                patchGroupMembers(azureUserIds);
+                return Collections.emptyList();
+            } catch (ClientException ex) {
+                LOG.debug("{} users could not be added to the license group {} at once. Adding them one by one",
+                        azureUserIds.size(), licenseGroupId, ex);
+            }
+        }
+
+        List<String> failedIds = new ArrayList<>();
+        for (String azureUserId : azureUserIds) {
+            try {
+                patchGroupMembers(Collections.singletonList(azureUserId));
+            } catch (ClientException ex) {
+                if (isAlreadyMember(ex)) continue;
+                LOG.warn("User {} could not be added to the license group {} and will be retried",
+                        azureUserId, licenseGroupId, ex);
+                failedIds.add(azureUserId);
+            }
+        }
+        return failedIds;
+    }
+
+    /**
+     * Add the given users to the license group by binding them to the members of the group.
+     * @param azureUserIds Ids of the Azure AD users.
+     * @throws ClientException Thrown if the users could not be added.
+     */
+    private void patchGroupMembers(List<String> azureUserIds) throws ClientException {
+        JsonArray members = new JsonArray();
+        for (String azureUserId : azureUserIds) {
+            members.add(new JsonPrimitive(graphServiceClient.getServiceRoot() + "/directoryObjects/" + azureUserId));
+        }
+        Group group = new Group();
+        group.additionalDataManager().put("members@odata.bind", members);
+        graphServiceClient.groups(licenseGroupId).buildRequest().patch(group);
+    }
+
+    /**
+     * Check if adding a user to the license group failed, because the user already is a member of the group.
+     * @param ex {@link ClientException} thrown while adding the user.
+     * @return true if the user already is a member of the group, otherwise false.
+     */
+    private static boolean isAlreadyMember(ClientException ex) {
+        if (!(ex instanceof GraphServiceException)) return false;
+        GraphError error = ((GraphServiceException) ex).getServiceError();
+        return error != null && error.message != null && error.message.contains("object references already exist");
+    }
+
+    /**
+     * Validate the configured licenses against the subscribed SKUs of the tenant. Unknown and disabled SKUs
+     * are removed, so they do not fail the assignment of the other licenses.
+     */
+    private void validateLicenses() {
+        List<SubscribedSku> subscribedSkus;
+        try {
+            subscribedSkus = getSubscribedSkus();
+        } catch (ClientException ex) {
+            LOG.warn("Subscribed licenses could not be loaded from Azure AD. The configured licenses are not validated",
+                    ex);
+            return;
+        }
+
+        Map<UUID, SubscribedSku> skusById = new HashMap<>();
+        for (SubscribedSku sku : subscribedSkus) skusById.put(sku.skuId, sku);
+
+        Map<UUID, Integer> seats = new HashMap<>();
+        defaultLicenses.removeIf(license -> {
+            SubscribedSku sku = skusById.get(license.skuId);
+            if (sku == null) {
+                LOG.warn("License {} is not subscribed by the tenant and will not be assigned", license.skuId);
+                return true;
+            }
+            if (!ENABLED_CAPABILITY_STATUS.equals(sku.capabilityStatus)) {
+                LOG.warn("License {} ({}) is {} and will not be assigned",
+                        license.skuId, sku.skuPartNumber, sku.capabilityStatus);
+                return true;
+            }
+            seats.put(sku.skuId, getAvailableSeats(sku));
+            LOG.info("License {} ({}) validated with {} free seats",
+                    license.skuId, sku.skuPartNumber, seats.get(sku.skuId));
+            return false;
+        });
+        synchronized (this) {
+            availableSeats = seats;
+        }
+    }
+
+    /**
+     * Read all SKUs subscribed by the tenant.
+     * @return List containing all subscribed SKUs.
+     */
+    private List<SubscribedSku> getSubscribedSkus() {
+        List<SubscribedSku> skus = new ArrayList<>();
+        SubscribedSkuCollectionPage page = graphServiceClient.subscribedSkus().buildRequest().get();
+        while (page != null) {
+            skus.addAll(page.getCurrentPage());
+            SubscribedSkuCollectionRequestBuilder nextPage = page.getNextPage();
+            page = nextPage != null ? nextPage.buildRequest().get() : null;
+        }
+        return skus;
+    }
+
+    /**
+     * Calculate the free seats of a SKU.
+     * @param sku Subscribed SKU.
+     * @return Amount of enabled seats that are not consumed yet.
+     */
+    private static int getAvailableSeats(SubscribedSku sku) {
+        int enabledUnits = sku.prepaidUnits != null && sku.prepaidUnits.enabled != null ? sku.prepaidUnits.enabled : 0;
+        int consumedUnits = sku.consumedUnits != null ? sku.consumedUnits : 0;
+        return enabledUnits - consumedUnits;
+    }
+
+    /**
+     * Parse the configured SKU ids into license payloads. Invalid ids are skipped.
+     * @param skuIds Configured SKU ids.
+     * @return List containing a license for every valid SKU id.
+     */
+    private static List<AssignedLicense> parseLicenses(List<String> skuIds) {
+        List<AssignedLicense> licenses = new ArrayList<>();
+        if (skuIds == null) return licenses;
+        for (String skuId : skuIds) {
+            try {
+                AssignedLicense license = new AssignedLicense();
+                license.skuId = UUID.fromString(skuId);
+                license.disabledPlans = Collections.emptyList();
+                licenses.add(license);
+            } catch (IllegalArgumentException ex) {
+                LOG.warn("Ignoring invalid license SKU id {}", skuId);
+            }
+        }
+        return licenses;
+    }
+
+}
@@ -0,0 +1,111 @@
+package de.traber_info.home.ldap2azure.msgraph;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket limiting the rate of requests sent to a single Microsoft Graph workload.
+ * A part of the bucket is reserved for the {@link GraphRequestLane#INTERACTIVE} lane, so sync requests can only use
+ * tokens above the reserve, while interactive requests can use all tokens. Sync requests also wait while interactive
+ * requests are waiting for tokens.
+ *
+ * @author Oliver Traber
+ */
+class TokenBucket {
+
+    /** Workload limited by this bucket */
+    private final GraphWorkload workload;
+
+    /** Amount of tokens added per second */
+    private final double ratePerSecond;
+
+    /** Maximum amount of tokens in the bucket */
+    private final double capacity;
+
+    /** Amount of tokens that can only be used by interactive requests */
+    private final double interactiveReserve;
+
+    /** Amount of tokens currently available. May become negative if a large batch is sent */
+    private double tokens;
+
+    /** Time the bucket was refilled the last time in nanoseconds */
+    private long lastRefill = System.nanoTime();
+
+    /** Amount of interactive requests currently waiting for tokens */
+    private int interactiveWaiting = 0;
+
+    /** Amount of sync requests currently waiting for tokens */
+    private int syncWaiting = 0;
+
+    /** Amount of tokens granted to interactive requests */
+    private long interactiveGranted = 0;
+
+    /** Amount of tokens granted to sync requests */
+    private long syncGranted = 0;
+
+    /**
+     * Create a new token bucket. The bucket holds the tokens for one second and starts full.
+     * @param workload Workload limited by this bucket.
+     * @param ratePerSecond Amount of tokens added per second.
+     * @param interactiveShare Share of the bucket that is reserved for interactive requests, between 0 and 0.9.
+     */
+    TokenBucket(GraphWorkload workload, double ratePerSecond, double interactiveShare) {
+        this.workload = workload;
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = Math.max(1, ratePerSecond);
+        this.interactiveReserve = capacity * Math.max(0, Math.min(0.9, interactiveShare));
+        this.tokens = capacity;
+    }
+
+    /**
+     * Take the given amount of tokens from the bucket, waiting until enough tokens are available.
+     * Requests needing more tokens than the bucket can hold are granted once the usable part of the bucket is full.
+     * @param lane Lane of the request.
+     * @param permits Amount of tokens needed.
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting.
+     */
+    synchronized void acquire(GraphRequestLane lane, int permits) throws InterruptedIOException {
+        boolean interactive = lane == GraphRequestLane.INTERACTIVE;
+        double threshold = interactive ? 0 : interactiveReserve;
+        double needed = threshold + Math.min(permits, capacity - threshold);
+
+        if (interactive) interactiveWaiting++; else syncWaiting++;
+        try {
+            while (true) {
+                refill();
+                boolean preempted = !interactive && interactiveWaiting > 0;
+                if (!preempted && tokens >= needed) break;
+                long waitMillis = preempted ? 10 : (long) Math.ceil((needed - tokens) * 1000 / ratePerSecond);
+                wait(Math.max(1, waitMillis));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Microsoft Graph rate limit");
+        } finally {
+            if (interactive) interactiveWaiting--; else syncWaiting--;
+            notifyAll();
+        }
+
+        tokens -= permits;
+        if (interactive) interactiveGranted += permits; else syncGranted += permits;
+    }
+
+    /**
+     * Get a snapshot of the state of the bucket.
+     * @return {@link GraphRateMetrics.BucketMetrics} containing the current state.
+     */
+    synchronized GraphRateMetrics.BucketMetrics toMetrics() {
+        refill();
+        return new GraphRateMetrics.BucketMetrics(workload, ratePerSecond, capacity, tokens,
+                interactiveWaiting, syncWaiting, interactiveGranted, syncGranted);
+    }
+
+    /**
+     * Add the tokens for the time passed since the last refill.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerSecond / 1_000_000_000d);
+        lastRefill = now;
+    }
+
+}
@@ -0,0 +1,25 @@
+package de.traber_info.home.ldap2azure.quartz;
+
+import de.traber_info.home.ldap2azure.service.AzurePurgeService;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+
+/**
+ * Quartz job to purge soft-deleted users from the deleted items of Azure AD, once their purge is due.
+ *
+ * @author Oliver Traber
+ */
+@DisallowConcurrentExecution
+public class PurgeJob implements Job {
+
+    /**
+     * Method executed by Quartz to run the job.
+     * @param jobExecutionContext Quartz context containing optional preferences.
+     */
+    @Override
+    public void execute(JobExecutionContext jobExecutionContext) {
+        AzurePurgeService.run();
+    }
+
+}
@@ -0,0 +1,36 @@
+package de.traber_info.home.ldap2azure.quartz;
+
+import de.traber_info.home.ldap2azure.service.AzureSyncService;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+
+/**
+ * Quartz job to retry users that failed to sync, once their next attempt is due.
+ *
+ * @author Oliver Traber
+ */
+@DisallowConcurrentExecution
+public class RetryJob implements Job {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(RetryJob.class.getName());
+
+    /**
+     * Method executed by Quartz to run the job.
+     * @param jobExecutionContext Quartz context containing optional preferences.
+     */
+    @Override
+    public void execute(JobExecutionContext jobExecutionContext) {
+        try {
+            new AzureSyncService().retry();
+        } catch (SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+    }
+
+}
@@ -1,7 +1,10 @@
 package de.traber_info.home.ldap2azure.quartz;
 
+import de.traber_info.home.ldap2azure.service.AzureReconcileService;
 import de.traber_info.home.ldap2azure.service.AzureSyncService;
 import de.traber_info.home.ldap2azure.service.LdapImportService;
+import de.traber_info.home.ldap2azure.service.PipelinedSyncService;
+import de.traber_info.home.ldap2azure.util.ConfigUtil;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.slf4j.Logger;
@@ -25,9 +28,17 @@ public class SyncJob implements Job {
      */
     @Override
     public void execute(JobExecutionContext jobExecutionContext) {
+        // Detect changes made in Azure AD first, so they are synced by this cycle
+        long reconciledUsers = ConfigUtil.getConfig().getGraphClientConfig().isReconcileEnabled()
+                ? AzureReconcileService.run() : 0;
+
+        if (ConfigUtil.getConfig().getGeneralConfig().isPipelinedSync()) {
+            PipelinedSyncService.run();
+            return;
+        }
         long changedUsers = LdapImportService.run();
-        // Run Azure sync if one or more users changed in the source LDAP.
-        if (changedUsers > 0) {
+        // Run Azure sync if one or more users changed in the source LDAP or in Azure AD.
+        if (changedUsers > 0 || reconciledUsers > 0) {
             try {
                 new AzureSyncService().run();
             } catch (SQLException ex) {
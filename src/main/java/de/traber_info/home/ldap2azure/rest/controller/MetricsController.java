@@ -0,0 +1,46 @@
+package de.traber_info.home.ldap2azure.rest.controller;
+
+import de.traber_info.home.ldap2azure.h2.H2Helper;
+import de.traber_info.home.ldap2azure.msgraph.GraphClientUtil;
+import de.traber_info.home.ldap2azure.msgraph.GraphHttpMonitor;
+import de.traber_info.home.ldap2azure.msgraph.GraphRateGovernor;
+import de.traber_info.home.ldap2azure.msgraph.GraphRequestLimiter;
+import de.traber_info.home.ldap2azure.msgraph.GraphTokenManager;
+import de.traber_info.home.ldap2azure.rest.anotation.CheckAuth;
+import de.traber_info.home.ldap2azure.rest.model.response.MetricsResponse;
+
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * REST controller used to expose runtime metrics.
+ *
+ * @author Oliver Traber
+ */
+@Path("/metrics")
+public class MetricsController {
+
+    /**
+     * Get the current runtime metrics.
+     * @return Returns the {@link MetricsResponse} containing the current metrics.
+     */
+    @GET
+    @CheckAuth
+    @Produces(MediaType.APPLICATION_JSON)
+    public MetricsResponse getMetrics() {
+        GraphRateGovernor rateGovernor = GraphClientUtil.getRateGovernor();
+        GraphRequestLimiter requestLimiter = GraphClientUtil.getRequestLimiter();
+        GraphHttpMonitor httpMonitor = GraphClientUtil.getHttpMonitor();
+        GraphTokenManager tokenManager = GraphClientUtil.getTokenManager();
+        return new MetricsResponse(
+                rateGovernor != null ? rateGovernor.getMetrics() : null,
+                requestLimiter != null ? requestLimiter.getMetrics() : null,
+                httpMonitor != null ? httpMonitor.getMetrics() : null,
+                tokenManager != null ? tokenManager.getMetrics() : null,
+                H2Helper.getUserDao().getCacheMetrics()
+        );
+    }
+
+}
@@ -3,15 +3,22 @@ package de.traber_info.home.ldap2azure.rest.controller;
 import com.j256.ormlite.stmt.QueryBuilder;
 import de.traber_info.home.ldap2azure.h2.H2Helper;
 import de.traber_info.home.ldap2azure.model.object.Sync;
+import de.traber_info.home.ldap2azure.model.object.SyncHold;
+import de.traber_info.home.ldap2azure.model.object.SyncPlan;
 import de.traber_info.home.ldap2azure.model.object.User;
 import de.traber_info.home.ldap2azure.rest.anotation.CheckAuth;
+import de.traber_info.home.ldap2azure.rest.anotation.CheckPermission;
 import de.traber_info.home.ldap2azure.rest.exception.GenericException;
 import de.traber_info.home.ldap2azure.rest.exception.NotFoundException;
+import de.traber_info.home.ldap2azure.rest.model.types.Permission;
+import de.traber_info.home.ldap2azure.rest.service.SyncService;
+import de.traber_info.home.ldap2azure.service.SyncPlanService;
 
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import javax.naming.NamingException;
 import java.sql.SQLException;
 import java.util.List;
 
@@ -41,6 +48,61 @@ public class SyncController {
         }
     }
 
+    /**
+     * Plan the next sync without changing anything. The users are classified by a dry run of the ldap import,
+     * but neither the database nor Azure AD are changed.
+     * @return {@link SyncPlan} containing the planned changes, the required requests and the estimated duration.
+     */
+    @GET
+    @CheckAuth
+    @Path("/plan")
+    @Produces(MediaType.APPLICATION_JSON)
+    public SyncPlan getSyncPlan() {
+        try {
+            return SyncPlanService.run();
+        } catch (NamingException | SQLException ex) {
+            throw new GenericException(Response.Status.INTERNAL_SERVER_ERROR, "internal_error", ex.getMessage());
+        }
+    }
+
+    /**
+     * Get the changes held by the circuit breaker, since they exceeded the configured limits for a single sync.
+     * @return Currently held {@link SyncHold}.
+     */
+    @GET
+    @CheckAuth
+    @Path("/hold")
+    @Produces(MediaType.APPLICATION_JSON)
+    public SyncHold getSyncHold() {
+        return SyncService.getHold();
+    }
+
+    /**
+     * Approve the held changes. A sync that may exceed the limits by the held users is started immediately.
+     * @return Approved {@link SyncHold}.
+     */
+    @POST
+    @CheckAuth
+    @CheckPermission(Permission.READ_WRITE)
+    @Path("/hold/approve")
+    @Produces(MediaType.APPLICATION_JSON)
+    public SyncHold approveSyncHold() {
+        return SyncService.approveHold();
+    }
+
+    /**
+     * Reject the held changes. Users held for deletion are restored and users held for update are marked as synced.
+     * @return Rejected {@link SyncHold}.
+     */
+    @POST
+    @CheckAuth
+    @CheckPermission(Permission.READ_WRITE)
+    @Path("/hold/reject")
+    @Produces(MediaType.APPLICATION_JSON)
+    public SyncHold rejectSyncHold() {
+        return SyncService.rejectHold();
+    }
+
     /**
      * Get a single {@link Sync} by supplying it's id.
      * @param syncId Id of the {@link Sync} you want to get.
@@ -0,0 +1,40 @@
+package de.traber_info.home.ldap2azure.rest.filter;
+
+import de.traber_info.home.ldap2azure.msgraph.GraphRequestLane;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Filter that sends all Microsoft Graph requests triggered by a REST request in the
+ * {@link GraphRequestLane#INTERACTIVE} lane, so they are preferred over the requests of a running sync.
+ *
+ * @author Oliver Traber
+ */
+@Provider
+public class GraphLaneFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    /**
+     * Filter method called by the Jersey Servlet Container when a request arrives.
+     * @param requestContext {@link ContainerRequestContext} of the request.
+     */
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        GraphRequestLane.set(GraphRequestLane.INTERACTIVE);
+    }
+
+    /**
+     * Filter method called by the Jersey Servlet Container when the response is sent.
+     * Resets the lane, since the thread is reused for other tasks.
+     * @param requestContext {@link ContainerRequestContext} of the request.
+     * @param responseContext {@link ContainerResponseContext} of the response.
+     */
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        GraphRequestLane.reset();
+    }
+
+}
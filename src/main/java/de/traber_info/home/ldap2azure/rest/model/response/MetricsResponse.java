@@ -0,0 +1,89 @@
+package de.traber_info.home.ldap2azure.rest.model.response;
+
+import de.traber_info.home.ldap2azure.h2.UserCacheMetrics;
+import de.traber_info.home.ldap2azure.msgraph.GraphHttpMetrics;
+import de.traber_info.home.ldap2azure.msgraph.GraphRateMetrics;
+import de.traber_info.home.ldap2azure.msgraph.GraphTokenMetrics;
+
+import java.util.List;
+
+/**
+ * Response model containing the runtime metrics of ldap2azure.
+ *
+ * @author Oliver Traber
+ */
+public class MetricsResponse {
+
+    /** Metrics of the rate governor used for requests to Microsoft Graph */
+    private final GraphRateMetrics graph;
+
+    /** State of the token buckets limiting the requests to Microsoft Graph */
+    private final List<GraphRateMetrics.BucketMetrics> rateLimits;
+
+    /** State of the http client used to contact Microsoft Graph */
+    private final GraphHttpMetrics http;
+
+    /** State of the access token used for requests to Microsoft Graph */
+    private final GraphTokenMetrics token;
+
+    /** State of the in-memory cache of the users stored in the database */
+    private final UserCacheMetrics userCache;
+
+    /**
+     * Create a new metrics response.
+     * @param graph Metrics of the rate governor used for requests to Microsoft Graph.
+     * @param rateLimits State of the token buckets limiting the requests to Microsoft Graph.
+     * @param http State of the http client used to contact Microsoft Graph.
+     * @param token State of the access token used for requests to Microsoft Graph.
+     * @param userCache State of the in-memory cache of the users stored in the database.
+     */
+    public MetricsResponse(GraphRateMetrics graph, List<GraphRateMetrics.BucketMetrics> rateLimits,
+                           GraphHttpMetrics http, GraphTokenMetrics token, UserCacheMetrics userCache) {
+        this.graph = graph;
+        this.rateLimits = rateLimits;
+        this.http = http;
+        this.token = token;
+        this.userCache = userCache;
+    }
+
+    /**
+     * Get the metrics of the rate governor used for requests to Microsoft Graph.
+     * @return Metrics of the rate governor, or null if the Microsoft Graph client is not initialized.
+     */
+    public GraphRateMetrics getGraph() {
+        return graph;
+    }
+
+    /**
+     * Get the state of the token buckets limiting the requests to Microsoft Graph.
+     * @return State of the token buckets, or null if the Microsoft Graph client is not initialized.
+     */
+    public List<GraphRateMetrics.BucketMetrics> getRateLimits() {
+        return rateLimits;
+    }
+
+    /**
+     * Get the state of the http client used to contact Microsoft Graph.
+     * @return State of the http client, or null if the Microsoft Graph client is not initialized.
+     */
+    public GraphHttpMetrics getHttp() {
+        return http;
+    }
+
+    /**
+     * Get the state of the access token used for requests to Microsoft Graph.
+     * @return State of the access token, or null if the Microsoft Graph client is not initialized.
+     */
+    public GraphTokenMetrics getToken() {
+        return token;
+    }
+
+    /**
+     * Get the state of the in-memory cache of the users stored in the database.
+     * @return State of the user cache.
+     */
+    public UserCacheMetrics getUserCache() {
+        return userCache;
+    }
+
+}
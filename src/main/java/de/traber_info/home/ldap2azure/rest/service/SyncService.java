@@ -0,0 +1,69 @@
+package de.traber_info.home.ldap2azure.rest.service;
+
+import de.traber_info.home.ldap2azure.model.object.SyncHold;
+import de.traber_info.home.ldap2azure.rest.exception.GenericException;
+import de.traber_info.home.ldap2azure.rest.exception.NotFoundException;
+import de.traber_info.home.ldap2azure.service.AzureSyncService;
+import de.traber_info.home.ldap2azure.service.SyncCircuitBreaker;
+import jakarta.ws.rs.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+
+/**
+ * Service to handle all backend sync actions.
+ *
+ * @author Oliver Traber
+ */
+public class SyncService {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(SyncService.class.getName());
+
+    /**
+     * Get the changes currently held by the circuit breaker.
+     * @return Currently held {@link SyncHold}.
+     */
+    public static SyncHold getHold() {
+        SyncHold hold = SyncCircuitBreaker.getHold();
+        if (hold == null) throw new NotFoundException("sync_not_held");
+        return hold;
+    }
+
+    /**
+     * Approve the held changes and start a sync in the background, so they don't have to wait for the next
+     * scheduled sync. The sync waits for a running sync to finish first.
+     * @return Approved {@link SyncHold}.
+     */
+    public static SyncHold approveHold() {
+        SyncHold hold = SyncCircuitBreaker.approve();
+        if (hold == null) throw new NotFoundException("sync_not_held");
+        Thread syncThread = new Thread(() -> {
+            try {
+                new AzureSyncService().run();
+            } catch (SQLException ex) {
+                LOG.error("An unexpected error occurred", ex);
+            }
+        }, "approved-sync");
+        syncThread.start();
+        return hold;
+    }
+
+    /**
+     * Reject the held changes. Held deletes are discarded by restoring the users, held updates by marking the users
+     * as synced.
+     * @return Rejected {@link SyncHold}.
+     */
+    public static SyncHold rejectHold() {
+        SyncHold hold;
+        try {
+            hold = AzureSyncService.rejectHold();
+        } catch (SQLException ex) {
+            throw new GenericException(Response.Status.INTERNAL_SERVER_ERROR, "internal_error", ex.getMessage());
+        }
+        if (hold == null) throw new NotFoundException("sync_not_held");
+        return hold;
+    }
+
+}
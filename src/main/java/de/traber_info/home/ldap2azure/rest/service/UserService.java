@@ -1,7 +1,6 @@
 package de.traber_info.home.ldap2azure.rest.service;
 
 import com.microsoft.graph.http.GraphServiceException;
-import com.microsoft.graph.models.AssignedLicense;
 import com.microsoft.graph.models.PasswordProfile;
 import com.microsoft.graph.models.UserAssignLicenseParameterSet;
 import com.microsoft.graph.requests.GraphServiceClient;
@@ -13,6 +12,7 @@ import de.traber_info.home.ldap2azure.model.type.ChangeState;
 import de.traber_info.home.ldap2azure.model.type.SyncState;
 import de.traber_info.home.ldap2azure.msgraph.CustomGraphLogger;
 import de.traber_info.home.ldap2azure.msgraph.GraphClientUtil;
+import de.traber_info.home.ldap2azure.msgraph.LicenseManager;
 import de.traber_info.home.ldap2azure.rest.exception.BadRequestException;
 import de.traber_info.home.ldap2azure.rest.exception.GenericException;
 import de.traber_info.home.ldap2azure.rest.exception.NotFoundException;
@@ -24,7 +24,6 @@ import jakarta.ws.rs.core.Response;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.UUID;
 
 /**
  * Service to handle all backend user actions.
@@ -82,23 +81,25 @@ public class UserService {
                     "error_from_azure", ex.getServiceError().message);
         }
 
-        // Assign default licence to user
-        if (ConfigUtil.getConfig().getAutoLicencingConfig().isEnabled()) {
-            List<AssignedLicense> addLicensesList = new ArrayList<>();
-            List<UUID> removeLicensesList = new ArrayList<>();
-            if (ConfigUtil.getConfig().getAutoLicencingConfig().isEnabled()) {
-                for (String licenseSku : ConfigUtil.getConfig().getAutoLicencingConfig().getDefaultLicenceSkuIDs()) {
-                    AssignedLicense license = new AssignedLicense();
-                    license.skuId = UUID.fromString(licenseSku);
-                    addLicensesList.add(license);
-                }
+        // Assign default licenses to user
+        LicenseManager licenseManager = LicenseManager.getInstance();
+        UserAssignLicenseParameterSet licenseParameterSet = licenseManager != null
+                ? licenseManager.reserveLicenses() : null;
+        if (licenseParameterSet != null) {
+            try {
+                msGraphServiceClient.users(id).assignLicense(licenseParameterSet).buildRequest().post();
+            } catch (GraphServiceException ex) {
+                licenseManager.releaseLicenses(licenseParameterSet);
+                throw ex;
             }
-
-            UserAssignLicenseParameterSet assignLicenseParameterSet = new UserAssignLicenseParameterSet();
-            assignLicenseParameterSet.addLicenses = addLicensesList;
-            assignLicenseParameterSet.removeLicenses = removeLicensesList;
-
-            msGraphServiceClient.users(id).assignLicense(assignLicenseParameterSet).buildRequest().post();
+        } else if (licenseManager != null && licenseManager.isEnabled() && licenseManager.isGroupBased()
+                && !licenseManager.addToLicenseGroupNow(id)) {
+            // The user stays pending for creation, so it is added to the license group by the next sync
+            user.setAzureImmutableId(id);
+            user.setSyncState(SyncState.PENDING);
+            userDAO.update(user);
+            throw new GenericException(Response.Status.INTERNAL_SERVER_ERROR,
+                    "error_from_azure", "User could not be added to the license group");
         }
 
         user.setAzureImmutableId(id);
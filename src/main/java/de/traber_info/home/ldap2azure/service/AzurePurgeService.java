@@ -0,0 +1,133 @@
+package de.traber_info.home.ldap2azure.service;
+
+import com.microsoft.graph.http.HttpMethod;
+import com.microsoft.graph.requests.GraphServiceClient;
+import de.traber_info.home.ldap2azure.h2.H2Helper;
+import de.traber_info.home.ldap2azure.h2.dao.PurgeEntryDAOImpl;
+import de.traber_info.home.ldap2azure.model.config.GraphClientConfig;
+import de.traber_info.home.ldap2azure.model.object.PurgeEntry;
+import de.traber_info.home.ldap2azure.msgraph.GraphBatchExecutor;
+import de.traber_info.home.ldap2azure.msgraph.GraphBatchStep;
+import de.traber_info.home.ldap2azure.msgraph.GraphClientUtil;
+import de.traber_info.home.ldap2azure.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service used to remove soft-deleted users from the deleted items of Azure AD, if deleteBehavior HARD is configured.
+ * The sync only soft deletes users and queues their purge, so the purges can be sent in batches of their own
+ * once Azure AD has propagated the soft deletes, instead of racing them inside the same batch.
+ *
+ * @author Oliver Traber
+ */
+public class AzurePurgeService {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(AzurePurgeService.class.getName());
+
+    /** Maximum amount of users purged by a single run */
+    private static final long PURGE_BATCH_SIZE = 5000;
+
+    /** Maximum amount of attempts to purge a user, before it is left to the automatic cleanup of Azure AD */
+    private static final int MAX_PURGE_ATTEMPTS = 5;
+
+    /** Instance of the PurgeEntryDAO used to access the purge queue */
+    private final PurgeEntryDAOImpl purgeDAO = H2Helper.getPurgeEntryDao();
+
+    /** Instance of the GraphServiceClient used to purge the users */
+    private final GraphServiceClient<?> msGraphServiceClient = GraphClientUtil.getGraphServiceClient();
+
+    /** Graph client settings containing the concurrency limit and delay of the purges */
+    private final GraphClientConfig graphClientConfig = ConfigUtil.getConfig().getGraphClientConfig();
+
+    /** Entries that were purged or given up and should be removed from the queue */
+    private final List<PurgeEntry> finishedEntries = new ArrayList<>();
+
+    /** Entries that failed and should be retried later */
+    private final List<PurgeEntry> failedEntries = new ArrayList<>();
+
+    /** Amount of users purged by this run */
+    private long purgedUsers = 0L;
+
+    /**
+     * Purge all users whose purge is due.
+     * @return Amount of users that were purged.
+     */
+    public static synchronized long run() {
+        return new AzurePurgeService().purge();
+    }
+
+    /**
+     * Send the due purges in batches and update the purge queue with the results.
+     * A user that is not found in the deleted items yet is retried later, since the soft delete may not have been
+     * propagated, until the maximum amount of attempts is reached.
+     * @return Amount of users that were purged.
+     */
+    private long purge() {
+        List<PurgeEntry> dueEntries = purgeDAO.getDue(LocalDateTime.now(), PURGE_BATCH_SIZE);
+        if (dueEntries.isEmpty()) return 0;
+        LOG.info("Purging {} soft-deleted users from Azure AD...", dueEntries.size());
+
+        int maxConcurrentPurges = graphClientConfig.getMaxConcurrentPurges();
+        SyncExecutor syncExecutor = new SyncExecutor(maxConcurrentPurges);
+        GraphBatchExecutor batchExecutor = new GraphBatchExecutor(msGraphServiceClient,
+                syncExecutor.limitedTo(maxConcurrentPurges));
+        try {
+            for (PurgeEntry entry : dueEntries) {
+                GraphBatchStep purgeStep = new GraphBatchStep(
+                        msGraphServiceClient.directory().deletedItems(entry.getId()).buildRequest(),
+                        HttpMethod.DELETE, null);
+                batchExecutor.add(result -> {
+                    if (result.isSuccessful(0)) {
+                        finish(entry, true);
+                        return;
+                    }
+                    if (entry.getAttempts() + 1 >= MAX_PURGE_ATTEMPTS) {
+                        LOG.warn("User {} could not be purged from the deleted items of Azure AD after {} attempts " +
+                                "and is left to the automatic cleanup of Azure AD: {}",
+                                entry.getDisplayName(), MAX_PURGE_ATTEMPTS, result.getErrorMessage(0));
+                        finish(entry, false);
+                        return;
+                    }
+                    LOG.debug("User {} could not be purged yet and will be retried: {}",
+                            entry.getDisplayName(), result.getErrorMessage(0));
+                    fail(entry, result.getErrorMessage(0));
+                }, purgeStep);
+            }
+            batchExecutor.flush();
+        } finally {
+            syncExecutor.awaitCompletion();
+            syncExecutor.shutdown();
+        }
+
+        purgeDAO.deleteAll(finishedEntries);
+        purgeDAO.updateAll(failedEntries);
+        LOG.info("Purge finished. Result: {} PURGED, {} RETRYING", purgedUsers, failedEntries.size());
+        return purgedUsers;
+    }
+
+    /**
+     * Remove an entry from the queue after the run.
+     * @param entry {@link PurgeEntry} that was purged or given up.
+     * @param purged true if the user was purged.
+     */
+    private synchronized void finish(PurgeEntry entry, boolean purged) {
+        finishedEntries.add(entry);
+        if (purged) purgedUsers++;
+    }
+
+    /**
+     * Retry an entry later, with a delay that doubles with every failed attempt.
+     * @param entry {@link PurgeEntry} that could not be purged.
+     * @param error Error message of the failed attempt.
+     */
+    private synchronized void fail(PurgeEntry entry, String error) {
+        entry.recordFailure(error, graphClientConfig.getPurgeDelay());
+        failedEntries.add(entry);
+    }
+
+}
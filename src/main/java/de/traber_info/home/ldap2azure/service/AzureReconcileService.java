@@ -0,0 +1,266 @@
+package de.traber_info.home.ldap2azure.service;
+
+import com.microsoft.graph.core.ClientException;
+import com.microsoft.graph.http.GraphServiceException;
+import com.microsoft.graph.requests.GraphServiceClient;
+import com.microsoft.graph.requests.UserDeltaCollectionPage;
+import com.microsoft.graph.requests.UserDeltaCollectionRequestBuilder;
+import de.traber_info.home.ldap2azure.h2.H2Helper;
+import de.traber_info.home.ldap2azure.h2.dao.UserDAOImpl;
+import de.traber_info.home.ldap2azure.h2.dao.WatermarkDAOImpl;
+import de.traber_info.home.ldap2azure.model.object.User;
+import de.traber_info.home.ldap2azure.model.type.ChangeState;
+import de.traber_info.home.ldap2azure.model.type.SyncState;
+import de.traber_info.home.ldap2azure.model.type.UserAttribute;
+import de.traber_info.home.ldap2azure.msgraph.GraphClientUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Service used to detect changes made to the synced users in Azure AD outside of ldap2azure.
+ * The changes are pulled incrementally using the users delta query of Microsoft Graph. The delta link returned
+ * by the last page is stored as watermark, so every run only reads the users changed since the previous run.
+ * Only the very first run, or a run after the delta link expired, has to read all users of the tenant.
+ *
+ * @author Oliver Traber
+ */
+public class AzureReconcileService {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(AzureReconcileService.class.getName());
+
+    /** Key of the watermark holding the delta link of the last reconciliation */
+    private static final String DELTA_WATERMARK_KEY = "graph-delta:users";
+
+    /** Attributes of the Azure AD users that are read by the delta query */
+    private static final String SELECT_EXPRESSION =
+            "id,onPremisesImmutableId,givenName,surname,displayName,mailNickname,userPrincipalName";
+
+    /** Name of the annotation Microsoft Graph adds to users that were removed */
+    private static final String REMOVED_ANNOTATION = "@removed";
+
+    /** Amount of users whose attributes were changed in Azure AD */
+    private long changedUsers = 0L;
+    /** Amount of users that were deleted in Azure AD */
+    private long deletedUsers = 0L;
+    /** Amount of users that conflict with a user in Azure AD */
+    private long conflictingUsers = 0L;
+
+    /** Instance of the UserDAO used to access the database */
+    private final UserDAOImpl userDAO = H2Helper.getUserDao();
+
+    /** Instance of the GraphServiceClient used to read the changes from Azure AD */
+    private final GraphServiceClient<?> msGraphServiceClient = GraphClientUtil.getGraphServiceClient();
+
+    /**
+     * Run a reconciliation of the local database with the changes made in Azure AD since the last run.
+     * @return Amount of users that have to be synced again because of changes in Azure AD.
+     */
+    public static synchronized long run() {
+        AzureSyncService.IMPORT_LOCK.lock();
+        try {
+            return new AzureReconcileService().reconcile();
+        } catch (ClientException | SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        } finally {
+            AzureSyncService.IMPORT_LOCK.unlock();
+        }
+        return 0;
+    }
+
+    /**
+     * Read all changes since the last run and apply them to the local database page by page.
+     * The new delta link is only stored once all pages were processed, so a failed run is repeated completely.
+     * @return Amount of users that have to be synced again because of changes in Azure AD.
+     * @throws SQLException Thrown if an error occurs while accessing the database.
+     */
+    private long reconcile() throws SQLException {
+        WatermarkDAOImpl watermarkDao = H2Helper.getWatermarkDao();
+        String deltaLink = watermarkDao.getValue(DELTA_WATERMARK_KEY);
+
+        UserDeltaCollectionPage page;
+        try {
+            page = getFirstPage(deltaLink);
+        } catch (GraphServiceException ex) {
+            // Microsoft Graph answers with 410 Gone if the delta link expired
+            if (deltaLink == null || ex.getResponseCode() != 410) throw ex;
+            LOG.warn("Stored delta link expired. Reading all users from Azure AD");
+            deltaLink = null;
+            page = getFirstPage(null);
+        }
+        LOG.info("Running {} reconciliation with Azure AD...", deltaLink == null ? "initial" : "incremental");
+
+        while (true) {
+            reconcilePage(page.getCurrentPage());
+            if (page.getNextPage() == null) break;
+            page = page.getNextPage().buildRequest().get();
+        }
+        if (page.deltaLink() != null) watermarkDao.setValue(DELTA_WATERMARK_KEY, page.deltaLink());
+
+        LOG.info("Reconciliation with Azure AD finished. Result: {} CHANGED, {} DELETED, {} CONFLICTING",
+                changedUsers, deletedUsers, conflictingUsers);
+        return changedUsers + deletedUsers + conflictingUsers;
+    }
+
+    /**
+     * Request the first page of the delta query.
+     * @param deltaLink Delta link of the last run, or null if all users should be read.
+     * @return First page of changed users.
+     */
+    private UserDeltaCollectionPage getFirstPage(String deltaLink) {
+        if (deltaLink == null) {
+            return msGraphServiceClient.users().delta().buildRequest().select(SELECT_EXPRESSION).get();
+        }
+        return new UserDeltaCollectionRequestBuilder(deltaLink, msGraphServiceClient, null).buildRequest().get();
+    }
+
+    /**
+     * Compare a single page of changed Azure AD users with the local database.
+     * Users are matched by their azureImmutableId. Azure AD users that are not linked to a local user are matched
+     * by their onPremisesImmutableId to detect conflicts with local users that were not created yet.
+     * @param azureUsers Changed Azure AD users of the current page.
+     * @throws SQLException Thrown if an error occurs while accessing the database.
+     */
+    private void reconcilePage(List<com.microsoft.graph.models.User> azureUsers) throws SQLException {
+        List<String> azureIds = new ArrayList<>(azureUsers.size());
+        for (com.microsoft.graph.models.User azureUser : azureUsers) azureIds.add(azureUser.id);
+        Map<String, User> linkedUsers = userDAO.getByAzureImmutableIds(azureIds);
+
+        Map<String, com.microsoft.graph.models.User> unlinkedAzureUsers = new HashMap<>();
+        for (com.microsoft.graph.models.User azureUser : azureUsers) {
+            if (!linkedUsers.containsKey(azureUser.id) && !isRemoved(azureUser)
+                    && azureUser.onPremisesImmutableId != null) {
+                unlinkedAzureUsers.put(azureUser.onPremisesImmutableId, azureUser);
+            }
+        }
+        Map<String, User> unlinkedUsers = userDAO.getByOnPremisesImmutableIds(unlinkedAzureUsers.keySet());
+
+        List<User> updatedUsers = new ArrayList<>();
+        List<User> removedUsers = new ArrayList<>();
+        for (com.microsoft.graph.models.User azureUser : azureUsers) {
+            User user = linkedUsers.get(azureUser.id);
+            if (user == null) {
+                user = unlinkedUsers.get(azureUser.onPremisesImmutableId);
+                if (user != null && !isRemoved(azureUser) && reconcileUnlinkedUser(user, azureUser)) {
+                    updatedUsers.add(user);
+                }
+                continue;
+            }
+            if (isRemoved(azureUser)) {
+                if (user.getChangeState() == ChangeState.DELETED) {
+                    // The user was deleted in both directories, so it does not have to be synced anymore
+                    removedUsers.add(user);
+                    continue;
+                }
+                LOG.warn("User {} was deleted in Azure AD outside of ldap2azure and was marked as failed. " +
+                        "The conflict can be resolved using the REST api", user.getDisplayName());
+                markConflicting(user);
+                updatedUsers.add(user);
+                deletedUsers++;
+                continue;
+            }
+            // Users that are pending for deletion or were never created successfully are not reset
+            if (user.getChangeState() == ChangeState.DELETED || user.getChangeState() == ChangeState.NEW) continue;
+            Set<UserAttribute> changedAttributes = getChangedAttributes(user, azureUser);
+            if (changedAttributes.isEmpty()) continue;
+            LOG.info("User {} was changed in Azure AD outside of ldap2azure. Attributes {} are reset by the next sync",
+                    user.getDisplayName(), changedAttributes);
+            markChanged(user, changedAttributes);
+            updatedUsers.add(user);
+            changedUsers++;
+        }
+
+        if (!userDAO.updateAll(updatedUsers) || !userDAO.deleteAll(removedUsers)) {
+            throw new SQLException("Failed to write " + updatedUsers.size() + " reconciled users to the database");
+        }
+    }
+
+    /**
+     * Check an Azure AD user that has the onPremisesImmutableId of a local user, but is not linked to it.
+     * @param user Local {@link User} with the same onPremisesImmutableId.
+     * @param azureUser Azure AD user that is not linked to the local user.
+     * @return true if the local user was changed and has to be written to the database, otherwise false.
+     */
+    private boolean reconcileUnlinkedUser(User user, com.microsoft.graph.models.User azureUser) {
+        if (user.getAzureImmutableId() != null) {
+            LOG.warn("Azure AD user {} has the same onPremisesImmutableId as user {}, which is linked to {}",
+                    azureUser.id, user.getDisplayName(), user.getAzureImmutableId());
+            conflictingUsers++;
+            return false;
+        }
+        if (user.getSyncState() == SyncState.FAILED) return false;
+        // Creating the user would fail, since the onPremisesImmutableId is already taken
+        LOG.warn("User {} already exists in Azure AD with id {} and was marked as failed. " +
+                "The conflict can be resolved using the REST api", user.getDisplayName(), azureUser.id);
+        markConflicting(user);
+        conflictingUsers++;
+        return true;
+    }
+
+    /**
+     * Get the attributes of the local user that differ from the Azure AD user.
+     * Attributes not returned by the delta query are ignored, since only changed attributes have to be returned.
+     * @param user Local {@link User}.
+     * @param azureUser Azure AD user linked to the local user.
+     * @return Set containing all attributes that were changed in Azure AD.
+     */
+    private static Set<UserAttribute> getChangedAttributes(User user, com.microsoft.graph.models.User azureUser) {
+        User azureState = User.fromAzureUser(azureUser);
+        Set<UserAttribute> changedAttributes = EnumSet.noneOf(UserAttribute.class);
+        for (UserAttribute attribute : UserAttribute.values()) {
+            String azureValue = azureState.getAttributeValue(attribute);
+            if (azureValue != null && !Objects.equals(azureValue, user.getAttributeValue(attribute))) {
+                changedAttributes.add(attribute);
+            }
+        }
+        return changedAttributes;
+    }
+
+    /**
+     * Mark a local user as changed, so the changed attributes are reset to the values of the source ldap.
+     * @param user Local {@link User} that should be marked.
+     * @param changedAttributes Attributes that were changed in Azure AD.
+     */
+    private static void markChanged(User user, Set<UserAttribute> changedAttributes) {
+        boolean pendingChange = user.getChangeState() == ChangeState.CHANGED && user.getSyncState() != SyncState.OK;
+        if (pendingChange && user.getChangedAttributes() == null) {
+            // All attributes are already pending for synchronization
+            changedAttributes = null;
+        } else if (pendingChange) {
+            changedAttributes.addAll(user.getChangedAttributes());
+        }
+        user.setChangeState(ChangeState.CHANGED);
+        user.setSyncState(SyncState.PENDING);
+        user.setChangedAttributes(changedAttributes);
+    }
+
+    /**
+     * Mark a local user as failed new user, so the conflict can be resolved using the REST api.
+     * @param user Local {@link User} that should be marked.
+     */
+    private static void markConflicting(User user) {
+        user.setAzureImmutableId(null);
+        user.setChangeState(ChangeState.NEW);
+        user.setSyncState(SyncState.FAILED);
+        user.setChangedAttributes(null);
+    }
+
+    /**
+     * Check if the delta query reported the given user as removed.
+     * @param azureUser Azure AD user returned by the delta query.
+     * @return true if the user was deleted, otherwise false.
+     */
+    private static boolean isRemoved(com.microsoft.graph.models.User azureUser) {
+        return azureUser.additionalDataManager().containsKey(REMOVED_ANNOTATION);
+    }
+
+}
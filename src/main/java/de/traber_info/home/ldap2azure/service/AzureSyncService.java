@@ -2,18 +2,32 @@ package de.traber_info.home.ldap2azure.service;
 
 import com.j256.ormlite.stmt.QueryBuilder;
 import com.microsoft.graph.core.ClientException;
-import com.microsoft.graph.models.AssignedLicense;
 import com.microsoft.graph.models.PasswordProfile;
+import com.microsoft.graph.http.HttpMethod;
 import com.microsoft.graph.models.UserAssignLicenseParameterSet;
 import com.microsoft.graph.requests.GraphServiceClient;
+import com.microsoft.graph.requests.UserAssignLicenseRequest;
 import de.traber_info.home.ldap2azure.h2.H2Helper;
+import de.traber_info.home.ldap2azure.h2.dao.PurgeEntryDAOImpl;
+import de.traber_info.home.ldap2azure.h2.dao.RetryEntryDAOImpl;
 import de.traber_info.home.ldap2azure.h2.dao.UserDAOImpl;
+import de.traber_info.home.ldap2azure.model.config.GraphClientConfig;
+import de.traber_info.home.ldap2azure.model.object.PurgeEntry;
+import de.traber_info.home.ldap2azure.model.object.RetryEntry;
 import de.traber_info.home.ldap2azure.model.object.Sync;
+import de.traber_info.home.ldap2azure.model.object.SyncHold;
 import de.traber_info.home.ldap2azure.model.object.User;
 import de.traber_info.home.ldap2azure.model.type.ChangeState;
 import de.traber_info.home.ldap2azure.model.type.DeleteBehavior;
+import de.traber_info.home.ldap2azure.model.type.SyncOperation;
+import de.traber_info.home.ldap2azure.model.type.SyncPhase;
+import de.traber_info.home.ldap2azure.model.type.SyncRunState;
 import de.traber_info.home.ldap2azure.model.type.SyncState;
-import de.traber_info.home.ldap2azure.msgraph.CustomGraphLogger;
+import de.traber_info.home.ldap2azure.msgraph.AzureUserIndex;
+import de.traber_info.home.ldap2azure.msgraph.GraphBatchExecutor;
+import de.traber_info.home.ldap2azure.msgraph.GraphBatchStep;
+import de.traber_info.home.ldap2azure.msgraph.GraphRateGovernor;
+import de.traber_info.home.ldap2azure.msgraph.LicenseManager;
 import de.traber_info.home.ldap2azure.util.ConfigUtil;
 import de.traber_info.home.ldap2azure.msgraph.GraphClientUtil;
 import de.traber_info.home.ldap2azure.util.RandomString;
@@ -23,8 +37,15 @@ import org.slf4j.LoggerFactory;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service used to synchronize users and changes from the ldap2azure database to Azure AD.
@@ -39,180 +60,904 @@ public class AzureSyncService {
     /** RandomString used to generate random passwords for new users */
     private static final RandomString random = new RandomString(24);
 
+    /** Time in milliseconds after which incomplete batches are sent while waiting for the import in pipelined mode */
+    private static final long PIPELINE_FLUSH_INTERVAL = 500;
+
+    /** Maximum amount of failed users retried by a single retry run */
+    private static final long RETRY_BATCH_SIZE = 5000;
+
+    /** Lock ensuring that syncs and retries never touch the same users at the same time */
+    private static final ReentrantLock RUN_LOCK = new ReentrantLock();
+
+    /**
+     * Lock held by ldap imports and Azure AD reconciles. Retries write back the whole users they loaded, so they
+     * must never run while the users are changed by one of them.
+     */
+    static final ReentrantLock IMPORT_LOCK = new ReentrantLock();
+
     /** Amount of users created by the sync */
-    private long usersCreated = 0L;
+    private final LongAdder usersCreated = new LongAdder();
     /** Amount of users changed by this sync */
-    private long usersChanged = 0L;
+    private final LongAdder usersChanged = new LongAdder();
     /** Amount of users deleted by this sync */
-    private long usersDeleted = 0L;
+    private final LongAdder usersDeleted = new LongAdder();
     /** Amount of users that failed to sync */
-    private long usersFailing = 0L;
+    private final LongAdder usersFailing = new LongAdder();
 
     /** Instance of the UserDAO used to access the database */
     private final UserDAOImpl userDAO = H2Helper.getUserDao();
 
+    /** Instance of the RetryEntryDAO used to record failed operations */
+    private final RetryEntryDAOImpl retryDAO = H2Helper.getRetryEntryDao();
+
+    /** Instance of the PurgeEntryDAO used to queue soft-deleted users for being purged */
+    private final PurgeEntryDAOImpl purgeDAO = H2Helper.getPurgeEntryDao();
+
     /** Instance of the GraphServiceClient used to make changed in Azure AD */
     private final GraphServiceClient msGraphServiceClient = GraphClientUtil.getGraphServiceClient();
 
+    /** Graph client settings containing the concurrency limits of the sync */
+    private final GraphClientConfig graphClientConfig = ConfigUtil.getConfig().getGraphClientConfig();
+
+    /** Worker pool used to send the batches of this sync */
+    private final SyncExecutor syncExecutor = new SyncExecutor(graphClientConfig.getSyncThreads());
+
+    /** Users changed by this sync that were not written to the database yet */
+    private final List<User> pendingUpdates = new ArrayList<>();
+
+    /** Amount of users created in Azure AD by this sync that were not written to the database yet */
+    private int pendingCreates = 0;
+
+    /** Users deleted by this sync that were not removed from the database yet */
+    private final List<User> pendingDeletes = new ArrayList<>();
+
+    /** Soft-deleted users of this sync that were not written to the purge queue yet */
+    private final List<PurgeEntry> pendingPurges = new ArrayList<>();
+
+    /** Failed operations of this sync that were not written to the retry queue yet */
+    private final List<RetryEntry> pendingFailures = new ArrayList<>();
+
+    /** Ids of the users with a failed operation in the retry queue */
+    private Set<String> queuedRetryIds = new HashSet<>();
+
+    /** License manager used to assign licenses to new users */
+    private final LicenseManager licenseManager = LicenseManager.getInstance();
+
+    /** Index of the existing Azure AD users used to detect conflicts before users are created */
+    private AzureUserIndex conflictIndex;
+
+    /** Boolean representing if the creation of users was already prepared by this sync */
+    private boolean createsPrepared = false;
+
+    /** Journal entry of this sync, updated at every checkpoint */
+    private Sync sync;
+
+    /** Boolean representing if this sync resumes an interrupted sync */
+    private boolean resumed = false;
+
+    /** Boolean representing if this sync only retries users from the retry queue */
+    private boolean retrying = false;
+
+    /** Amount of users this sync may still update before the circuit breaker holds the remaining updates */
+    private long remainingUpdates = SyncCircuitBreaker.UNLIMITED;
+
+    /** Amount of users whose update was held by the circuit breaker */
+    private long heldChanges = 0L;
+
+    /** Amount of users whose deletion was held by the circuit breaker */
+    private long heldDeletes = 0L;
+
     /**
      * Run an sync with Azure AD.
+     * Creates, updates and deletes are run one after another, so every user is only touched by a single operation
+     * at a time. The batches of each operation are sent concurrently using the worker pool.
      */
     public void run() throws SQLException {
+        run(null);
+    }
+
+    /**
+     * Run an sync with Azure AD, that consumes the users published by a running import first.
+     * Every user is only published once per import, so creates and updates can be sent concurrently.
+     * Once the import finished, pending users that were not published, e.g. because they failed in a previous sync,
+     * are synced as usual. Deleted users are only known after the import finished and are synced last.
+     * @param pipeline {@link SyncPipeline} the import publishes the changed users to, or null if only the
+     *                 pending users in the database should be synced.
+     */
+    public void run(SyncPipeline pipeline) throws SQLException {
         LOG.info("Beginning sync to Azure AD...");
 
-        String syncId = UUID.randomUUID().toString();
-        LocalDateTime syncBegin = LocalDateTime.now();
+        SyncPhase firstPhase = pipeline != null ? SyncPhase.PIPELINE : SyncPhase.CREATE;
+        sync = new Sync(UUID.randomUUID().toString(), LocalDateTime.now(), firstPhase);
+        H2Helper.getSyncDao().persist(sync);
 
-        createUsers(syncId);
-        updateUsers(syncId);
-        deleteUsers();
+        execute(firstPhase, pipeline, null);
+    }
 
-        LocalDateTime syncEnd = LocalDateTime.now();
+    /**
+     * Resume a sync that was interrupted by a crash or a forced shutdown, beginning with the phase of its
+     * last checkpoint. Users whose results were written to the database before the last checkpoint are not
+     * pending anymore and are skipped. Users created in Azure AD after the last checkpoint are matched to the
+     * existing Azure AD user by their onPremisesImmutableId and user principal name, if it was created after the
+     * interrupted sync began, instead of being created a second time. Their licenses are assigned afterwards.
+     * @param interruptedSync {@link Sync} that was interrupted.
+     */
+    public void resume(Sync interruptedSync) throws SQLException {
+        SyncPhase firstPhase = interruptedSync.getPhase() == null || interruptedSync.getPhase() == SyncPhase.PIPELINE
+                ? SyncPhase.CREATE : interruptedSync.getPhase();
+        LOG.info("Resuming interrupted sync {} from its last checkpoint at {} in phase {}...",
+                interruptedSync.getId(), interruptedSync.getLastCheckpoint(), firstPhase.toValue());
+
+        sync = interruptedSync;
+        resumed = true;
+        usersCreated.add(interruptedSync.getUsersCreated());
+        usersChanged.add(interruptedSync.getUsersChanged());
+        usersDeleted.add(interruptedSync.getUsersDeleted());
+        usersFailing.add(interruptedSync.getUsersFailed());
+
+        execute(firstPhase, null, null);
+    }
 
-        H2Helper.getSyncDao().persist(
-                new Sync(syncId, syncBegin, syncEnd, usersCreated, usersChanged, usersDeleted, usersFailing));
+    /**
+     * Retry the users whose failed operation is due according to the exponential backoff of the retry queue.
+     * Users that were synced, removed or marked as failed in the meantime are removed from the queue.
+     * Skipped if a sync is running, since the sync retries all pending users anyway, and if an import or reconcile
+     * is changing the users.
+     */
+    public void retry() throws SQLException {
+        List<RetryEntry> dueEntries = retryDAO.getDue(LocalDateTime.now(), RETRY_BATCH_SIZE);
+        if (dueEntries.isEmpty()) return;
+        if (!RUN_LOCK.tryLock()) {
+            LOG.debug("Skipping retry of failed users, since a sync is running");
+            return;
+        }
+        if (!IMPORT_LOCK.tryLock()) {
+            RUN_LOCK.unlock();
+            LOG.debug("Skipping retry of failed users, since an import is running");
+            return;
+        }
+        try {
+            Set<String> dueIds = new HashSet<>();
+            for (RetryEntry entry : dueEntries) dueIds.add(entry.getId());
+            Map<String, User> users = userDAO.getByIds(dueIds);
+
+            Map<ChangeState, List<User>> retryUsers = new EnumMap<>(ChangeState.class);
+            List<String> resolvedIds = new ArrayList<>();
+            for (String id : dueIds) {
+                User user = users.get(id);
+                // Users marked as failed conflict with an existing Azure AD user and are only retried manually
+                if (user == null || user.getChangeState() == ChangeState.UNCHANGED
+                        || user.getSyncState() == SyncState.FAILED) {
+                    resolvedIds.add(id);
+                } else {
+                    retryUsers.computeIfAbsent(user.getChangeState(), state -> new ArrayList<>()).add(user);
+                }
+            }
+            retryDAO.deleteIds(resolvedIds);
+            if (retryUsers.isEmpty()) return;
+
+            LOG.info("Retrying {} users that failed to sync...", dueIds.size() - resolvedIds.size());
+            retrying = true;
+            sync = new Sync(UUID.randomUUID().toString(), LocalDateTime.now(), SyncPhase.CREATE);
+            H2Helper.getSyncDao().persist(sync);
+            execute(SyncPhase.CREATE, null, retryUsers);
+        } finally {
+            syncExecutor.shutdown();
+            IMPORT_LOCK.unlock();
+            RUN_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Reject the changes held by the {@link SyncCircuitBreaker}. Held deletes are discarded by restoring the users,
+     * held updates by marking the users as synced. Waits for a running sync to finish first.
+     * @return Rejected {@link SyncHold}, or null if no changes were held.
+     * @throws SQLException Thrown if the held users could not be restored.
+     */
+    public static SyncHold rejectHold() throws SQLException {
+        RUN_LOCK.lock();
+        try {
+            SyncHold hold = SyncCircuitBreaker.reject();
+            if (hold == null) return null;
+            // Changes are discarded first, since restored users may be pending for update again
+            if (hold.getHeldChanges() > 0) H2Helper.getUserDao().discardChanges();
+            if (hold.getHeldDeletes() > 0) H2Helper.getUserDao().restoreDeleted();
+            return hold;
+        } finally {
+            RUN_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Run the phases of the current sync, beginning with the given phase, and record the result.
+     * A checkpoint is written at the beginning of every phase and whenever results are written to the database.
+     * Updates and deletes of regular syncs are limited by the {@link SyncCircuitBreaker}, retries are not.
+     * @param firstPhase Phase the sync begins with.
+     * @param pipeline {@link SyncPipeline} the import publishes the changed users to, or null if only the
+     *                 pending users in the database should be synced.
+     * @param retryUsers Users that should be retried by their change state, or null if the pending users
+     *                   in the database should be synced.
+     */
+    private void execute(SyncPhase firstPhase, SyncPipeline pipeline, Map<ChangeState, List<User>> retryUsers)
+            throws SQLException {
+        String syncId = sync.getId();
+        RUN_LOCK.lock();
+        try {
+            queuedRetryIds = retryDAO.getAllIds();
+            Set<String> syncedIds = new HashSet<>();
+
+            long totalUsers = userDAO.getAmount();
+            long deleteLimit = SyncCircuitBreaker.UNLIMITED;
+            if (retryUsers == null) {
+                SyncHold approval = SyncCircuitBreaker.beginSync();
+                remainingUpdates = SyncCircuitBreaker.getLimit(SyncOperation.UPDATE, totalUsers, approval);
+                deleteLimit = SyncCircuitBreaker.getLimit(SyncOperation.DELETE, totalUsers, approval);
+            }
+
+            if (pipeline != null) {
+                checkpoint(SyncPhase.PIPELINE);
+                consumePipeline(pipeline, syncId, syncedIds);
+            }
+            if (firstPhase.compareTo(SyncPhase.CREATE) <= 0) {
+                checkpoint(SyncPhase.CREATE);
+                createUsers(getUsers(ChangeState.NEW, retryUsers), syncId, syncedIds);
+            }
+            if (firstPhase.compareTo(SyncPhase.UPDATE) <= 0) {
+                checkpoint(SyncPhase.UPDATE);
+                List<User> changedUsers = getUsers(ChangeState.CHANGED, retryUsers);
+                heldChanges = countExceeding(changedUsers, syncedIds, remainingUpdates);
+                if (heldChanges == 0) updateUsers(changedUsers, syncId, syncedIds);
+            }
+            checkpoint(SyncPhase.DELETE);
+            List<User> deletedUsers = getUsers(ChangeState.DELETED, retryUsers);
+            heldDeletes = countExceeding(deletedUsers, syncedIds, deleteLimit);
+            if (heldDeletes == 0) deleteUsers(deletedUsers);
+
+            // Results that could not be written by the phases are written a last time
+            flushUpdates();
+            flushDeletes();
+            if (hasUnwrittenResults()) {
+                throw new SQLException("The results of sync " + syncId + " could not be written to the database");
+            }
+
+            if (retryUsers == null) SyncCircuitBreaker.endSync(syncId, totalUsers, heldChanges, heldDeletes);
+        } catch (SQLException | RuntimeException ex) {
+            if (hasUnwrittenResults()) {
+                // The journal entry stays running, so the sync is resumed on startup and finds the created users
+                LOG.error("Sync {} could not write all results to the database and is resumed on the next startup",
+                        syncId);
+            } else {
+                // The pending users are retried by the next sync, so a failed sync must not be resumed on startup
+                endSync(SyncRunState.FAILED);
+            }
+            throw ex;
+        } finally {
+            syncExecutor.shutdown();
+            RUN_LOCK.unlock();
+        }
+
+        // The pipelined sync runs on every import, so only record syncs that actually did something
+        if ((pipeline != null || retryUsers != null) && usersCreated.sum() + usersChanged.sum() + usersDeleted.sum()
+                + usersFailing.sum() + heldChanges + heldDeletes == 0) {
+            H2Helper.getSyncDao().delete(sync);
+            LOG.info("Azure AD sync finished without any changes");
+            return;
+        }
+
+        endSync(SyncRunState.COMPLETED);
 
         LOG.info("Azure AD sync {} finished. Result: {} NEW, {} CHANGED, {} DELETED, {} FAILED",
-                syncId, usersCreated, usersChanged, usersDeleted, usersFailing);
+                syncId, usersCreated.sum(), usersChanged.sum(), usersDeleted.sum(), usersFailing.sum());
 
     }
 
     /**
-     * Create new users in Azure AD that are pending for synchronization.
+     * Sync the users published by the import until the import finished. Incomplete batches are sent whenever
+     * the pipeline runs empty, so the changes are not held back until enough users were published.
+     * @param pipeline {@link SyncPipeline} the import publishes the changed users to.
      * @param syncId Id of this sync. Used to set the lastSyncId attribute in the User object.
+     * @param syncedIds Set the ids of all consumed users are added to.
+     */
+    private void consumePipeline(SyncPipeline pipeline, String syncId, Set<String> syncedIds) {
+        GraphBatchExecutor createExecutor = new GraphBatchExecutor(msGraphServiceClient,
+                syncExecutor.limitedTo(graphClientConfig.getMaxConcurrentCreates()));
+        GraphBatchExecutor updateExecutor = new GraphBatchExecutor(msGraphServiceClient,
+                syncExecutor.limitedTo(graphClientConfig.getMaxConcurrentUpdates()));
+        try {
+            while (!pipeline.isDrained()) {
+                User user = pipeline.poll(PIPELINE_FLUSH_INTERVAL);
+                if (user == null) {
+                    createExecutor.flush();
+                    updateExecutor.flush();
+                    continue;
+                }
+                // Updates beyond the limit stay pending and are held by the update phase
+                if (user.getChangeState() != ChangeState.NEW && remainingUpdates <= 0) continue;
+                syncedIds.add(user.getId());
+                if (user.getChangeState() == ChangeState.NEW) {
+                    syncIsolated(user, SyncOperation.CREATE, () -> createUser(createExecutor, user, syncId));
+                } else {
+                    remainingUpdates--;
+                    syncIsolated(user, SyncOperation.UPDATE, () -> updateUser(updateExecutor, user, syncId));
+                }
+            }
+            createExecutor.flush();
+            updateExecutor.flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for imported users. Remaining users are synced by the next sync");
+        } finally {
+            syncExecutor.awaitCompletion();
+            flushUpdates();
+            flushLicenseGroup();
+        }
+    }
+
+    /**
+     * Get the users that should be synced by an operation.
+     * @param changeState {@link ChangeState} of the users.
+     * @param retryUsers Users that should be retried by their change state, or null if the pending users
+     *                   in the database should be synced.
+     * @return List containing the users that should be synced.
      * @throws SQLException Thrown if an error occurs while querying the database.
      */
-    private void createUsers(String syncId) throws SQLException {
-        // Query new users, which are pending for synchronization
-        QueryBuilder<User, String> newUserQueryBuilder = userDAO.getQueryBuilder();
-        newUserQueryBuilder.where()
-                .eq("changeState", ChangeState.NEW.toValue())
+    private List<User> getUsers(ChangeState changeState, Map<ChangeState, List<User>> retryUsers)
+            throws SQLException {
+        if (retryUsers != null) return retryUsers.getOrDefault(changeState, Collections.emptyList());
+        QueryBuilder<User, String> queryBuilder = userDAO.getQueryBuilder();
+        queryBuilder.where()
+                .eq("changeState", changeState.toValue())
                 .and()
                 .eq("syncState", SyncState.PENDING.toValue());
-        List<User> newUsers = userDAO.query(newUserQueryBuilder);
+        return userDAO.query(queryBuilder);
+    }
+
+    /**
+     * Count the users of an operation that were not synced yet, if they exceed the given limit.
+     * @param users Users pending for the operation.
+     * @param syncedIds Ids of the users that were already synced by this sync.
+     * @param limit Maximum amount of users the operation may still sync.
+     * @return Amount of users that have to be held, or 0 if the users do not exceed the limit.
+     */
+    private static long countExceeding(List<User> users, Set<String> syncedIds, long limit) {
+        if (users.size() <= limit) return 0;
+        long pendingUsers = 0;
+        for (User user : users) {
+            if (!syncedIds.contains(user.getId())) pendingUsers++;
+        }
+        return pendingUsers > limit ? pendingUsers : 0;
+    }
 
-        // Prepare default licenses if auto licensing is enabled
-        List<AssignedLicense> addLicensesList = new ArrayList<>();
-        List<UUID> removeLicensesList = new ArrayList<>();
-        if (ConfigUtil.getConfig().getAutoLicencingConfig().isEnabled()) {
-            for (String licenseSku : ConfigUtil.getConfig().getAutoLicencingConfig().getDefaultLicenceSkuIDs()) {
-                AssignedLicense license = new AssignedLicense();
-                license.skuId = UUID.fromString(licenseSku);
-                addLicensesList.add(license);
+    /**
+     * Create new users in Azure AD.
+     * @param newUsers Users that should be created.
+     * @param syncId Id of this sync. Used to set the lastSyncId attribute in the User object.
+     * @param syncedIds Ids of the users that were already synced by this sync and should be skipped.
+     */
+    private void createUsers(List<User> newUsers, String syncId, Set<String> syncedIds) {
+        GraphBatchExecutor batchExecutor = new GraphBatchExecutor(msGraphServiceClient,
+                syncExecutor.limitedTo(graphClientConfig.getMaxConcurrentCreates()));
+        try {
+            for (User user : newUsers) {
+                if (syncedIds.contains(user.getId())) continue;
+                syncIsolated(user, SyncOperation.CREATE, () -> createUser(batchExecutor, user, syncId));
             }
+            batchExecutor.flush();
+        } finally {
+            syncExecutor.awaitCompletion();
+            flushUpdates();
+            flushLicenseGroup();
         }
 
-        for (User user : newUsers) {
-            user.setLastSyncId(syncId);
-            LOG.trace("Creating user {} in Azure AD...", user.getDisplayName());
-            com.microsoft.graph.models.User azureUser = user.toAzureUser();
-
-            /* Create random 24 character long password.
-               Since this tool is intended to be used in combination with a single sign-on service like Keycloak,
-               the value of the password is more or less irrelevant, since it will never be used by the user. */
-            PasswordProfile passwordProfile = new PasswordProfile();
-            passwordProfile.forceChangePasswordNextSignIn = false;
-            passwordProfile.password = random.nextString();
-
-            // Add default settings to Azure AD user object
-            azureUser.accountEnabled = true;
-            azureUser.passwordProfile = passwordProfile;
-            azureUser.usageLocation = ConfigUtil.getConfig().getGraphClientConfig().getUsageLocation();
-            azureUser.passwordPolicies = "DisablePasswordExpiration";
-
-            String id;
-            try {
-                // Temporarily disable logging to prevent expected errors spamming the logfile
-                ((CustomGraphLogger) msGraphServiceClient.getLogger()).setLogActive(false);
-                id = msGraphServiceClient.users().buildRequest().post(azureUser).id;
-            } catch (ClientException ex) {
+    }
+
+    /**
+     * Add the creation of a single new user in Azure AD to the given batch. If auto licensing is enabled,
+     * the license assignment is chained to the creation and addresses the user by its user principal name,
+     * since the id is not known before the batch is executed.
+     * @param batchExecutor {@link GraphBatchExecutor} the requests should be added to.
+     * @param user {@link User} that should be created.
+     * @param syncId Id of this sync. Used to set the lastSyncId attribute in the User object.
+     */
+    private void createUser(GraphBatchExecutor batchExecutor, User user, String syncId) {
+        user.setLastSyncId(syncId);
+
+        prepareCreates();
+
+        // Users created by the interrupted run after its last checkpoint already exist in Azure AD
+        AzureUserIndex.Entry created = resumed && conflictIndex != null
+                ? conflictIndex.findCreated(user, sync.getSyncBegin()) : null;
+        if (created != null) {
+            user.setAzureImmutableId(created.getId());
+            LOG.info("User {} was already created in Azure AD by the interrupted sync as {} ({})",
+                    user.getDisplayName(), created.getUserPrincipalName(), created.getId());
+            usersCreated.increment();
+        }
+
+        // Users created by the interrupted run or by a previous sync whose licenses could not be assigned
+        // only need the licenses
+        if (user.getAzureImmutableId() != null) {
+            completeCreation(batchExecutor, user);
+            return;
+        }
+
+        // Skip users that would collide with an existing Azure AD user, instead of waiting for the request to fail
+        AzureUserIndex.Entry conflict = conflictIndex != null ? conflictIndex.findConflict(user) : null;
+        if (conflict != null) {
+            user.setSyncState(SyncState.FAILED);
+            LOG.warn("User {} with onPremisesImmutableId {} was not created, since it conflicts with the {} " +
+                    "Azure AD user {} ({}). The user was marked as failed in the database.",
+                    user.getDisplayName(), user.getOnPremisesImmutableId(),
+                    conflict.isDeleted() ? "soft-deleted" : "existing",
+                    conflict.getUserPrincipalName(), conflict.getId());
+            queueUpdate(user);
+            usersFailing.increment();
+            return;
+        }
+
+        LOG.trace("Creating user {} in Azure AD...", user.getDisplayName());
+        com.microsoft.graph.models.User azureUser = user.toAzureUser();
+
+        /* Create random 24 character long password.
+           Since this tool is intended to be used in combination with a single sign-on service like Keycloak,
+           the value of the password is more or less irrelevant, since it will never be used by the user. */
+        PasswordProfile passwordProfile = new PasswordProfile();
+        passwordProfile.forceChangePasswordNextSignIn = false;
+        passwordProfile.password = random.nextString();
+
+        // Add default settings to Azure AD user object
+        azureUser.accountEnabled = true;
+        azureUser.passwordProfile = passwordProfile;
+        azureUser.usageLocation = ConfigUtil.getConfig().getGraphClientConfig().getUsageLocation();
+        azureUser.passwordPolicies = "DisablePasswordExpiration";
+
+        List<GraphBatchStep> steps = new ArrayList<>();
+        steps.add(new GraphBatchStep(msGraphServiceClient.users().buildRequest(), HttpMethod.POST, azureUser));
+
+        // Assign default licenses to user, unless they are assigned using group-based licensing
+        UserAssignLicenseParameterSet licenseParameterSet = licenseManager != null
+                ? licenseManager.reserveLicenses() : null;
+        boolean assignLicenses = licenseParameterSet != null;
+        if (assignLicenses) {
+            UserAssignLicenseRequest licenseRequest = msGraphServiceClient.users(user.getUserPrincipalName())
+                    .assignLicense(licenseParameterSet).buildRequest();
+            steps.add(new GraphBatchStep(licenseRequest, HttpMethod.POST, licenseRequest.body));
+        }
+
+        batchExecutor.add(result -> {
+            // Keep the user pending if the batch itself failed or Microsoft Graph was unavailable,
+            // since the user was probably not created in Azure AD
+            if (!result.hasResponse(0) || GraphRateGovernor.isThrottled(result.getStatus(0))) {
+                LOG.warn("User {} could not be created in Azure AD and will be retried by the next sync: {}",
+                        user.getDisplayName(), result.getErrorMessage(0));
+                if (assignLicenses) licenseManager.releaseLicenses(licenseParameterSet);
+                queueFailure(user, SyncOperation.CREATE, result.getErrorMessage(0));
+                usersFailing.increment();
+                return;
+            }
+            if (!result.isSuccessful(0)) {
+                if (assignLicenses) licenseManager.releaseLicenses(licenseParameterSet);
                 user.setSyncState(SyncState.FAILED);
-                LOG.warn("User {} with onPremisesImmutableId {} could not be created. " +
+                LOG.warn("User {} with onPremisesImmutableId {} could not be created: {}. " +
                         "This user probably already exists in Azure AD, but not in the local database. " +
                         "If deleteBehavior SOFT is configured, " +
                         "the user may still exist in the \"Deleted Users\" section of your Azure AD Console. " +
                         "The user was marked as failed in the database.",
-                        user.getDisplayName(), user.getOnPremisesImmutableId());
-                userDAO.update(user);
-                usersFailing++;
-                continue;
-            } finally {
-                ((CustomGraphLogger) msGraphServiceClient.getLogger()).setLogActive(true);
+                        user.getDisplayName(), user.getOnPremisesImmutableId(), result.getErrorMessage(0));
+                queueUpdate(user);
+                usersFailing.increment();
+                return;
             }
 
-            // Assign default licenses to user
-            if (ConfigUtil.getConfig().getAutoLicencingConfig().isEnabled()) {
-                LOG.trace("Assigning default licenses to user {}...", user.getDisplayName());
-
-                UserAssignLicenseParameterSet licenseParameterSet = new UserAssignLicenseParameterSet();
-                licenseParameterSet.addLicenses = addLicensesList;
-                licenseParameterSet.removeLicenses = removeLicensesList;
-
-                msGraphServiceClient.users(id).assignLicense(licenseParameterSet).buildRequest().post();
+            user.setAzureImmutableId(result.getBody(0, com.microsoft.graph.models.User.class).id);
+            usersCreated.increment();
+
+            // The user stays pending for creation, so the licenses are assigned by the retry or the next sync
+            if (assignLicenses && !result.isSuccessful(1)) {
+                licenseManager.releaseLicenses(licenseParameterSet);
+                LOG.warn("User {} was created, but default licenses could not be assigned and will be retried: {}",
+                        user.getDisplayName(), result.getErrorMessage(1));
+                queueCreated(user);
+                queueFailure(user, SyncOperation.CREATE, result.getErrorMessage(1));
+                return;
             }
 
-            user.setAzureImmutableId(id);
             user.setSyncState(SyncState.OK);
             user.setChangeState(ChangeState.UNCHANGED);
-            userDAO.update(user);
+            queueCreated(user);
+            addToLicenseGroup(user);
             LOG.trace("User {} created successfully", user.getDisplayName());
-            usersCreated++;
+        }, steps.toArray(new GraphBatchStep[0]));
+    }
+
+    /**
+     * Add the completion of a user that was already created in Azure AD, but is still pending for creation
+     * since its licenses could not be assigned or its creation by an interrupted sync was not recorded.
+     * The attributes are patched, since they may have changed in the source ldap in the meantime,
+     * and the default licenses are assigned afterwards.
+     * @param batchExecutor {@link GraphBatchExecutor} the requests should be added to.
+     * @param user {@link User} that should be completed.
+     */
+    private void completeCreation(GraphBatchExecutor batchExecutor, User user) {
+        List<GraphBatchStep> steps = new ArrayList<>();
+        steps.add(new GraphBatchStep(msGraphServiceClient.users(user.getAzureImmutableId()).buildRequest(),
+                HttpMethod.PATCH, user.toAzureUser()));
+
+        UserAssignLicenseParameterSet licenseParameterSet = licenseManager != null
+                ? licenseManager.reserveLicenses() : null;
+        boolean assignLicenses = licenseParameterSet != null;
+        if (assignLicenses) {
+            UserAssignLicenseRequest licenseRequest = msGraphServiceClient.users(user.getAzureImmutableId())
+                    .assignLicense(licenseParameterSet).buildRequest();
+            steps.add(new GraphBatchStep(licenseRequest, HttpMethod.POST, licenseRequest.body));
         }
 
+        batchExecutor.add(result -> {
+            int failedStep = !result.isSuccessful(0) ? 0 : assignLicenses && !result.isSuccessful(1) ? 1 : -1;
+            if (failedStep >= 0) {
+                if (assignLicenses) licenseManager.releaseLicenses(licenseParameterSet);
+                LOG.warn("Licenses could not be assigned to user {} and will be retried: {}",
+                        user.getDisplayName(), result.getErrorMessage(failedStep));
+                // The Azure AD id of a user found by a resumed sync is not stored in the database yet
+                queueCreated(user);
+                queueFailure(user, SyncOperation.CREATE, result.getErrorMessage(failedStep));
+                usersFailing.increment();
+                return;
+            }
+            user.setSyncState(SyncState.OK);
+            user.setChangeState(ChangeState.UNCHANGED);
+            queueCreated(user);
+            addToLicenseGroup(user);
+            LOG.trace("Creation of user {} completed successfully", user.getDisplayName());
+        }, steps.toArray(new GraphBatchStep[0]));
     }
 
     /**
-     * Update users in Azure AD that are pending for synchronization.
+     * Update changed users in Azure AD.
+     * Users that could not be updated stay pending and are retried by the next sync.
+     * @param changedUsers Users that should be updated.
      * @param syncId Id of this sync. Used to set the lastSyncId attribute in the User object.
-     * @throws SQLException Thrown if an error occurs while querying the database.
+     * @param syncedIds Ids of the users that were already synced by this sync and should be skipped.
      */
-    public void updateUsers(String syncId) throws SQLException {
-        //Query changed users, which are pending for synchronization
-        QueryBuilder<User, String> changedUserQueryBuilder = userDAO.getQueryBuilder();
-        changedUserQueryBuilder.where()
-                .eq("changeState", ChangeState.CHANGED.toValue())
-                .and()
-                .eq("syncState", SyncState.PENDING.toValue());
-        List<User> changedUsers = userDAO.query(changedUserQueryBuilder);
+    private void updateUsers(List<User> changedUsers, String syncId, Set<String> syncedIds) {
+        GraphBatchExecutor batchExecutor = new GraphBatchExecutor(msGraphServiceClient,
+                syncExecutor.limitedTo(graphClientConfig.getMaxConcurrentUpdates()));
+        try {
+            for (User user : changedUsers) {
+                if (syncedIds.contains(user.getId())) continue;
+                syncIsolated(user, SyncOperation.UPDATE, () -> updateUser(batchExecutor, user, syncId));
+            }
+            batchExecutor.flush();
+        } finally {
+            syncExecutor.awaitCompletion();
+            flushUpdates();
+        }
+
+    }
 
-        for (User user : changedUsers) {
+    /**
+     * Add the update of a single changed user in Azure AD to the given batch.
+     * Only the changed attributes of the user are patched.
+     * @param batchExecutor {@link GraphBatchExecutor} the request should be added to.
+     * @param user {@link User} that should be updated.
+     * @param syncId Id of this sync. Used to set the lastSyncId attribute in the User object.
+     */
+    private void updateUser(GraphBatchExecutor batchExecutor, User user, String syncId) {
+        GraphBatchStep patchStep = new GraphBatchStep(
+                msGraphServiceClient.users(user.getAzureImmutableId()).buildRequest(),
+                HttpMethod.PATCH, user.toAzureUser(user.getChangedAttributes()));
+        batchExecutor.add(result -> {
+            if (!result.isSuccessful(0)) {
+                LOG.warn("User {} could not be updated in Azure AD and will be retried by the next sync: {}",
+                        user.getDisplayName(), result.getErrorMessage(0));
+                queueFailure(user, SyncOperation.UPDATE, result.getErrorMessage(0));
+                usersFailing.increment();
+                return;
+            }
             user.setLastSyncId(syncId);
-            // Patch user in Azure AD
-            msGraphServiceClient.users(user.getAzureImmutableId()).buildRequest().patch(user.toAzureUser());
             user.setSyncState(SyncState.OK);
             user.setChangeState(ChangeState.UNCHANGED);
+            user.setChangedAttributes(null);
             // Update user in local database
-            userDAO.update(user);
-            usersChanged++;
+            queueUpdate(user);
+            usersChanged.increment();
+        }, patchStep);
+    }
+
+    /**
+     * Delete users from Azure AD.
+     * Users that could not be deleted stay pending and are retried by the next sync. If deleteBehavior HARD is
+     * configured, the users are only soft deleted here and queued for being purged by the {@link AzurePurgeService}.
+     * @param deletedUsers Users that should be deleted.
+     */
+    private void deleteUsers(List<User> deletedUsers) {
+        boolean hardDelete = graphClientConfig.getDeleteBehavior() == DeleteBehavior.HARD;
+        GraphBatchExecutor batchExecutor = new GraphBatchExecutor(msGraphServiceClient,
+                syncExecutor.limitedTo(graphClientConfig.getMaxConcurrentDeletes()));
+        try {
+            for (User user : deletedUsers) {
+                syncIsolated(user, SyncOperation.DELETE, () -> deleteUser(batchExecutor, user, hardDelete));
+            }
+            batchExecutor.flush();
+        } finally {
+            syncExecutor.awaitCompletion();
+            flushDeletes();
         }
 
     }
 
     /**
-     * Delete users from Azure AD that are pending for synchronization.
-     * @throws SQLException Thrown if an error occurs while querying the database.
+     * Add the deletion of a single user from Azure AD to the given batch.
+     * @param batchExecutor {@link GraphBatchExecutor} the request should be added to.
+     * @param user {@link User} that should be deleted.
+     * @param hardDelete true if the user should be purged from the deleted items of Azure AD later.
      */
-    public void deleteUsers() throws SQLException {
-        // Query deleted users, which are pending for synchronization
-        QueryBuilder<User, String> deletedUserQueryBuilder = userDAO.getQueryBuilder();
-        deletedUserQueryBuilder.where()
-                .eq("changeState", ChangeState.DELETED.toValue())
-                .and()
-                .eq("syncState", SyncState.PENDING.toValue());
-        List<User> deletedUsers = userDAO.query(deletedUserQueryBuilder);
+    private void deleteUser(GraphBatchExecutor batchExecutor, User user, boolean hardDelete) {
+        // Users that were never created in Azure AD, like failed conflicts, only have to be removed locally
+        if (user.getAzureImmutableId() == null) {
+            LOG.debug("User {} was never created in Azure AD and is only removed from the local database",
+                    user.getDisplayName());
+            queueDelete(user);
+            return;
+        }
+
+        GraphBatchStep deleteStep = new GraphBatchStep(
+                msGraphServiceClient.users(user.getAzureImmutableId()).buildRequest(), HttpMethod.DELETE, null);
+
+        batchExecutor.add(result -> {
+            // A user that does not exist anymore does not have to be deleted
+            if (!result.isSuccessful(0) && result.getStatus(0) != 404) {
+                LOG.warn("User {} could not be deleted from Azure AD and will be retried by the next sync: {}",
+                        user.getDisplayName(), result.getErrorMessage(0));
+                queueFailure(user, SyncOperation.DELETE, result.getErrorMessage(0));
+                usersFailing.increment();
+                return;
+            }
+            // A user that was not found may still be in the deleted items, so it is purged as well
+            if (hardDelete) queuePurge(user);
+            queueDelete(user);
+            usersDeleted.increment();
+        }, deleteStep);
+    }
+
+    /**
+     * Run the operation of a single user, so an unexpected error only fails this user instead of the whole sync.
+     * @param user {@link User} the operation belongs to.
+     * @param operation Operation that is run.
+     * @param action Action adding the requests of the operation to a batch.
+     */
+    private void syncIsolated(User user, SyncOperation operation, Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException ex) {
+            LOG.warn("Failed to {} user {}. The user will be retried later", operation.toValue(),
+                    user.getDisplayName(), ex);
+            queueFailure(user, operation, ex.getMessage());
+            usersFailing.increment();
+        }
+    }
 
-        for (User user : deletedUsers) {
-            // Delete user from Azure AD
-            msGraphServiceClient.users(user.getAzureImmutableId()).buildRequest().delete();
+    /**
+     * Queue an user for being updated in the local database.
+     * The queue is written as a batch as soon as it reaches the configured database batch size.
+     * @param user {@link User} that should be updated.
+     */
+    private synchronized void queueUpdate(User user) {
+        pendingUpdates.add(user);
+        if (pendingUpdates.size() >= ConfigUtil.getConfig().getGeneralConfig().getDatabaseBatchSize()) {
+            flushUpdates();
+        }
+    }
 
-            // Completely remove user if configured
-            if (ConfigUtil.getConfig().getGraphClientConfig().getDeleteBehavior() == DeleteBehavior.HARD) {
-                msGraphServiceClient.directory().deletedItems(user.getAzureImmutableId()).buildRequest().delete();
+    /**
+     * Queue a user created in Azure AD for being updated in the local database. Created users are written as soon as
+     * a batch worth of them is queued, since their Azure AD id is only known to this sync until it is written.
+     * @param user {@link User} that was created.
+     */
+    private synchronized void queueCreated(User user) {
+        pendingCreates++;
+        queueUpdate(user);
+        if (pendingCreates >= GraphBatchExecutor.MAX_BATCH_SIZE) flushUpdates();
+    }
+
+    /**
+     * Write all queued user updates to the local database. If the write fails, the users stay queued and are
+     * written again by the next flush.
+     */
+    private synchronized void flushUpdates() {
+        flushFailures();
+        if (pendingUpdates.isEmpty()) return;
+        if (!userDAO.updateAll(pendingUpdates)) {
+            LOG.error("{} synced users could not be written to the database and are written again later",
+                    pendingUpdates.size());
+            return;
+        }
+        pendingCreates = 0;
+        List<String> resolvedIds = new ArrayList<>();
+        for (User user : pendingUpdates) {
+            if (user.getSyncState() != SyncState.PENDING && queuedRetryIds.remove(user.getId())) {
+                resolvedIds.add(user.getId());
             }
-            userDAO.delete(user);
-            usersDeleted++;
         }
+        retryDAO.deleteIds(resolvedIds);
+        pendingUpdates.clear();
+        checkpoint(sync.getPhase());
+    }
+
+    /**
+     * Queue an user for being removed from the local database.
+     * The queue is written as a batch as soon as it reaches the configured database batch size.
+     * @param user {@link User} that should be removed.
+     */
+    private synchronized void queueDelete(User user) {
+        pendingDeletes.add(user);
+        if (pendingDeletes.size() >= ConfigUtil.getConfig().getGeneralConfig().getDatabaseBatchSize()) {
+            flushDeletes();
+        }
+    }
 
+    /**
+     * Remove all queued users from the local database. If the write fails, the users stay queued and are
+     * removed again by the next flush.
+     */
+    private synchronized void flushDeletes() {
+        flushFailures();
+        if (pendingDeletes.isEmpty()) return;
+        // The purges are queued first, so users removed from the database are never missing from the purge queue
+        if (!purgeDAO.enqueueAll(pendingPurges) || !userDAO.deleteAll(pendingDeletes)) {
+            LOG.error("{} deleted users could not be removed from the database and are removed again later",
+                    pendingDeletes.size());
+            return;
+        }
+        pendingPurges.clear();
+        List<String> resolvedIds = new ArrayList<>();
+        for (User user : pendingDeletes) {
+            if (queuedRetryIds.remove(user.getId())) resolvedIds.add(user.getId());
+        }
+        retryDAO.deleteIds(resolvedIds);
+        pendingDeletes.clear();
+        checkpoint(sync.getPhase());
+    }
+
+    /**
+     * Check if results of this sync could not be written to the database yet.
+     * @return true if users are still queued for being updated or removed, otherwise false.
+     */
+    private synchronized boolean hasUnwrittenResults() {
+        return !pendingUpdates.isEmpty() || !pendingDeletes.isEmpty();
+    }
+
+    /**
+     * Queue a soft-deleted user for being purged from the deleted items of Azure AD once the purge delay passed.
+     * The purge is written to the database together with the removal of the user. Users without an Azure AD id
+     * are rejected, since they can't be purged and would fail the write of the whole purge queue.
+     * @param user {@link User} that was soft deleted.
+     */
+    private synchronized void queuePurge(User user) {
+        if (user.getAzureImmutableId() == null) {
+            LOG.warn("User {} has no Azure AD id and can't be queued for being purged", user.getDisplayName());
+            return;
+        }
+        pendingPurges.add(new PurgeEntry(user.getAzureImmutableId(), user.getDisplayName(),
+                LocalDateTime.now().plusSeconds(graphClientConfig.getPurgeDelay())));
+    }
+
+    /**
+     * Queue a failed operation for being written to the retry queue.
+     * The queue is written as a batch as soon as it reaches the configured database batch size.
+     * @param user {@link User} whose operation failed.
+     * @param operation Operation that failed.
+     * @param error Error message of the failure.
+     */
+    private synchronized void queueFailure(User user, SyncOperation operation, String error) {
+        pendingFailures.add(new RetryEntry(user.getId(), operation, error));
+        if (pendingFailures.size() >= ConfigUtil.getConfig().getGeneralConfig().getDatabaseBatchSize()) {
+            flushFailures();
+        }
+    }
+
+    /**
+     * Write all queued failed operations to the retry queue.
+     */
+    private synchronized void flushFailures() {
+        if (pendingFailures.isEmpty()) return;
+        retryDAO.recordFailures(pendingFailures);
+        for (RetryEntry failure : pendingFailures) queuedRetryIds.add(failure.getId());
+        pendingFailures.clear();
+    }
+
+    /**
+     * Write the progress of this sync to the database. Called after the results of the sync were written
+     * to the database, so a resumed sync continues exactly where the results end.
+     * @param phase Phase the sync is currently in.
+     */
+    private synchronized void checkpoint(SyncPhase phase) {
+        sync.checkpoint(phase, usersCreated.sum(), usersChanged.sum(), usersDeleted.sum(), usersFailing.sum());
+        H2Helper.getSyncDao().update(sync);
+    }
+
+    /**
+     * Record the final state and result of this sync.
+     * @param state Final state of the sync.
+     */
+    private synchronized void endSync(SyncRunState state) {
+        sync.checkpoint(sync.getPhase(), usersCreated.sum(), usersChanged.sum(), usersDeleted.sum(),
+                usersFailing.sum());
+        sync.end(state, LocalDateTime.now());
+        H2Helper.getSyncDao().update(sync);
+    }
+
+    /**
+     * Prepare the creation of users. Called before the first user of this sync is created, so syncs without
+     * new users don't have to pay for it. Reloads the free license seats and the index of the existing
+     * Azure AD users used to detect conflicts. Retries skip the index, since loading the whole tenant for a few
+     * users costs more than detecting their conflicts when creating them.
+     */
+    private void prepareCreates() {
+        if (createsPrepared) return;
+        createsPrepared = true;
+        if (licenseManager != null) licenseManager.refreshSeats();
+        // A resumed sync always needs the index, to find the users created before the interruption
+        if (retrying || (!graphClientConfig.isConflictPrefetchEnabled() && !resumed)) return;
+        try {
+            LOG.info("Loading existing Azure AD users to detect conflicts...");
+            conflictIndex = AzureUserIndex.load(msGraphServiceClient);
+            LOG.info("Loaded {} existing and soft-deleted Azure AD users", conflictIndex.size());
+        } catch (ClientException ex) {
+            LOG.warn("Existing Azure AD users could not be loaded. Conflicts are detected when creating users", ex);
+        }
+    }
+
+    /**
+     * Queue a created user for being added to the license group, if group-based licensing is used.
+     * Must be called after the user was queued for being updated in the local database.
+     * @param user {@link User} that was created.
+     */
+    private void addToLicenseGroup(User user) {
+        if (licenseManager == null || !licenseManager.isEnabled() || !licenseManager.isGroupBased()) return;
+        keepPendingForLicenses(licenseManager.addToLicenseGroup(user.getAzureImmutableId()));
+    }
+
+    /**
+     * Add all users created so far to the license group, if group-based licensing is used.
+     */
+    private void flushLicenseGroup() {
+        if (licenseManager == null) return;
+        keepPendingForLicenses(licenseManager.flushLicenseGroup());
+        flushUpdates();
+    }
+
+    /**
+     * Keep the users that could not be added to the license group pending for creation and queue them for retry,
+     * so they are added to the license group again instead of never receiving a license.
+     * @param azureUserIds Ids of the Azure AD users that could not be added to the license group.
+     */
+    private synchronized void keepPendingForLicenses(List<String> azureUserIds) {
+        if (azureUserIds.isEmpty()) return;
+        // Users whose update was not written yet are changed in the queue, all others are loaded again
+        Set<String> remainingIds = new HashSet<>(azureUserIds);
+        for (User user : pendingUpdates) {
+            if (remainingIds.remove(user.getAzureImmutableId())) keepPendingForLicenses(user);
+        }
+        if (remainingIds.isEmpty()) return;
+        try {
+            for (User user : userDAO.getByAzureImmutableIds(remainingIds).values()) {
+                keepPendingForLicenses(user);
+                queueUpdate(user);
+            }
+        } catch (SQLException ex) {
+            LOG.error("An unexpected error occurred", ex);
+        }
+    }
+
+    /**
+     * Keep a single user that could not be added to the license group pending for creation and queue it for retry.
+     * @param user {@link User} that could not be added to the license group.
+     */
+    private void keepPendingForLicenses(User user) {
+        user.setSyncState(SyncState.PENDING);
+        user.setChangeState(ChangeState.NEW);
+        queueFailure(user, SyncOperation.CREATE, "Could not be added to the license group");
     }
 
 }
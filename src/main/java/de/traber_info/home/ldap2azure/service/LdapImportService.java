@@ -1,22 +1,32 @@
 package de.traber_info.home.ldap2azure.service;
 
 import de.traber_info.home.ldap2azure.h2.H2Helper;
+import de.traber_info.home.ldap2azure.h2.dao.WatermarkDAOImpl;
+import de.traber_info.home.ldap2azure.ldap.LdapEntry;
 import de.traber_info.home.ldap2azure.ldap.LdapUtil;
+import de.traber_info.home.ldap2azure.model.config.LdapAttribute;
 import de.traber_info.home.ldap2azure.model.config.LdapConfig;
 import de.traber_info.home.ldap2azure.model.config.PatternConfig;
 import de.traber_info.home.ldap2azure.model.object.User;
+import de.traber_info.home.ldap2azure.model.object.UserIndexEntry;
 import de.traber_info.home.ldap2azure.model.type.ChangeState;
+import de.traber_info.home.ldap2azure.model.type.DeltaImportStrategy;
 import de.traber_info.home.ldap2azure.model.type.SyncState;
+import de.traber_info.home.ldap2azure.model.type.UserAttribute;
 import de.traber_info.home.ldap2azure.util.ConfigUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
 import javax.naming.directory.SearchResult;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Service used to import users and changes from the source ldap into the ldap2azure database.
@@ -28,10 +38,13 @@ public class LdapImportService {
     /** SLF4J logger for usage in this class */
     private static final Logger LOG = LoggerFactory.getLogger(LdapImportService.class.getName());
 
-    /** Regex pattern for matching ldapProperty placeholders in user build pattern */
-    private static final Pattern placeholderPattern = Pattern.compile("\\{([^}]+)}");
+    /** Prefix of the watermark key holding the high-water mark of the last import */
+    private static final String DELTA_WATERMARK_PREFIX = "ldap-delta:";
 
-    /** Instance of the ldap util used to get objects from the source ldap server */
+    /** Prefix of the watermark key holding the time of the last full import */
+    private static final String FULL_IMPORT_WATERMARK_PREFIX = "ldap-full:";
+
+    /** Instance of the ldap util used to get objects from the source ldap server. Reused across imports. */
     private static LdapUtil ldapUtil;
 
     /**
@@ -39,137 +52,541 @@ public class LdapImportService {
      * @return Amount of users changed by this import cycle.
      */
     public static long run() {
+        return run(null);
+    }
+
+    /**
+     * Run an import from the source ldap server and publish all new and changed users to the given pipeline
+     * as soon as they were written to the database.
+     * @param pipeline {@link SyncPipeline} the changed users should be published to, or null if they should only
+     *                 be written to the database.
+     * @return Amount of users changed by this import cycle.
+     */
+    public static synchronized long run(SyncPipeline pipeline) {
         LdapConfig ldapConfig = ConfigUtil.getConfig().getLdapConfig();
+        AzureSyncService.IMPORT_LOCK.lock();
         try {
-            ldapUtil = new LdapUtil(ldapConfig.getLdapUrl(), ldapConfig.getBindUser(), ldapConfig.getBindPassword(),
-                    ldapConfig.getSearchBase(), ldapConfig.getSearchFilter(), ldapConfig.getLdapAttributes(),
-                    ldapConfig.isIgnoreSSLErrors());
-
-            Map<String, User> ldapUsers = getLdapUsers();
-            return updateDatabase(ldapUsers);
-        } catch (NamingException ex) {
+            return importLdapUsers(ldapConfig, pipeline, new ImportResult(null));
+        } catch (NamingException | SQLException ex) {
             LOG.error("An unexpected error occurred", ex);
+        } finally {
+            AzureSyncService.IMPORT_LOCK.unlock();
         }
         return 0;
     }
 
     /**
-     * Build actual user attribute value from given pattern and retrieved ldap object.
-     * @param parsable Pattern that should be converted to full user attribute value.
-     * @param result Result of the LDAP search. This is used to read the actual attribute values.
-     * @return Final value that can be set as an user attribute on an user object.
-     * @throws NamingException Thrown if reading of an LDAP attribute is unsuccessful.
+     * Run the classification of an import from the source ldap server without writing to the database.
+     * The users are read and compared against the database exactly like the next import would do,
+     * so the result shows which users the next sync will create, update and delete in Azure AD.
+     * Neither the users nor the high-water marks of incremental imports are changed.
+     * @return Amount of users pending for synchronization after the import by their {@link ChangeState}.
+     * @throws NamingException Thrown if not all objects could be read from the LDAP server.
+     * @throws SQLException Thrown if the stored users could not be read from the database.
      */
-    private static String getRegexReplacedString(String parsable, SearchResult result) throws NamingException {
-        String safeParsable = parsable;
-        Matcher matcher = placeholderPattern.matcher(parsable);
-        while (matcher.find()) {
-            String attributeName = matcher.group(1);
-            Object replacement = result.getAttributes().get(attributeName).get();
-            String replacementString;
-            if (replacement instanceof byte[]) {
-                replacementString = Base64.getEncoder().encodeToString((byte[]) replacement);
-            } else {
-                replacementString = replacement.toString();
+    public static synchronized Map<ChangeState, Long> plan() throws NamingException, SQLException {
+        LdapConfig ldapConfig = ConfigUtil.getConfig().getLdapConfig();
+        // Users that are not touched by the import keep their pending change state
+        ImportResult importResult = new ImportResult(H2Helper.getUserDao().getPendingChangeStates());
+        importLdapUsers(ldapConfig, null, importResult);
+
+        Map<ChangeState, Long> plannedUsers = new EnumMap<>(ChangeState.class);
+        for (ChangeState changeState : importResult.plannedChangeStates.values()) {
+            plannedUsers.merge(changeState, 1L, Long::sum);
+        }
+        return plannedUsers;
+    }
+
+    /**
+     * Close all pooled connections to the source ldap server.
+     */
+    public static synchronized void close() {
+        if (ldapUtil != null) {
+            ldapUtil.close();
+            ldapUtil = null;
+        }
+    }
+
+    /**
+     * Get the ldap util used to read from the source ldap server. The instance is created on first use
+     * and keeps its connections open between imports.
+     * @param ldapConfig {@link LdapConfig} containing the connection settings.
+     * @return Shared instance of the {@link LdapUtil}.
+     */
+    private static LdapUtil getLdapUtil(LdapConfig ldapConfig) {
+        if (ldapUtil == null) {
+            // Load the attribute used as high-water mark additionally to the configured ones
+            List<LdapAttribute> ldapAttributes = new ArrayList<>(ldapConfig.getLdapAttributes());
+            if (ldapConfig.isDeltaImportEnabled()) {
+                ldapAttributes.add(new LdapAttribute(getWatermarkAttributeName(ldapConfig), false));
             }
-            LOG.trace("Replacing placeholder {{}} with actual value {}", attributeName, replacementString);
-            safeParsable = safeParsable.replace("{" + attributeName + "}", replacementString);
+
+            ldapUtil = new LdapUtil(ldapConfig.getLdapUrl(), ldapConfig.getBindUser(), ldapConfig.getBindPassword(),
+                    ldapConfig.getSearchFilter(), ldapAttributes,
+                    ldapConfig.isIgnoreSSLErrors(), ldapConfig.getPageSize(), ldapConfig.getPoolSize());
         }
-        return safeParsable;
+        return ldapUtil;
     }
 
     /**
-     * Read all users matching the specified parameters from the LDAP server and convert them to Azure user objects.
-     * @return Map containing the Azure onPremisesImmutableId as the key and the full converted Azure user object as the value.
+     * Read all users matching the specified parameters from the LDAP server page by page and import them into the
+     * internal database. Each page is converted and written to the database before the next page is requested,
+     * so the memory usage is bound by the page size instead of the size of the directory.
+     * All configured search bases are searched in parallel using independent connections and merged by their
+     * onPremisesImmutableId.
+     * If incremental imports are enabled, only objects changed since the last import are read, unless a full import
+     * is due to detect deleted objects.
+     * @param ldapConfig {@link LdapConfig} containing the import settings.
+     * @param pipeline {@link SyncPipeline} the changed users should be published to, or null.
+     * @param importResult {@link ImportResult} the results of this import should be added to.
+     * @return Amount of users changed by this import cycle.
      * @throws NamingException Thrown if errors occur while retrieving the objects from the LDAP server.
+     * @throws SQLException Thrown if the stored users could not be read from the database.
      */
-    private static Map<String, User> getLdapUsers() throws NamingException {
-        Map<String, User> ldapUsers = new HashMap<>();
-        NamingEnumeration<SearchResult> ldapSearchResults = ldapUtil.search();
-        while (ldapSearchResults.hasMore()) {
-            SearchResult result = ldapSearchResults.next();
+    private static long importLdapUsers(LdapConfig ldapConfig, SyncPipeline pipeline, ImportResult importResult)
+            throws NamingException, SQLException {
+        List<String> searchBases = ldapConfig.getSearchBases();
+        if (searchBases.isEmpty()) throw new NamingException("No ldap search base configured");
 
-            PatternConfig patternConfig = ConfigUtil.getConfig().getPatternConfig();
+        Set<String> importedIds = new HashSet<>();
+        PatternConfig patternConfig = ConfigUtil.getConfig().getPatternConfig();
+        WatermarkDAOImpl watermarkDao = H2Helper.getWatermarkDao();
+        LdapUtil ldapUtil = getLdapUtil(ldapConfig);
+        boolean deltaImport = ldapConfig.isDeltaImportEnabled();
 
-            String internalId = UUID.randomUUID().toString();
-            String onPremisesImmutableId = getRegexReplacedString(
-                    patternConfig.getOnPremisesImmutableIdPattern(), result);
-            String givenName = getRegexReplacedString(
-                    patternConfig.getGivenNamePattern(), result);
-            String surname = getRegexReplacedString(
-                    patternConfig.getSurnamePattern(), result);
-            String displayName = getRegexReplacedString(
-                    patternConfig.getDisplayNamePattern(), result);
-            String mailNickname = getRegexReplacedString(
-                    patternConfig.getMailNicknamePattern(), result);
-            String userPrincipalName = getRegexReplacedString(
-                    patternConfig.getUserPrincipalNamePattern(), result);
+        // Every search base is imported as an independent partition with its own high-water mark
+        List<ImportPartition> partitions = new ArrayList<>();
+        boolean fullImport = !deltaImport;
+        for (String searchBase : searchBases) {
+            String sourceKey = ldapConfig.getLdapUrl() + "/" + searchBase;
+            String lastWatermark = deltaImport ? watermarkDao.getValue(DELTA_WATERMARK_PREFIX + sourceKey) : null;
+            if (deltaImport && isFullImportDue(ldapConfig, sourceKey, lastWatermark)) fullImport = true;
+            partitions.add(new ImportPartition(searchBase, sourceKey, lastWatermark));
+        }
 
-            User user = new User(internalId, onPremisesImmutableId, null, givenName, surname,
-                    displayName, mailNickname,userPrincipalName);
-            user.resetLastChanged();
+        // Read the current highestCommittedUSN before searching, so changes made during the search are not skipped
+        String nextUsn = null;
+        if (deltaImport && ldapConfig.getDeltaImportStrategy() == DeltaImportStrategy.USN_CHANGED) {
+            nextUsn = ldapUtil.getRootDseAttribute("highestCommittedUSN");
+        }
+
+        // A full import compares against all stored users, incremental imports only look up the users they read
+        Map<String, UserIndexEntry> userIndex = fullImport ? H2Helper.getUserDao().getIndex() : null;
 
-            ldapUsers.put(onPremisesImmutableId, user);
+        LOG.info("Running {} import of {} search bases from source ldap...",
+                fullImport ? "full" : "incremental", partitions.size());
+        int threadCount = Math.max(1, Math.min(ldapConfig.getSearchThreads(), partitions.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (ImportPartition partition : partitions) {
+            String searchFilter = fullImport
+                    ? ldapConfig.getSearchFilter() : getDeltaSearchFilter(ldapConfig, partition.lastWatermark);
+            futures.add(executor.submit(() -> {
+                importPartition(ldapUtil, ldapConfig, partition, searchFilter, patternConfig,
+                        userIndex, importedIds, importResult, pipeline);
+                return null;
+            }));
         }
-        ldapUtil.close();
-        return ldapUsers;
+        executor.shutdown();
+
+        // Wait for all partitions to finish and remember which ones failed
+        boolean allPartitionsImported = true;
+        for (int i = 0; i < partitions.size(); i++) {
+            ImportPartition partition = partitions.get(i);
+            try {
+                futures.get(i).get();
+                partition.completed = true;
+            } catch (ExecutionException ex) {
+                allPartitionsImported = false;
+                LOG.error("Import of search base {} failed", partition.searchBase, ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                throw new NamingException("Interrupted while waiting for the ldap import");
+            }
+        }
+
+        // A plan based on an incomplete import would silently underestimate the changes
+        if (importResult.isDryRun() && !allPartitionsImported) {
+            throw new NamingException("Not all search bases could be read from the source ldap");
+        }
+
+        // Deleted objects can only be detected if the whole directory was read
+        if (fullImport && allPartitionsImported) {
+            markDeletedUsers(userIndex.values(), importResult);
+        } else if (fullImport) {
+            LOG.warn("Skipping detection of deleted users, since not all search bases could be imported");
+        }
+
+        if (deltaImport && !importResult.isDryRun()) {
+            for (ImportPartition partition : partitions) {
+                if (!partition.completed) continue;
+                String nextWatermark = ldapConfig.getDeltaImportStrategy() == DeltaImportStrategy.USN_CHANGED
+                        ? nextUsn : partition.getHighestModifyTimestamp();
+                if (nextWatermark != null) {
+                    watermarkDao.setValue(DELTA_WATERMARK_PREFIX + partition.sourceKey, nextWatermark);
+                }
+                if (fullImport && allPartitionsImported) {
+                    watermarkDao.setValue(FULL_IMPORT_WATERMARK_PREFIX + partition.sourceKey,
+                            LocalDateTime.now().toString());
+                }
+            }
+        }
+
+        LOG.info("LDAP import finished for {} ldap users. Result: {} NEW, {} CHANGED, {} DELETED, {} UNCHANGED",
+                importedIds.size(), importResult.newUsers, importResult.changedUsers,
+                importResult.deletedUsers, importResult.unchangedUsers);
+        return importResult.newUsers + importResult.changedUsers + importResult.deletedUsers;
     }
 
     /**
-     * Update the internal database.
-     * @param users Map containing the users read from the source ldap server.
-     * @return Amount of users changed by this import cycle.
+     * Import all users of a single search base. The users of each page are built in the calling thread,
+     * while the database update is serialized across all partitions to detect duplicates between them.
+     * @param ldapUtil {@link LdapUtil} used to search the source ldap server.
+     * @param ldapConfig {@link LdapConfig} containing the import settings.
+     * @param partition {@link ImportPartition} that should be imported.
+     * @param searchFilter LDAP filter used for the search.
+     * @param patternConfig {@link PatternConfig} containing the patterns used to build the user attributes.
+     * @param userIndex Index of all stored users for full imports, or null if the users of each page
+     *                  should be looked up in the database.
+     * @param importedIds Set containing the onPremisesImmutableIds of all users imported by this cycle.
+     * @param importResult {@link ImportResult} the results of this partition should be added to.
+     * @param pipeline {@link SyncPipeline} the changed users should be published to, or null.
+     * @throws NamingException Thrown if errors occur while retrieving the objects from the LDAP server.
      */
-    private static long updateDatabase(Map<String, User> users) {
-        LOG.info("Running import for {} ldap users...", users.size());
+    private static void importPartition(LdapUtil ldapUtil, LdapConfig ldapConfig, ImportPartition partition,
+                                        String searchFilter, PatternConfig patternConfig,
+                                        Map<String, UserIndexEntry> userIndex, Set<String> importedIds,
+                                        ImportResult importResult, SyncPipeline pipeline) throws NamingException {
+        String watermarkAttributeName = getWatermarkAttributeName(ldapConfig);
+        // Each partition runs in its own thread, so the buffer can be reused for all entries of the partition
+        StringBuilder buffer = new StringBuilder(128);
+        ldapUtil.search(partition.searchBase, searchFilter, page -> {
+            List<User> pageUsers = new ArrayList<>(page.size());
+            for (SearchResult result : page) {
+                pageUsers.add(buildUser(patternConfig, new LdapEntry(result), buffer));
+                if (ldapConfig.isDeltaImportEnabled()) partition.trackModifyTimestamp(result, watermarkAttributeName);
+            }
+            List<User> changedUsers;
+            synchronized (importResult) {
+                List<User> ldapUsers = new ArrayList<>(pageUsers.size());
+                for (User user : pageUsers) {
+                    if (!importedIds.add(user.getOnPremisesImmutableId())) {
+                        LOG.warn("Skipping user {} from search base {}, since onPremisesImmutableId {} " +
+                                        "was already imported", user.getUserPrincipalName(), partition.searchBase,
+                                user.getOnPremisesImmutableId());
+                        continue;
+                    }
+                    ldapUsers.add(user);
+                }
+                try {
+                    changedUsers = updateDatabase(ldapUsers,
+                            userIndex != null ? userIndex : getPageIndex(ldapUsers), importResult);
+                } catch (SQLException ex) {
+                    NamingException namingException = new NamingException(
+                            "Failed to write imported users of search base " + partition.searchBase);
+                    namingException.setRootCause(ex);
+                    throw namingException;
+                }
+            }
+            // Publish outside of the lock, so a full pipeline only pauses this partition
+            if (pipeline != null) {
+                try {
+                    for (User user : changedUsers) pipeline.publish(user);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new NamingException("Interrupted while publishing users of search base "
+                            + partition.searchBase);
+                }
+            }
+        });
+    }
 
-        long newUsers = 0L;
-        long changedUsers = 0L;
-        long deletedUsers = 0L;
-        long unchangedUsers = 0L;
+    /**
+     * Load the index entries of the stored users contained in the given page.
+     * @param users List containing the users of the current page.
+     * @return Index of the stored users by their onPremisesImmutableId.
+     * @throws SQLException Thrown if an error occurs while querying the database.
+     */
+    private static Map<String, UserIndexEntry> getPageIndex(List<User> users) throws SQLException {
+        List<String> onPremisesImmutableIds = new ArrayList<>(users.size());
+        for (User user : users) {
+            onPremisesImmutableIds.add(user.getOnPremisesImmutableId());
+        }
+        return H2Helper.getUserDao().getIndex(onPremisesImmutableIds);
+    }
 
-        // Check for changed an new users.
-        for (Map.Entry<String, User> entry : users.entrySet()) {
-            String onPremisesImmutableId = entry.getKey();
-            User user = entry.getValue();
+    /**
+     * Check if a full import has to be run instead of an incremental one.
+     * @param ldapConfig {@link LdapConfig} containing the import settings.
+     * @param sourceKey Key identifying the import source.
+     * @param lastWatermark High-water mark of the last import, or null if no import was run yet.
+     * @return true if a full import is required, otherwise false.
+     */
+    private static boolean isFullImportDue(LdapConfig ldapConfig, String sourceKey, String lastWatermark) {
+        if (lastWatermark == null) return true;
+        String lastFullImport = H2Helper.getWatermarkDao().getValue(FULL_IMPORT_WATERMARK_PREFIX + sourceKey);
+        if (lastFullImport == null) return true;
+        return LocalDateTime.parse(lastFullImport)
+                .plusMinutes(ldapConfig.getFullImportInterval())
+                .isBefore(LocalDateTime.now());
+    }
+
+    /**
+     * Build the LDAP filter used for incremental imports by combining the configured filter with the high-water mark.
+     * @param ldapConfig {@link LdapConfig} containing the import settings.
+     * @param lastWatermark High-water mark of the last import.
+     * @return LDAP filter only matching objects changed since the last import.
+     */
+    private static String getDeltaSearchFilter(LdapConfig ldapConfig, String lastWatermark) {
+        String watermarkFilter;
+        if (ldapConfig.getDeltaImportStrategy() == DeltaImportStrategy.USN_CHANGED) {
+            watermarkFilter = "(uSNChanged>=" + (Long.parseLong(lastWatermark) + 1) + ")";
+        } else {
+            watermarkFilter = "(modifyTimestamp>=" + lastWatermark + ")";
+        }
+        return "(&" + ldapConfig.getSearchFilter() + watermarkFilter + ")";
+    }
+
+    /**
+     * Get the name of the ldap attribute used as high-water mark.
+     * @param ldapConfig {@link LdapConfig} containing the import settings.
+     * @return Name of the ldap attribute used as high-water mark.
+     */
+    private static String getWatermarkAttributeName(LdapConfig ldapConfig) {
+        return ldapConfig.getDeltaImportStrategy() == DeltaImportStrategy.USN_CHANGED
+                ? "uSNChanged" : "modifyTimestamp";
+    }
+
+    /**
+     * Convert a single object read from the LDAP server to an user object.
+     * @param patternConfig {@link PatternConfig} containing the compiled templates used to build the user attributes.
+     * @param entry {@link LdapEntry} the user should be build from.
+     * @param buffer Reusable {@link StringBuilder} used to render the templates.
+     * @return Converted {@link User} object.
+     * @throws NamingException Thrown if reading of an LDAP attribute is unsuccessful.
+     */
+    private static User buildUser(PatternConfig patternConfig, LdapEntry entry, StringBuilder buffer)
+            throws NamingException {
+        String internalId = UUID.randomUUID().toString();
+        String onPremisesImmutableId = patternConfig.getOnPremisesImmutableIdTemplate().render(entry, buffer);
+        String givenName = patternConfig.getGivenNameTemplate().render(entry, buffer);
+        String surname = patternConfig.getSurnameTemplate().render(entry, buffer);
+        String displayName = patternConfig.getDisplayNameTemplate().render(entry, buffer);
+        String mailNickname = patternConfig.getMailNicknameTemplate().render(entry, buffer);
+        String userPrincipalName = patternConfig.getUserPrincipalNameTemplate().render(entry, buffer);
+
+        User user = new User(internalId, onPremisesImmutableId, null, givenName, surname,
+                displayName, mailNickname,userPrincipalName);
+        user.resetLastChanged();
+        return user;
+    }
 
-            User dbUser = H2Helper.getUserDao()
-                    .getByAttributeMatch("onPremisesImmutableId", onPremisesImmutableId);
+    /**
+     * Update the internal database with a single page of users read from the source ldap server.
+     * The users are classified by looking them up in the given index. Every matched user is removed from the index,
+     * so after a full import only the users that were not read from the source ldap server remain.
+     * Users whose deletion is still pending, for example because it was held, are restored to their previous
+     * change state, so a partial read of the source ldap is undone once the users are read again.
+     * @param users List containing the users of the current page.
+     * @param userIndex Index of the stored users by their onPremisesImmutableId.
+     * @param importResult {@link ImportResult} the results of this page should be added to.
+     *                     In a dry run the users are only classified and not written to the database.
+     * @return List containing the new and changed users written to the database that are pending for synchronization.
+     * @throws SQLException Thrown if an error occurs while writing to the database.
+     */
+    private static List<User> updateDatabase(List<User> users, Map<String, UserIndexEntry> userIndex,
+                                       ImportResult importResult) throws SQLException {
+        List<User> newUsers = new ArrayList<>();
+        List<User> changedUsers = new ArrayList<>();
+        List<User> restoredUsers = new ArrayList<>();
+
+        // Check for changed an new users.
+        for (User user : users) {
+            UserIndexEntry dbUser = userIndex.remove(user.getOnPremisesImmutableId());
             if (dbUser != null) {
-                if (!dbUser.isHashEqual(user)) {
+                boolean restored = dbUser.getChangeState() == ChangeState.DELETED
+                        && dbUser.getSyncState() == SyncState.PENDING;
+                ChangeState storedState = restored ? dbUser.getRestoredChangeState() : dbUser.getChangeState();
+                Set<UserAttribute> changedAttributes = user.diffAttributes(dbUser.getAttributeHashes());
+                if (!changedAttributes.isEmpty() || restored) {
                     user.setId(dbUser.getId());
                     user.setAzureImmutableId(dbUser.getAzureImmutableId());
                     user.setLastSyncId(dbUser.getLastSyncId());
-                    if (dbUser.getChangeState() != ChangeState.NEW) {
+                    if (storedState == ChangeState.NEW) {
+                        user.setChangeState(ChangeState.NEW);
+                        user.setSyncState(SyncState.PENDING);
+                        changedUsers.add(user);
+                    } else if (!changedAttributes.isEmpty() || storedState == ChangeState.CHANGED) {
                         user.setChangeState(ChangeState.CHANGED);
+                        user.setChangedAttributes(mergeChangedAttributes(dbUser, storedState, changedAttributes));
+                        user.setSyncState(SyncState.PENDING);
+                        changedUsers.add(user);
+                    } else {
+                        // The user was synced before its deletion, so it is only restored in the database
+                        user.setChangeState(ChangeState.UNCHANGED);
+                        user.setSyncState(SyncState.OK);
+                        restoredUsers.add(user);
                     }
-                    user.setSyncState(SyncState.PENDING);
-                    H2Helper.getUserDao().update(user);
-                    changedUsers++;
+                    importResult.changedUsers++;
                 } else {
-                    unchangedUsers++;
+                    importResult.unchangedUsers++;
                 }
             } else {
                 user.setChangeState(ChangeState.NEW);
                 user.setSyncState(SyncState.PENDING);
-                H2Helper.getUserDao().persist(user);
-                newUsers++;
+                newUsers.add(user);
+                importResult.newUsers++;
             }
         }
 
-        // Check for deleted users.
-        for (User user : H2Helper.getUserDao().getAll()) {
-            if (!users.containsKey(user.getOnPremisesImmutableId())) {
-                user.setChangeState(ChangeState.DELETED);
-                user.setSyncState(SyncState.PENDING);
-                H2Helper.getUserDao().update(user);
-                deletedUsers++;
+        if (importResult.isDryRun()) {
+            for (User user : newUsers) importResult.plannedChangeStates.put(user.getId(), ChangeState.NEW);
+            for (User user : changedUsers) importResult.plannedChangeStates.put(user.getId(), user.getChangeState());
+            for (User user : restoredUsers) importResult.plannedChangeStates.remove(user.getId());
+            newUsers.addAll(changedUsers);
+            return newUsers;
+        }
+
+        restoredUsers.addAll(changedUsers);
+        if (!H2Helper.getUserDao().persistAll(newUsers) || !H2Helper.getUserDao().updateAll(restoredUsers)) {
+            throw new SQLException("Failed to write " + newUsers.size() + " new and "
+                    + restoredUsers.size() + " changed users to the database");
+        }
+        newUsers.addAll(changedUsers);
+        return newUsers;
+    }
+
+    /**
+     * Merge the attributes changed by this import with the ones of a previous change that was not synced yet.
+     * @param dbUser {@link UserIndexEntry} of the user as currently stored in the database.
+     * @param storedState Change state of the stored user, or the restored one if its deletion is reverted.
+     * @param changedAttributes Attributes changed by this import.
+     * @return All attributes that have to be synced, or null if all attributes have to be synced.
+     */
+    private static Set<UserAttribute> mergeChangedAttributes(UserIndexEntry dbUser, ChangeState storedState,
+                                                             Set<UserAttribute> changedAttributes) {
+        if (storedState != ChangeState.CHANGED || dbUser.getSyncState() == SyncState.OK) {
+            return changedAttributes;
+        }
+        // Users changed by older versions have no changed attributes stored, so all attributes are synced
+        if (dbUser.getChangedAttributes() == null) return null;
+        Set<UserAttribute> mergedAttributes = EnumSet.copyOf(changedAttributes);
+        mergedAttributes.addAll(dbUser.getChangedAttributes());
+        return mergedAttributes;
+    }
+
+    /**
+     * Mark all users in the internal database as deleted, that were not read from the source ldap server.
+     * @param remainingUsers Index entries of all users that were not read from the source ldap server.
+     * @param importResult {@link ImportResult} the deleted users should be added to.
+     *                     In a dry run the users are only classified and not written to the database.
+     * @throws SQLException Thrown if an error occurs while writing to the database.
+     */
+    private static void markDeletedUsers(Collection<UserIndexEntry> remainingUsers, ImportResult importResult)
+            throws SQLException {
+        List<String> deletedIds = new ArrayList<>(remainingUsers.size());
+        for (UserIndexEntry user : remainingUsers) {
+            deletedIds.add(user.getId());
+        }
+        if (importResult.isDryRun()) {
+            for (String id : deletedIds) importResult.plannedChangeStates.put(id, ChangeState.DELETED);
+        } else {
+            H2Helper.getUserDao().markDeleted(deletedIds);
+        }
+        importResult.deletedUsers += deletedIds.size();
+    }
+
+    /**
+     * Counters for the results of a single import cycle.
+     */
+    private static class ImportResult {
+
+        /** Amount of new users found by the import */
+        private long newUsers = 0L;
+        /** Amount of changed users found by the import */
+        private long changedUsers = 0L;
+        /** Amount of deleted users found by the import */
+        private long deletedUsers = 0L;
+        /** Amount of unchanged users found by the import */
+        private long unchangedUsers = 0L;
+        /** Change states of all users pending after the import by their id, or null if the import is no dry run */
+        private final Map<String, ChangeState> plannedChangeStates;
+
+        /**
+         * Create new counters for an import cycle.
+         * @param plannedChangeStates Change states of the users pending before the import by their id,
+         *                            or null if the results should be written to the database.
+         */
+        private ImportResult(Map<String, ChangeState> plannedChangeStates) {
+            this.plannedChangeStates = plannedChangeStates;
+        }
+
+        /**
+         * Check if the import only classifies the users without writing to the database.
+         * @return true if the import is a dry run, otherwise false.
+         */
+        private boolean isDryRun() {
+            return plannedChangeStates != null;
+        }
+
+    }
+
+    /**
+     * State of a single search base that is imported as an independent partition.
+     */
+    private static class ImportPartition {
+
+        /** Base DN which is searched for objects */
+        private final String searchBase;
+        /** Key identifying this partition in the watermark table */
+        private final String sourceKey;
+        /** High-water mark of the last import, or null if no incremental import was run yet */
+        private final String lastWatermark;
+        /** Highest modifyTimestamp of all objects read from this partition */
+        private String highestModifyTimestamp;
+        /** Boolean representing if the partition was imported successfully */
+        private boolean completed = false;
+
+        /**
+         * Create a new partition.
+         * @param searchBase Base DN which is searched for objects.
+         * @param sourceKey Key identifying this partition in the watermark table.
+         * @param lastWatermark High-water mark of the last import, or null if no incremental import was run yet.
+         */
+        private ImportPartition(String searchBase, String sourceKey, String lastWatermark) {
+            this.searchBase = searchBase;
+            this.sourceKey = sourceKey;
+            this.lastWatermark = lastWatermark;
+        }
+
+        /**
+         * Remember the modifyTimestamp of the given object if it is higher than all previously read ones.
+         * @param result Result of the LDAP search.
+         * @param watermarkAttributeName Name of the ldap attribute used as high-water mark.
+         * @throws NamingException Thrown if reading of the LDAP attribute is unsuccessful.
+         */
+        private void trackModifyTimestamp(SearchResult result, String watermarkAttributeName)
+                throws NamingException {
+            if (!"modifyTimestamp".equals(watermarkAttributeName)) return;
+            Attribute attribute = result.getAttributes().get(watermarkAttributeName);
+            if (attribute == null) return;
+            String modifyTimestamp = attribute.get().toString();
+            if (highestModifyTimestamp == null || modifyTimestamp.compareTo(highestModifyTimestamp) > 0) {
+                highestModifyTimestamp = modifyTimestamp;
             }
         }
 
-        LOG.info("LDAP import finished. Result: {} NEW, {} CHANGED, {} DELETED, {} UNCHANGED",
-                newUsers, changedUsers, deletedUsers, unchangedUsers);
-        return newUsers + changedUsers + deletedUsers;
+        /**
+         * Get the highest modifyTimestamp read from this partition, or the last watermark if no newer object was read.
+         * @return The new high-water mark.
+         */
+        private String getHighestModifyTimestamp() {
+            if (highestModifyTimestamp == null) return lastWatermark;
+            if (lastWatermark != null && lastWatermark.compareTo(highestModifyTimestamp) > 0) return lastWatermark;
+            return highestModifyTimestamp;
+        }
+
     }
 
 }
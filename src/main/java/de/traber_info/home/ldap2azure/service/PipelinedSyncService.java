@@ -0,0 +1,55 @@
+package de.traber_info.home.ldap2azure.service;
+
+import de.traber_info.home.ldap2azure.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+
+/**
+ * Service used to run the ldap import and the Azure AD sync at the same time.
+ * The import publishes every new and changed user into a bounded {@link SyncPipeline}, while the sync consumes
+ * them in a separate thread. The time from a change in the source ldap to Azure AD is therefore bounded by the
+ * slower of both stages instead of their sum.
+ *
+ * @author Oliver Traber
+ */
+public class PipelinedSyncService {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedSyncService.class.getName());
+
+    /**
+     * Run an import from the source ldap server and sync the changes to Azure AD while the import is running.
+     */
+    public static void run() {
+        SyncPipeline pipeline = new SyncPipeline(ConfigUtil.getConfig().getGeneralConfig().getPipelineQueueSize());
+
+        Thread syncThread = new Thread(() -> {
+            try {
+                new AzureSyncService().run(pipeline);
+            } catch (SQLException ex) {
+                LOG.error("An unexpected error occurred", ex);
+            } finally {
+                // Never leave the import blocked on a pipeline nobody consumes anymore
+                pipeline.abandon();
+            }
+        }, "azure-sync-pipeline");
+        syncThread.start();
+
+        try {
+            LdapImportService.run(pipeline);
+        } finally {
+            pipeline.close();
+        }
+
+        try {
+            syncThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            syncThread.interrupt();
+            LOG.warn("Interrupted while waiting for the Azure AD sync to finish");
+        }
+    }
+
+}
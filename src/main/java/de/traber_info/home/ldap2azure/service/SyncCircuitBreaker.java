@@ -0,0 +1,143 @@
+package de.traber_info.home.ldap2azure.service;
+
+import de.traber_info.home.ldap2azure.model.config.GeneralConfig;
+import de.traber_info.home.ldap2azure.model.object.SyncHold;
+import de.traber_info.home.ldap2azure.model.type.SyncOperation;
+import de.traber_info.home.ldap2azure.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+
+/**
+ * Circuit breaker protecting Azure AD from mass changes caused by a faulty import, like an ldap search returning
+ * an empty or partial result. Syncs only update and delete as many users as the configured limits allow.
+ * If more users are pending, the operation is held and the users stay pending until an administrator approves
+ * or rejects the hold using the REST api. The hold is kept in memory, since every sync evaluates the pending users
+ * again and holds them again after a restart.
+ *
+ * @author Oliver Traber
+ */
+public class SyncCircuitBreaker {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(SyncCircuitBreaker.class.getName());
+
+    /** Amount of users an operation may sync if no limit is configured */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /** Changes held by the last sync, or null if no changes are held */
+    private static SyncHold hold;
+
+    /** Approved hold whose held users the next sync may sync regardless of the limits, or null if none */
+    private static SyncHold approval;
+
+    /**
+     * Begin a sync that is subject to the limits. An existing approval is consumed by the sync.
+     * @return Approved {@link SyncHold} the sync may exceed the limits for, or null if the sync was not approved.
+     */
+    public static synchronized SyncHold beginSync() {
+        SyncHold syncApproval = approval;
+        approval = null;
+        return syncApproval;
+    }
+
+    /**
+     * Get the maximum amount of users an operation may sync without approval.
+     * @param operation {@link SyncOperation} that should be limited.
+     * @param totalUsers Total amount of users stored in ldap2azure.
+     * @return Maximum amount of users, or {@link #UNLIMITED} if the operation is not limited.
+     */
+    public static long getLimit(SyncOperation operation, long totalUsers) {
+        if (operation == SyncOperation.CREATE) return UNLIMITED;
+        GeneralConfig config = ConfigUtil.getConfig().getGeneralConfig();
+        long absoluteLimit = operation == SyncOperation.DELETE
+                ? config.getMassDeleteLimit() : config.getMassChangeLimit();
+        double percentage = operation == SyncOperation.DELETE
+                ? config.getMassDeletePercentage() : config.getMassChangePercentage();
+        long limit = absoluteLimit > 0 ? absoluteLimit : UNLIMITED;
+        if (percentage > 0) limit = Math.min(limit, (long) (totalUsers * percentage / 100));
+        return limit;
+    }
+
+    /**
+     * Get the maximum amount of users an operation may sync with the given approval. The approval only raises
+     * the limit to the amount of users that were held, so users that became pending after the approval are held
+     * again if they exceed it.
+     * @param operation {@link SyncOperation} that should be limited.
+     * @param totalUsers Total amount of users stored in ldap2azure.
+     * @param approval Approved {@link SyncHold} as returned by {@link #beginSync()}, or null.
+     * @return Maximum amount of users, or {@link #UNLIMITED} if the operation is not limited.
+     */
+    public static long getLimit(SyncOperation operation, long totalUsers, SyncHold approval) {
+        long limit = getLimit(operation, totalUsers);
+        if (approval == null) return limit;
+        long approvedUsers = operation == SyncOperation.DELETE ? approval.getHeldDeletes() : approval.getHeldChanges();
+        return Math.max(limit, approvedUsers);
+    }
+
+    /**
+     * Record the result of a sync that is subject to the limits. The hold is replaced by the users held by this sync,
+     * or released if the sync held no users. An approval is kept, since the approval consumed by this sync was
+     * already cleared by {@link #beginSync()} and any other approval was made while this sync was running.
+     * @param syncId Id of the sync.
+     * @param totalUsers Total amount of users stored in ldap2azure at the beginning of the sync.
+     * @param heldChanges Amount of users whose update was held by the sync.
+     * @param heldDeletes Amount of users whose deletion was held by the sync.
+     */
+    public static synchronized void endSync(String syncId, long totalUsers, long heldChanges, long heldDeletes) {
+        if (heldChanges == 0 && heldDeletes == 0) {
+            if (hold != null) LOG.info("Changes held since {} are no longer pending", hold.getHeldSince());
+            hold = null;
+            return;
+        }
+        hold = new SyncHold(hold != null ? hold.getHeldSince() : LocalDateTime.now(), syncId,
+                heldChanges, toLimitValue(getLimit(SyncOperation.UPDATE, totalUsers)),
+                heldDeletes, toLimitValue(getLimit(SyncOperation.DELETE, totalUsers)), totalUsers, approval != null);
+        LOG.warn("Sync {} held back {} updates and {} deletes, since they exceed the configured limits. " +
+                "The users stay pending until the changes are approved or rejected using the REST api",
+                syncId, heldChanges, heldDeletes);
+    }
+
+    /**
+     * Get the changes currently held.
+     * @return Currently held {@link SyncHold}, or null if no changes are held.
+     */
+    public static synchronized SyncHold getHold() {
+        return hold;
+    }
+
+    /**
+     * Approve the held changes, so the next sync may sync as many users as were held regardless of the limits.
+     * @return Approved {@link SyncHold}, or null if no changes are held.
+     */
+    public static synchronized SyncHold approve() {
+        if (hold == null) return null;
+        hold = hold.approve();
+        approval = hold;
+        LOG.info("Held changes of sync {} were approved", hold.getSyncId());
+        return hold;
+    }
+
+    /**
+     * Release the hold after the held changes were discarded.
+     * @return Rejected {@link SyncHold}, or null if no changes are held.
+     */
+    public static synchronized SyncHold reject() {
+        SyncHold rejectedHold = hold;
+        hold = null;
+        approval = null;
+        if (rejectedHold != null) LOG.info("Held changes of sync {} were rejected", rejectedHold.getSyncId());
+        return rejectedHold;
+    }
+
+    /**
+     * Convert a limit to the value reported in a {@link SyncHold}.
+     * @param limit Limit as returned by {@link #getLimit(SyncOperation, long)}.
+     * @return The limit, or -1 if the operation is not limited.
+     */
+    private static long toLimitValue(long limit) {
+        return limit == UNLIMITED ? -1 : limit;
+    }
+
+}
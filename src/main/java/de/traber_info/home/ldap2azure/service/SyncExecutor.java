@@ -0,0 +1,101 @@
+package de.traber_info.home.ldap2azure.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker pool used to run the requests of an Azure AD sync concurrently.
+ * Every kind of operation gets its own {@link Executor} with an individual concurrency limit,
+ * while all of them share the threads of the pool.
+ *
+ * @author Oliver Traber
+ */
+public class SyncExecutor {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(SyncExecutor.class.getName());
+
+    /** Worker pool running the submitted tasks */
+    private final ExecutorService workerPool;
+
+    /** Phaser used to wait for all submitted tasks to finish */
+    private final Phaser pendingTasks = new Phaser(1);
+
+    /**
+     * Create a new sync executor.
+     * @param threads Amount of worker threads.
+     */
+    public SyncExecutor(int threads) {
+        this.workerPool = createWorkerPool(Math.max(1, threads));
+    }
+
+    /**
+     * Create the worker pool. Requests to Microsoft Graph spend nearly all of their time waiting for the response,
+     * so on Java 21 and newer this is the place to switch to {@code Executors.newVirtualThreadPerTaskExecutor()}.
+     * @param threads Amount of worker threads.
+     * @return Worker pool running the submitted tasks.
+     */
+    private static ExecutorService createWorkerPool(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "azure-sync-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, threadFactory);
+    }
+
+    /**
+     * Get an {@link Executor} that runs tasks on the worker pool, but never more than the given amount at once.
+     * Submitting a task blocks the caller until a permit is available, so the caller can't queue up
+     * an unbounded amount of requests.
+     * @param maxConcurrentTasks Maximum amount of tasks of this executor running at the same time.
+     * @return Executor limited to the given concurrency.
+     */
+    public Executor limitedTo(int maxConcurrentTasks) {
+        Semaphore permits = new Semaphore(Math.max(1, maxConcurrentTasks));
+        return task -> {
+            permits.acquireUninterruptibly();
+            pendingTasks.register();
+            try {
+                workerPool.execute(() -> {
+                    try {
+                        task.run();
+                    } catch (RuntimeException ex) {
+                        LOG.error("An unexpected error occurred", ex);
+                    } finally {
+                        permits.release();
+                        pendingTasks.arriveAndDeregister();
+                    }
+                });
+            } catch (RuntimeException ex) {
+                permits.release();
+                pendingTasks.arriveAndDeregister();
+                throw ex;
+            }
+        };
+    }
+
+    /**
+     * Wait until all tasks submitted so far have finished.
+     */
+    public void awaitCompletion() {
+        pendingTasks.arriveAndAwaitAdvance();
+    }
+
+    /**
+     * Stop the worker threads. Tasks that are still running are finished first.
+     */
+    public void shutdown() {
+        workerPool.shutdown();
+    }
+
+}
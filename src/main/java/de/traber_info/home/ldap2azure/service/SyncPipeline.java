@@ -0,0 +1,81 @@
+package de.traber_info.home.ldap2azure.service;
+
+import de.traber_info.home.ldap2azure.model.object.User;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue connecting the {@link LdapImportService} with the {@link AzureSyncService} in pipelined mode.
+ * The import publishes every new and changed user once it was written to the database, while the sync consumes
+ * them concurrently. If the sync falls behind, publishing blocks, which pauses the import until space is available.
+ *
+ * @author Oliver Traber
+ */
+public class SyncPipeline {
+
+    /** Users waiting to be synced */
+    private final BlockingQueue<User> queue;
+
+    /** Boolean representing if the import finished and no more users are published */
+    private volatile boolean closed = false;
+
+    /** Boolean representing if the sync stopped consuming users */
+    private volatile boolean abandoned = false;
+
+    /**
+     * Create a new pipeline.
+     * @param capacity Maximum amount of users waiting to be synced.
+     */
+    public SyncPipeline(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Publish an imported user. Blocks while the pipeline is full. Users published after the sync stopped
+     * consuming are dropped, since they stay pending in the database and are synced by the next sync.
+     * @param user New or changed {@link User} that should be synced.
+     * @throws InterruptedException Thrown if the thread is interrupted while waiting for space.
+     */
+    public void publish(User user) throws InterruptedException {
+        if (closed) throw new IllegalStateException("The sync pipeline is already closed");
+        while (!abandoned) {
+            if (queue.offer(user, 1, TimeUnit.SECONDS)) return;
+        }
+    }
+
+    /**
+     * Mark the pipeline as abandoned, since the sync stopped consuming users. Unblocks the import.
+     */
+    public void abandon() {
+        abandoned = true;
+        queue.clear();
+    }
+
+    /**
+     * Mark the pipeline as closed, since the import finished.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Get the next user that should be synced.
+     * @param timeout Maximum time to wait for a user in milliseconds.
+     * @return Next {@link User}, or null if no user was published within the timeout.
+     * @throws InterruptedException Thrown if the thread is interrupted while waiting.
+     */
+    public User poll(long timeout) throws InterruptedException {
+        return queue.poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check if the import finished and all published users were consumed.
+     * @return true if no more users will be returned by the pipeline, otherwise false.
+     */
+    public boolean isDrained() {
+        return closed && queue.isEmpty();
+    }
+
+}
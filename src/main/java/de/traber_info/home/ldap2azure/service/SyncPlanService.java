@@ -0,0 +1,132 @@
+package de.traber_info.home.ldap2azure.service;
+
+import de.traber_info.home.ldap2azure.h2.H2Helper;
+import de.traber_info.home.ldap2azure.model.config.AutoLicensingConfig;
+import de.traber_info.home.ldap2azure.model.object.Sync;
+import de.traber_info.home.ldap2azure.model.object.SyncPlan;
+import de.traber_info.home.ldap2azure.model.type.ChangeState;
+import de.traber_info.home.ldap2azure.model.type.DeleteBehavior;
+import de.traber_info.home.ldap2azure.msgraph.GraphBatchExecutor;
+import de.traber_info.home.ldap2azure.msgraph.LicenseManager;
+import de.traber_info.home.ldap2azure.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.NamingException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Service used to plan the next sync without changing anything. The users are classified by a dry run of the
+ * ldap import, the requests are counted the way the {@link AzureSyncService} batches them and the duration is
+ * estimated from the throughput of recent syncs. Microsoft Graph is not contacted, so large changes can be
+ * inspected before they are synced and scheduled accordingly.
+ *
+ * @author Oliver Traber
+ */
+public class SyncPlanService {
+
+    /** SLF4J logger for usage in this class */
+    private static final Logger LOG = LoggerFactory.getLogger(SyncPlanService.class.getName());
+
+    /** Maximum amount of recent syncs the throughput is calculated from */
+    private static final long REFERENCE_SYNC_AMOUNT = 20;
+
+    /**
+     * Plan the next sync.
+     * @return {@link SyncPlan} describing the next sync.
+     * @throws NamingException Thrown if not all objects could be read from the LDAP server.
+     * @throws SQLException Thrown if the stored users could not be read from the database.
+     */
+    public static SyncPlan run() throws NamingException, SQLException {
+        LOG.info("Planning next sync without writing to the database or contacting Azure AD...");
+        Map<ChangeState, Long> plannedUsers = LdapImportService.plan();
+        long usersToCreate = plannedUsers.getOrDefault(ChangeState.NEW, 0L);
+        long usersToUpdate = plannedUsers.getOrDefault(ChangeState.CHANGED, 0L);
+        long usersToDelete = plannedUsers.getOrDefault(ChangeState.DELETED, 0L);
+
+        // Direct assignments are chained to the creation inside the same batch, group memberships are added in bulk
+        boolean groupLicensing = isGroupLicensing();
+        boolean directLicensing = !groupLicensing && isDirectLicensing();
+        long licenseRequests = 0;
+        long licenseCalls = 0;
+        if (directLicensing) {
+            licenseRequests = usersToCreate;
+        } else if (groupLicensing) {
+            licenseRequests = divideRoundingUp(usersToCreate, LicenseManager.MAX_GROUP_MEMBERS_PER_REQUEST);
+            licenseCalls = licenseRequests;
+        }
+        long purgeRequests = ConfigUtil.getConfig().getGraphClientConfig().getDeleteBehavior() == DeleteBehavior.HARD
+                ? usersToDelete : 0;
+
+        long createSteps = usersToCreate * (directLicensing ? 2 : 1);
+        long graphRequests = createSteps + usersToUpdate + usersToDelete + purgeRequests
+                + (groupLicensing ? licenseRequests : 0);
+        long httpCalls = divideRoundingUp(createSteps, GraphBatchExecutor.MAX_BATCH_SIZE)
+                + divideRoundingUp(usersToUpdate, GraphBatchExecutor.MAX_BATCH_SIZE)
+                + divideRoundingUp(usersToDelete, GraphBatchExecutor.MAX_BATCH_SIZE)
+                + divideRoundingUp(purgeRequests, GraphBatchExecutor.MAX_BATCH_SIZE)
+                + licenseCalls;
+
+        // Estimate the duration from the users synced per second by recent syncs
+        long referenceUsers = 0;
+        long referenceMillis = 0;
+        int referenceSyncs = 0;
+        for (Sync sync : H2Helper.getSyncDao().getRecentCompleted(REFERENCE_SYNC_AMOUNT)) {
+            long syncedUsers = sync.getUsersCreated() + sync.getUsersChanged() + sync.getUsersDeleted()
+                    + sync.getUsersFailed();
+            long millis = Duration.between(sync.getSyncBegin(), sync.getSyncEnd()).toMillis();
+            if (syncedUsers == 0 || millis <= 0) continue;
+            referenceUsers += syncedUsers;
+            referenceMillis += millis;
+            referenceSyncs++;
+        }
+        double usersPerSecond = referenceMillis > 0 ? referenceUsers * 1000.0 / referenceMillis : 0;
+        Long estimatedDuration = usersPerSecond > 0
+                ? (long) Math.ceil((usersToCreate + usersToUpdate + usersToDelete) / usersPerSecond) : null;
+
+        LOG.info("Sync plan: {} NEW, {} CHANGED, {} DELETED using {} requests in {} http calls. " +
+                        "Estimated duration: {}", usersToCreate, usersToUpdate, usersToDelete, graphRequests,
+                httpCalls, estimatedDuration != null ? estimatedDuration + " seconds" : "unknown");
+        return new SyncPlan(LocalDateTime.now(), usersToCreate, usersToUpdate, usersToDelete, licenseRequests,
+                purgeRequests, graphRequests, httpCalls, usersPerSecond, referenceSyncs, estimatedDuration);
+    }
+
+    /**
+     * Check if licenses are assigned to new users using group-based licensing. The validated state of the
+     * {@link LicenseManager} is used if it was initialized, otherwise the configuration is used.
+     * @return true if new users are added to the license group, otherwise false.
+     */
+    private static boolean isGroupLicensing() {
+        LicenseManager licenseManager = LicenseManager.getInstance();
+        if (licenseManager != null) return licenseManager.isEnabled() && licenseManager.isGroupBased();
+        AutoLicensingConfig config = ConfigUtil.getConfig().getAutoLicencingConfig();
+        return config.isEnabled() && config.getLicenseGroupId() != null && !config.getLicenseGroupId().isEmpty();
+    }
+
+    /**
+     * Check if licenses are assigned to new users directly. Assumes that free seats are available,
+     * since the seats can only be read from Azure AD.
+     * @return true if the default licenses are assigned to new users, otherwise false.
+     */
+    private static boolean isDirectLicensing() {
+        LicenseManager licenseManager = LicenseManager.getInstance();
+        if (licenseManager != null) return licenseManager.isEnabled() && !licenseManager.isGroupBased();
+        AutoLicensingConfig config = ConfigUtil.getConfig().getAutoLicencingConfig();
+        return config.isEnabled() && config.getDefaultLicenceSkuIDs() != null
+                && !config.getDefaultLicenceSkuIDs().isEmpty();
+    }
+
+    /**
+     * Divide two amounts, rounding the result up.
+     * @param dividend Amount that should be divided.
+     * @param divisor Amount the dividend should be divided by.
+     * @return Rounded up quotient.
+     */
+    private static long divideRoundingUp(long dividend, long divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+}
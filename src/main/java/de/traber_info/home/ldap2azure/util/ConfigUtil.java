@@ -51,6 +51,7 @@ public class ConfigUtil {
         try {
             InputStream configInputStream = new FileInputStream(path + "/config.json");
             config = new ObjectMapper().readValue(configInputStream, Config.class);
+            config.getPatternConfig().compileTemplates();
         } catch (FileNotFoundException ex) {
             LOG.error("Config file config.json not found in path {}", path, ex);
             System.exit(2);
@@ -0,0 +1,94 @@
+package de.traber_info.home.ldap2azure.util;
+
+/**
+ * Util used to calculate fast non-cryptographic fingerprints of user attributes using the 64 bit FNV-1a hash.
+ *
+ * @author Oliver Traber
+ */
+public class HashUtil {
+
+    /** FNV-1a 64 bit offset basis */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    /** FNV-1a 64 bit prime */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Marker hashed between two values, so "ab" + "c" and "a" + "bc" result in different hashes */
+    private static final int FIELD_SEPARATOR = 0x1f;
+
+    /** Marker hashed for null values, so null and the string "null" result in different hashes */
+    private static final int NULL_MARKER = 0x00;
+
+    /**
+     * Calculate the hash of a single value.
+     * @param value Value that should be hashed. May be null.
+     * @return 64 bit FNV-1a hash of the value.
+     */
+    public static long hash(String value) {
+        return update(FNV_OFFSET_BASIS, value);
+    }
+
+    /**
+     * Calculate the hash of multiple values. The values are separated from each other before hashing.
+     * @param values Values that should be hashed. Single values may be null.
+     * @return 64 bit FNV-1a hash of the values.
+     */
+    public static long hash(String... values) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) hash = updateByte(hash, FIELD_SEPARATOR);
+            hash = update(hash, values[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * Convert the given hash to its fixed length hexadecimal representation.
+     * @param hash Hash that should be converted.
+     * @return 16 character long hexadecimal representation of the hash.
+     */
+    public static String toHex(long hash) {
+        String hex = Long.toHexString(hash);
+        if (hex.length() == 16) return hex;
+        StringBuilder builder = new StringBuilder(16);
+        for (int i = hex.length(); i < 16; i++) builder.append('0');
+        return builder.append(hex).toString();
+    }
+
+    /**
+     * Convert the given hexadecimal representation back to the hash.
+     * @param hex Hexadecimal representation created by {@link #toHex(long)}.
+     * @return Hash represented by the given string.
+     */
+    public static long fromHex(String hex) {
+        return Long.parseUnsignedLong(hex, 16);
+    }
+
+    /**
+     * Add the given value to an existing hash. Both bytes of every character are hashed,
+     * so no encoding of the string is required.
+     * @param hash Existing hash.
+     * @param value Value that should be added. May be null.
+     * @return Updated hash.
+     */
+    private static long update(long hash, String value) {
+        if (value == null) return updateByte(hash, NULL_MARKER);
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            hash = updateByte(hash, character >>> 8);
+            hash = updateByte(hash, character & 0xff);
+        }
+        return hash;
+    }
+
+    /**
+     * Add a single byte to an existing hash.
+     * @param hash Existing hash.
+     * @param value Byte that should be added.
+     * @return Updated hash.
+     */
+    private static long updateByte(long hash, int value) {
+        return (hash ^ (value & 0xff)) * FNV_PRIME;
+    }
+
+}